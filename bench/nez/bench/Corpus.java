@@ -0,0 +1,172 @@
+package nez.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import nez.ParserGenerator;
+import nez.ast.Source;
+import nez.lang.Expression;
+import nez.lang.Grammar;
+import nez.lang.Nez;
+import nez.lang.Production;
+import nez.lang.ast.GrammarExample;
+import nez.lang.ast.GrammarExample.Example;
+import nez.parser.Parser;
+import nez.parser.ParserStrategy;
+import nez.parser.io.CommonSource;
+import nez.util.StringUtils;
+
+/**
+ * Corpus is the input of a benchmark: the examples bundled with a grammar in
+ * tool/nez/lib and the files in its corpus directory (bench/corpus/xml for
+ * xml.nez), each parsed from the production it is written for, or the files
+ * given as a comma-separated list, each parsed from the start production. A
+ * corpus file is named after its production, as in File.txt. Inputs that the
+ * grammar does not accept are left out, so that parse() measures successful
+ * parses.
+ */
+
+final class Corpus {
+	final static String CorpusDir = "bench/corpus";
+
+	final Grammar grammar;
+	final List<String> names = new ArrayList<>();
+	final List<byte[]> texts = new ArrayList<>();
+	private final boolean binary;
+
+	private Corpus(Grammar grammar) {
+		this.grammar = grammar;
+		boolean binary = false;
+		for (Production p : grammar) {
+			binary |= isBinary(p.getExpression());
+		}
+		this.binary = binary;
+	}
+
+	/* a grammar that reads \x00 needs BinaryGrammar to stop at the end */
+
+	private static boolean isBinary(Expression e) {
+		if (e instanceof Nez.Byte) {
+			return ((Nez.Byte) e).byteChar == 0;
+		}
+		if (e instanceof Nez.ByteSet) {
+			return ((Nez.ByteSet) e).byteset[0];
+		}
+		for (Expression sub : e) {
+			if (isBinary(sub)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static Corpus load(String grammarFile, String files) throws IOException {
+		Corpus corpus = new Corpus(new ParserGenerator().loadGrammar(grammarFile));
+		if (files == null || files.isEmpty()) {
+			GrammarExample example = (GrammarExample) corpus.grammar.getMetaData("example");
+			if (example != null) {
+				for (Example ex : example.getExampleList()) {
+					corpus.add(ex.getName(), StringUtils.utf8(ex.getText()));
+				}
+			}
+			corpus.addCorpusFiles(grammarFile);
+		} else {
+			for (String file : files.split(",")) {
+				corpus.add(null, Files.readAllBytes(Paths.get(file)));
+			}
+		}
+		corpus.retainAccepted();
+		if (corpus.size() == 0) {
+			throw new IOException("no input for " + grammarFile);
+		}
+		return corpus;
+	}
+
+	private void addCorpusFiles(String grammarFile) throws IOException {
+		String base = Paths.get(grammarFile).getFileName().toString();
+		if (base.endsWith(".nez")) {
+			base = base.substring(0, base.length() - 4);
+		}
+		Path dir = Paths.get(CorpusDir, base);
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : files.sorted().collect(Collectors.toList())) {
+				String name = file.getFileName().toString();
+				add(name.substring(0, name.indexOf('.') > 0 ? name.indexOf('.') : name.length()), Files.readAllBytes(file));
+			}
+		}
+	}
+
+	private void add(String name, byte[] text) {
+		names.add(name);
+		texts.add(text);
+	}
+
+	private void retainAccepted() {
+		Parser[] parsers = newParsers(ParserStrategy.newDefaultStrategy());
+		for (int i = size() - 1; i >= 0; i--) {
+			if (parsers[i] == null || !parsers[i].match(newSource(i))) {
+				names.remove(i);
+				texts.remove(i);
+			}
+		}
+	}
+
+	final int size() {
+		return texts.size();
+	}
+
+	final long bytes() {
+		long n = 0;
+		for (byte[] text : texts) {
+			n += text.length;
+		}
+		return n;
+	}
+
+	/* one compiled parser per input, shared by the inputs of a production */
+
+	final Parser[] newParsers(ParserStrategy strategy) {
+		if (binary && !strategy.BinaryGrammar) {
+			strategy = strategy.clone();
+			strategy.BinaryGrammar = true;
+		}
+		HashMap<String, Parser> parserMap = new HashMap<>();
+		Parser[] parsers = new Parser[size()];
+		for (int i = 0; i < size(); i++) {
+			String name = names.get(i) == null ? grammar.getStartProduction().getLocalName() : names.get(i);
+			Parser p = parserMap.get(name);
+			if (p == null && !parserMap.containsKey(name)) {
+				p = grammar.newParser(name, strategy);
+				if (p != null) {
+					p.setDisabledUnconsumed(true);
+					p.compile();
+				}
+				parserMap.put(name, p);
+			}
+			parsers[i] = p;
+		}
+		return parsers;
+	}
+
+	final Source newSource(int i) {
+		return CommonSource.newStringSource(names.get(i) == null ? "input" : names.get(i), 1, StringUtils.newString(texts.get(i)));
+	}
+
+	final Source[] newSources() {
+		Source[] sources = new Source[size()];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = newSource(i);
+		}
+		return sources;
+	}
+}
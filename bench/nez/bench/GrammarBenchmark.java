@@ -0,0 +1,54 @@
+package nez.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nez.ParserGenerator;
+import nez.lang.Grammar;
+import nez.parser.Parser;
+import nez.parser.ParserCode;
+import nez.parser.ParserStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * GrammarBenchmark measures the time to load a grammar from tool/nez/lib
+ * (load), and to load, optimize and compile it into a parser for the start
+ * production (compile), as every command does before it parses.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrammarBenchmark {
+
+	@Param({ "celery.nez", "csv.nez", "email.nez", "java.nez", "js.nez", "json.nez", "konoha.nez", "math.nez", "regex.nez", "testall.nez", "tpeg.nez", "utf8.nez", "vmnez.nez", "xml.nez", "xmldtd.nez" })
+	public String grammar;
+
+	@Param({ "" })
+	public String options;
+
+	@Benchmark
+	public Grammar load() throws IOException {
+		return new ParserGenerator().loadGrammar(grammar);
+	}
+
+	@Benchmark
+	public ParserCode<?> compile() throws IOException {
+		Grammar g = new ParserGenerator().loadGrammar(grammar);
+		Parser parser = new ParserStrategy(options).newParser(g);
+		return parser.compile();
+	}
+}
@@ -0,0 +1,103 @@
+package nez.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.ParserStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MemoBenchmark measures the memo table variants of ParserStrategy (the
+ * number of ways, the replacement policy and the size of the sliding
+ * window) on a grammar that backtracks. The off-heap table keeps no trees,
+ * so it is measured with match and -TreeConstruction.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoBenchmark {
+
+	@Param({ "js.nez" })
+	public String grammar;
+
+	@Param({ "" })
+	public String input;
+
+	@Param({ "1", "2", "4", "8" })
+	public int ways;
+
+	@Param({ "LRU", "CLOCK" })
+	public String policy;
+
+	@Param({ "64" })
+	public int window;
+
+	private Parser[] parsers;
+	private Parser[] offHeapParsers;
+	private Source[] sources;
+
+	@Setup
+	public void setup() throws IOException {
+		Corpus corpus = Corpus.load(grammar, input);
+		parsers = corpus.newParsers(newStrategy(false));
+		offHeapParsers = corpus.newParsers(newStrategy(true));
+		sources = corpus.newSources();
+	}
+
+	private ParserStrategy newStrategy(boolean offHeap) {
+		ParserStrategy strategy = ParserStrategy.newDefaultStrategy();
+		strategy.PackratParsing = true;
+		strategy.SlidingWindow = window;
+		strategy.MemoWays = ways;
+		strategy.MemoPolicy = policy;
+		strategy.MemoOffHeap = offHeap;
+		strategy.TreeConstruction = !offHeap;
+		return strategy;
+	}
+
+	@Benchmark
+	public int match() {
+		return match(parsers);
+	}
+
+	@Benchmark
+	public int matchOffHeap() {
+		return match(offHeapParsers);
+	}
+
+	private int match(Parser[] parsers) {
+		int n = 0;
+		for (int i = 0; i < sources.length; i++) {
+			if (parsers[i].match(sources[i])) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		for (int i = 0; i < sources.length; i++) {
+			bh.consume(parsers[i].parse(sources[i], new CommonTree()));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package nez.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.ParserStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ParseBenchmark measures Parser.match and Parser.parse over the corpus of
+ * each grammar; an operation is one pass over all its inputs. Other inputs
+ * are measured with -p input=file,... and options are parser options such as
+ * "+Ojit -Oinline".
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "celery.nez", "csv.nez", "email.nez", "java.nez", "js.nez", "json.nez", "konoha.nez", "math.nez", "regex.nez", "testall.nez", "tpeg.nez", "utf8.nez", "vmnez.nez", "xml.nez", "xmldtd.nez" })
+	public String grammar;
+
+	@Param({ "" })
+	public String input;
+
+	@Param({ "" })
+	public String options;
+
+	private Parser[] parsers;
+	private Source[] sources;
+
+	@Setup
+	public void setup() throws IOException {
+		Corpus corpus = Corpus.load(grammar, input);
+		parsers = corpus.newParsers(new ParserStrategy(options));
+		sources = corpus.newSources();
+	}
+
+	@Benchmark
+	public int match() {
+		int n = 0;
+		for (int i = 0; i < sources.length; i++) {
+			if (parsers[i].match(sources[i])) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		for (int i = 0; i < sources.length; i++) {
+			bh.consume(parsers[i].parse(sources[i], new CommonTree()));
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package nez.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.ParserStrategy;
+import nez.parser.io.ChannelSource;
+import nez.parser.io.FileSource;
+import nez.parser.io.MappedFileSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SourceBenchmark measures Parser.match over the same corpus read through
+ * each Source implementation. The inputs are written to temporary files;
+ * string, file and mapped sources are opened once, and a channel source,
+ * which can be read only once, is opened for each pass.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourceBenchmark {
+
+	@Param({ "json.nez" })
+	public String grammar;
+
+	@Param({ "" })
+	public String input;
+
+	@Param({ "string", "file", "mapped", "channel" })
+	public String source;
+
+	private Parser[] parsers;
+	private File[] files;
+	private Source[] sources;
+
+	@Setup
+	public void setup() throws IOException {
+		Corpus corpus = Corpus.load(grammar, input);
+		parsers = corpus.newParsers(ParserStrategy.newDefaultStrategy());
+		files = new File[corpus.size()];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = File.createTempFile("nezbench", ".txt");
+			Files.write(files[i].toPath(), corpus.texts.get(i));
+		}
+		sources = new Source[files.length];
+		for (int i = 0; i < files.length; i++) {
+			switch (source) {
+			case "string":
+				sources[i] = corpus.newSource(i);
+				break;
+			case "file":
+				sources[i] = new FileSource(files[i].getPath());
+				break;
+			case "mapped":
+				sources[i] = new MappedFileSource(files[i].getPath());
+				break;
+			case "channel":
+				break;
+			default:
+				throw new IllegalArgumentException("unknown source: " + source);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File f : files) {
+			f.delete();
+		}
+	}
+
+	@Benchmark
+	public int match() throws IOException {
+		int n = 0;
+		for (int i = 0; i < parsers.length; i++) {
+			if (sources[i] == null) {
+				try (FileInputStream in = new FileInputStream(files[i])) {
+					if (parsers[i].match(new ChannelSource(files[i].getPath(), in))) {
+						n++;
+					}
+				}
+			} else if (parsers[i].match(sources[i])) {
+				n++;
+			}
+		}
+		return n;
+	}
+}
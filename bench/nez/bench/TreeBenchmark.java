@@ -0,0 +1,107 @@
+package nez.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nez.ast.CommonTree;
+import nez.ast.CompactTree;
+import nez.ast.Source;
+import nez.ast.Symbol;
+import nez.ast.Tree;
+import nez.parser.Parser;
+import nez.parser.ParserContext;
+import nez.parser.ParserStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * TreeBenchmark measures tree construction into CommonTree and CompactTree:
+ * parsing the corpus (parse), and building a balanced tree of depth 8 and
+ * width 4 with the tree log of ParserContext as the VM does (build).
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+	private final static Symbol Label = Symbol.unique("child");
+	private final static Symbol Tag = Symbol.unique("Node");
+
+	@Param({ "json.nez" })
+	public String grammar;
+
+	@Param({ "" })
+	public String input;
+
+	@Param({ "CommonTree", "CompactTree" })
+	public String tree;
+
+	private Parser[] parsers;
+	private Source[] sources;
+
+	@Setup
+	public void setup() throws IOException {
+		Corpus corpus = Corpus.load(grammar, input);
+		parsers = corpus.newParsers(ParserStrategy.newDefaultStrategy());
+		sources = corpus.newSources();
+	}
+
+	private Tree<?> newPrototype() {
+		return tree.equals("CompactTree") ? new CompactTree() : new CommonTree();
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		for (int i = 0; i < sources.length; i++) {
+			bh.consume(parse(parsers[i], sources[i], newPrototype()));
+		}
+	}
+
+	private static <T extends Tree<T>> T parse(Parser parser, Source source, Tree<?> proto) {
+		@SuppressWarnings("unchecked")
+		T p = (T) proto;
+		return parser.parse(source, p);
+	}
+
+	@Benchmark
+	public Tree<?> build() {
+		return build(newPrototype());
+	}
+
+	private static <T extends Tree<T>> T build(Tree<?> proto) {
+		@SuppressWarnings("unchecked")
+		ParserContext<T> ctx = new ParserContext<T>("", (T) proto);
+		build(ctx, 8, 4);
+		return ctx.left;
+	}
+
+	private static <T extends Tree<T>> void build(ParserContext<T> ctx, int depth, int width) {
+		ctx.beginTree(0);
+		if (depth > 0) {
+			for (int i = 0; i < width; i++) {
+				int log = ctx.saveLog();
+				T parent = ctx.left;
+				build(ctx, depth - 1, width);
+				ctx.backLog(log);
+				ctx.linkTree(parent, Label);
+				ctx.left = parent;
+			}
+		}
+		ctx.tagTree(Tag);
+		ctx.endTree(0, null, null);
+	}
+}
@@ -0,0 +1,301 @@
+package nez.ast;
+
+import java.util.Arrays;
+
+/**
+ * CompactTree is a Tree whose nodes live in a single int[] node table, six
+ * ints per node (tag id, start, length, first child, next sibling and label
+ * id), shared by all the nodes built from the same source. A CompactTree
+ * object is only a view of one row; get(index) creates a new view, and the
+ * text of a node is taken from the source when toText() is first called on
+ * the view. Children are a linked list, and null children are not kept.
+ * The prototype keeps the table of the source that the current thread is
+ * parsing, so a new prototype starts a new table when the same source is
+ * parsed again.
+ *
+ * <pre>
+ * CompactTree node = parser.parse(source, new CompactTree());
+ * </pre>
+ */
+
+public class CompactTree extends Tree<CompactTree> {
+
+	final static int Width = 6;
+	final static int TagId = 0;
+	final static int Start = 1;
+	final static int Length = 2;
+	final static int FirstChild = 3;
+	final static int NextSibling = 4;
+	final static int LabelId = 5;
+
+	final static int None = -1;
+	final static int Unlinked = -2;
+
+	final static class NodeTable {
+		final Source source;
+		final Thread owner;
+		int[] nodes;
+		int size;
+		Object[] values;
+
+		NodeTable(Source source) {
+			this.source = source;
+			this.owner = Thread.currentThread();
+			this.nodes = new int[Width * 256];
+			this.size = 0;
+		}
+
+		final int add(int tagId, int pos, int len, Object value) {
+			if ((size + 1) * Width > nodes.length) {
+				nodes = Arrays.copyOf(nodes, nodes.length * 2);
+			}
+			int id = size++;
+			int r = id * Width;
+			nodes[r + TagId] = tagId;
+			nodes[r + Start] = pos;
+			nodes[r + Length] = len;
+			nodes[r + FirstChild] = None;
+			nodes[r + NextSibling] = Unlinked;
+			nodes[r + LabelId] = None;
+			if (value != null || values != null) {
+				setValue(id, value);
+			}
+			return id;
+		}
+
+		final Object getValue(int id) {
+			return values != null && id < values.length ? values[id] : null;
+		}
+
+		final void setValue(int id, Object value) {
+			if (values == null || id >= values.length) {
+				if (value == null) {
+					return;
+				}
+				values = values == null ? new Object[Math.max(id + 1, 64)] : Arrays.copyOf(values, Math.max(id + 1, values.length * 2));
+			}
+			values[id] = value;
+		}
+
+		/* a row that can be linked, copying the row if it is linked already */
+
+		final int adopt(CompactTree t) {
+			if (t.table != this) {
+				return importTree(t.table, t.id);
+			}
+			if (nodes[t.id * Width + NextSibling] == Unlinked) {
+				return t.id;
+			}
+			int[] n = t.table.nodes;
+			int r = t.id * Width;
+			int id = add(n[r + TagId], n[r + Start], n[r + Length], getValue(t.id));
+			nodes[id * Width + FirstChild] = nodes[r + FirstChild];
+			return id;
+		}
+
+		private int importTree(NodeTable t, int sid) {
+			int r = sid * Width;
+			int id = add(t.nodes[r + TagId], t.nodes[r + Start], t.nodes[r + Length], t.getValue(sid));
+			int last = None;
+			for (int c = t.nodes[r + FirstChild]; c >= 0; c = t.nodes[c * Width + NextSibling]) {
+				int cid = importTree(t, c);
+				nodes[cid * Width + LabelId] = t.nodes[c * Width + LabelId];
+				nodes[cid * Width + NextSibling] = None;
+				if (last == None) {
+					nodes[id * Width + FirstChild] = cid;
+				} else {
+					nodes[last * Width + NextSibling] = cid;
+				}
+				last = cid;
+			}
+			return id;
+		}
+
+		final int copy(int sid) {
+			return importTree(this, sid);
+		}
+	}
+
+	private NodeTable table;
+	private final int id;
+	private int cursor = None;
+	private int cursorIndex = None;
+	private int size = -1;
+
+	public CompactTree() {
+		super(Symbol.unique("prototype"), null, 0, 0, null, null);
+		this.table = null;
+		this.id = None;
+		this.size = 0;
+	}
+
+	CompactTree(NodeTable table, int id) {
+		super(Symbol.tag(table.nodes[id * Width + TagId]), table.source, table.nodes[id * Width + Start], table.nodes[id * Width + Length], null, table.getValue(id));
+		this.table = table;
+		this.id = id;
+	}
+
+	@Override
+	public CompactTree newInstance(Symbol tag, Source source, long pos, int len, int size, Object value) {
+		NodeTable t = this.table;
+		if (t == null || t.source != source || t.owner != Thread.currentThread()) {
+			t = new NodeTable(source);
+			if (this.id == None) {
+				this.table = t;
+			}
+		}
+		return new CompactTree(t, t.add(tag.id(), (int) pos, len, value));
+	}
+
+	@Override
+	public CompactTree newInstance(Symbol tag, int size, Object value) {
+		return newInstance(tag, this.getSource(), this.getSourcePosition(), 0, size, value);
+	}
+
+	@Override
+	public void link(int n, Symbol label, Object child) {
+		this.set(n, label, (CompactTree) child);
+	}
+
+	@Override
+	protected CompactTree dupImpl() {
+		if (this.id == None) {
+			return new CompactTree();
+		}
+		return new CompactTree(table, table.copy(id));
+	}
+
+	/* node table */
+
+	public final int getNodeId() {
+		return this.id;
+	}
+
+	public final int getNodeTableSize() {
+		return this.table == null ? 0 : this.table.size;
+	}
+
+	/* releases the unused capacity of the node table, after parsing */
+
+	public final CompactTree trim() {
+		if (this.table != null) {
+			NodeTable t = this.table;
+			t.nodes = Arrays.copyOf(t.nodes, t.size * Width);
+			if (t.values != null && t.values.length > t.size) {
+				t.values = Arrays.copyOf(t.values, t.size);
+			}
+		}
+		return this;
+	}
+
+	private int child(int index) {
+		if (index < 0 || this.id == None) {
+			return None;
+		}
+		int[] nodes = table.nodes;
+		int c = nodes[id * Width + FirstChild];
+		int i = 0;
+		if (cursorIndex >= 0 && cursorIndex <= index) {
+			c = cursor;
+			i = cursorIndex;
+		}
+		for (; c >= 0 && i < index; i++) {
+			c = nodes[c * Width + NextSibling];
+		}
+		if (c >= 0) {
+			cursor = c;
+			cursorIndex = i;
+		}
+		return c;
+	}
+
+	@Override
+	public int size() {
+		if (size < 0) {
+			int n = 0;
+			int[] nodes = table.nodes;
+			for (int c = nodes[id * Width + FirstChild]; c >= 0; c = nodes[c * Width + NextSibling]) {
+				n++;
+			}
+			size = n;
+		}
+		return size;
+	}
+
+	@Override
+	public CompactTree get(int index) {
+		int c = child(index);
+		if (c < 0) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+		}
+		return new CompactTree(table, c);
+	}
+
+	@Override
+	public Symbol getLabel(int index) {
+		int c = child(index);
+		if (c < 0) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+		}
+		int label = table.nodes[c * Width + LabelId];
+		return label == None ? null : Symbol.tag(label);
+	}
+
+	@Override
+	public CompactTree set(int index, CompactTree node) {
+		CompactTree old = index < size() ? get(index) : null;
+		this.set(index, old == null ? null : getLabel(index), node);
+		return old;
+	}
+
+	@Override
+	public void set(int index, Symbol label, CompactTree node) {
+		if (node == null) {
+			return;
+		}
+		int c = table.adopt(node);
+		int[] nodes = table.nodes;
+		nodes[c * Width + LabelId] = label == null ? None : label.id();
+		int prev = child(index - 1);
+		if (prev < 0 && index > 0) {
+			/* fewer children than index */
+			index = size();
+			prev = child(index - 1);
+		}
+		int old = prev < 0 ? nodes[id * Width + FirstChild] : nodes[prev * Width + NextSibling];
+		nodes[c * Width + NextSibling] = old < 0 ? None : nodes[old * Width + NextSibling];
+		if (prev < 0) {
+			nodes[id * Width + FirstChild] = c;
+		} else {
+			nodes[prev * Width + NextSibling] = c;
+		}
+		cursor = c;
+		cursorIndex = index;
+		size = -1;
+	}
+
+	@Override
+	public void setTag(Symbol tag) {
+		super.setTag(tag);
+		if (id != None) {
+			table.nodes[id * Width + TagId] = tag.id();
+		}
+	}
+
+	@Override
+	public void setPosition(int pos, int len) {
+		super.setPosition(pos, len);
+		if (id != None) {
+			table.nodes[id * Width + Start] = pos;
+			table.nodes[id * Width + Length] = len;
+		}
+	}
+
+	@Override
+	public void setValue(Object value) {
+		super.setValue(value);
+		if (id != None) {
+			table.setValue(id, value);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package nez.ast;
 
+import java.nio.ByteBuffer;
+
 public interface Source {
 	// public final static int BinaryEOF = 256;
 
@@ -17,6 +19,19 @@ public interface Source {
 
 	public byte[] subByte(long startIndex, long endIndex);
 
+	/* read-only views, shared with the source when it holds the bytes in memory */
+
+	public default CharSequence subText(long startIndex, long endIndex) {
+		return new SourceText(subBuffer(startIndex, endIndex));
+	}
+
+	/* copies by default; sources that keep the whole input share it */
+
+	public default ByteBuffer subBuffer(long startIndex, long endIndex) {
+		byte[] b = subByte(startIndex, endIndex);
+		return ByteBuffer.wrap(b == null ? new byte[0] : b).asReadOnlyBuffer();
+	}
+
 	public Source subSource(long startIndex, long endIndex);
 
 	public long linenum(long pos);
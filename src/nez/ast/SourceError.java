@@ -17,6 +17,10 @@ public class SourceError {
 		this(source, pos, 0, message);
 	}
 
+	public final Source getSource() {
+		return this.source;
+	}
+
 	@Override
 	public final String toString() {
 		return source.formatPositionLine("error", pos, message);
@@ -0,0 +1,88 @@
+package nez.ast;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import nez.util.StringUtils;
+
+/**
+ * SourceText is a CharSequence view of a range of source bytes. ASCII text
+ * is read from the bytes as they are; other text is decoded as UTF-8 when it
+ * is first needed, and bytes that are not UTF-8 read as 0x.. in the same way
+ * as Tree.toText().
+ */
+
+public final class SourceText implements CharSequence {
+	private final ByteBuffer bytes;
+	private final boolean ascii;
+	private String text = null;
+
+	public SourceText(ByteBuffer bytes) {
+		this.bytes = bytes;
+		this.ascii = isAscii(bytes);
+	}
+
+	private static boolean isAscii(ByteBuffer b) {
+		for (int i = b.position(); i < b.limit(); i++) {
+			if (b.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public final ByteBuffer getByteBuffer() {
+		return this.bytes.duplicate();
+	}
+
+	public final boolean isAscii() {
+		return this.ascii;
+	}
+
+	@Override
+	public final int length() {
+		return ascii ? bytes.remaining() : toString().length();
+	}
+
+	@Override
+	public final char charAt(int index) {
+		if (ascii) {
+			if (index < 0 || index >= bytes.remaining()) {
+				throw new IndexOutOfBoundsException("index: " + index);
+			}
+			return (char) bytes.get(bytes.position() + index);
+		}
+		return toString().charAt(index);
+	}
+
+	@Override
+	public final CharSequence subSequence(int start, int end) {
+		if (ascii) {
+			ByteBuffer b = bytes.duplicate();
+			((Buffer) b).limit(bytes.position() + end);
+			((Buffer) b).position(bytes.position() + start);
+			return new SourceText(b.slice());
+		}
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public final String toString() {
+		if (text == null) {
+			byte[] b = new byte[bytes.remaining()];
+			bytes.duplicate().get(b);
+			String s = StringUtils.newString(b);
+			if (!ascii && !Arrays.equals(b, StringUtils.utf8(s))) {
+				StringBuilder sb = new StringBuilder();
+				sb.append("0x");
+				for (byte c : b) {
+					sb.append(String.format("%02x", c & 0xff));
+				}
+				s = sb.toString();
+			}
+			text = s;
+		}
+		return text;
+	}
+}
@@ -1,29 +1,92 @@
 package nez.ast;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import nez.util.UList;
+/**
+ * Symbol is an interned name shared by all grammars and parsers. Interning is
+ * thread-safe: lookups of existing symbols are lock-free, and a new symbol is
+ * created once and appended to the id table under its hash bin only.
+ *
+ * The id table is a table of chunks of 1024 symbols. When a new id does not
+ * fit, the table is copied into one twice as large and swapped in by CAS;
+ * the empty slots of the old table are frozen first, so that no chunk is
+ * added to a table that is being copied.
+ */
 
 public class Symbol {
-	private static HashMap<String, Symbol> tagIdMap = new HashMap<String, Symbol>();
-	private static UList<Symbol> tagNameList = new UList<Symbol>(new Symbol[64]);
+	private final static int ChunkBits = 10;
+	private final static int ChunkSize = 1 << ChunkBits;
+	private final static int InitChunks = 64;
+	private final static AtomicReferenceArray<Symbol> Frozen = new AtomicReferenceArray<Symbol>(0);
+
+	private final static ConcurrentHashMap<String, Symbol> tagIdMap = new ConcurrentHashMap<String, Symbol>(256);
+	private final static AtomicInteger tagIdCount = new AtomicInteger(0);
+	private final static AtomicReference<AtomicReferenceArray<AtomicReferenceArray<Symbol>>> tagNameTable = new AtomicReference<AtomicReferenceArray<AtomicReferenceArray<Symbol>>>(
+			new AtomicReferenceArray<AtomicReferenceArray<Symbol>>(InitChunks));
 
 	public final static Symbol unique(String s) {
 		Symbol tag = tagIdMap.get(s);
 		if (tag == null) {
-			tag = new Symbol(tagIdMap.size(), s);
-			tagIdMap.put(s, tag);
-			tagNameList.add(tag);
+			tag = tagIdMap.computeIfAbsent(s, Symbol::newSymbol);
 		}
 		return tag;
 	}
 
+	private static Symbol newSymbol(String s) {
+		int id = tagIdCount.getAndIncrement();
+		Symbol tag = new Symbol(id, s);
+		chunk(id >>> ChunkBits).set(id & (ChunkSize - 1), tag);
+		return tag;
+	}
+
+	private static AtomicReferenceArray<Symbol> chunk(int index) {
+		while (true) {
+			AtomicReferenceArray<AtomicReferenceArray<Symbol>> table = tagNameTable.get();
+			if (index >= table.length()) {
+				grow(table, index);
+				continue;
+			}
+			AtomicReferenceArray<Symbol> chunk = table.get(index);
+			if (chunk == null) {
+				table.compareAndSet(index, null, new AtomicReferenceArray<Symbol>(ChunkSize));
+				continue;
+			}
+			if (chunk != Frozen) {
+				return chunk;
+			}
+		}
+	}
+
+	private static void grow(AtomicReferenceArray<AtomicReferenceArray<Symbol>> table, int index) {
+		int size = table.length();
+		while (size <= index) {
+			size *= 2;
+		}
+		AtomicReferenceArray<AtomicReferenceArray<Symbol>> grown = new AtomicReferenceArray<AtomicReferenceArray<Symbol>>(size);
+		for (int i = 0; i < table.length(); i++) {
+			table.compareAndSet(i, null, Frozen);
+			AtomicReferenceArray<Symbol> chunk = table.get(i);
+			grown.set(i, chunk == Frozen ? null : chunk);
+		}
+		tagNameTable.compareAndSet(table, grown);
+	}
+
 	public final static int uniqueId(String symbol) {
 		return unique(symbol).id;
 	}
 
 	public final static Symbol tag(int tagId) {
-		return tagNameList.ArrayValues[tagId];
+		AtomicReferenceArray<AtomicReferenceArray<Symbol>> table = tagNameTable.get();
+		int index = tagId >>> ChunkBits;
+		AtomicReferenceArray<Symbol> chunk = index < table.length() ? table.get(index) : null;
+		return chunk == null || chunk == Frozen ? null : chunk.get(tagId & (ChunkSize - 1));
+	}
+
+	public final static int size() {
+		return tagIdCount.get();
 	}
 
 	public final static Symbol Null = unique("");
@@ -1,6 +1,7 @@
 package nez.ast;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.AbstractList;
 import java.util.Arrays;
 
@@ -71,7 +72,7 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		return this.pos;
 	}
 
-	public final void setPosition(int pos, int len) {
+	public void setPosition(int pos, int len) {
 		this.pos = pos;
 		this.length = len;
 	}
@@ -96,7 +97,7 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		return this.tag;
 	}
 
-	public final void setTag(Symbol tag) {
+	public void setTag(Symbol tag) {
 		this.tag = tag;
 	}
 
@@ -114,13 +115,13 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		return this.size() == 0;
 	}
 
-	public final Symbol getLabel(int index) {
+	public Symbol getLabel(int index) {
 		return this.labels[index];
 	}
 
 	public final boolean isAllLabeled() {
-		for (int i = 0; i < this.labels.length; i++) {
-			if (labels[i] == null) {
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == null) {
 				return false;
 			}
 		}
@@ -144,13 +145,13 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 
 	public final E get(int index, E defaultValue) {
 		if (index < this.size()) {
-			return this.subTree[index];
+			return this.get(index);
 		}
 		return defaultValue;
 	}
 
 	@Override
-	public final E set(int index, E node) {
+	public E set(int index, E node) {
 		E oldValue = null;
 		oldValue = this.subTree[index];
 		this.subTree[index] = node;
@@ -158,14 +159,14 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		return oldValue;
 	}
 
-	public final void set(int index, Symbol label, E node) {
+	public void set(int index, Symbol label, E node) {
 		this.labels[index] = label;
 		this.subTree[index] = node;
 	}
 
 	public final int indexOf(Symbol label) {
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
 				return i;
 			}
 		}
@@ -173,8 +174,8 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 	}
 
 	public final boolean has(Symbol label) {
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
 				return true;
 			}
 		}
@@ -182,9 +183,9 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 	}
 
 	public final E get(Symbol label) {
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == label) {
-				return this.subTree[i];
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
+				return this.get(i);
 			}
 		}
 		throw newNoSuchLabel(label);
@@ -195,18 +196,18 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 	}
 
 	public final E get(Symbol label, E defval) {
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == label) {
-				return this.subTree[i];
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
+				return this.get(i);
 			}
 		}
 		return defval;
 	}
 
 	public final void set(Symbol label, E defval) {
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == label) {
-				this.subTree[i] = defval;
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
+				this.set(i, defval);
 				return;
 			}
 		}
@@ -214,11 +215,11 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 
 	public final void rename(Symbol oldlabel, Symbol newlabel) {
 		if (tag == oldlabel) {
-			this.tag = newlabel;
+			this.setTag(newlabel);
 		}
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == oldlabel) {
-				labels[i] = newlabel;
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == oldlabel) {
+				this.set(i, newlabel, this.get(i));
 			}
 		}
 	}
@@ -233,7 +234,7 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		return this.value;
 	}
 
-	public final void setValue(Object value) {
+	public void setValue(Object value) {
 		this.value = value;
 	}
 
@@ -272,10 +273,26 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		return "";
 	}
 
+	/* views of the text, without a copy of the source */
+
+	public final CharSequence toCharSequence() {
+		if (this.value != null && !(this.value instanceof Tree<?>)) {
+			return this.value instanceof CharSequence ? (CharSequence) this.value : this.value.toString();
+		}
+		if (this.source != null) {
+			return this.source.subText(this.getSourcePosition(), this.getSourcePosition() + this.length);
+		}
+		return "";
+	}
+
+	public final ByteBuffer getRawBuffer() {
+		return this.source.subBuffer(this.getSourcePosition(), this.getSourcePosition() + this.getLength());
+	}
+
 	public final boolean is(Symbol label, Symbol tag) {
-		for (int i = 0; i < labels.length; i++) {
-			if (labels[i] == label) {
-				return this.subTree[i].is(tag);
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
+				return this.get(i).is(tag);
 			}
 		}
 		return false;
@@ -289,8 +306,8 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 	}
 
 	public final String getText(Symbol label, String defval) {
-		for (int i = 0; i < this.labels.length; i++) {
-			if (labels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
 				return getText(i, defval);
 			}
 		}
@@ -302,12 +319,10 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 			return ((Number) this.value).intValue();
 		}
 		try {
-			String s = this.toText();
-			int num = Integer.parseInt(s);
-			if (this.value == null) {
-				this.value = new Integer(num);
+			long num = StringUtils.parseLong(this.toCharSequence());
+			if (num == (int) num) {
+				return (int) num;
 			}
-			return num;
 		} catch (NumberFormatException e) {
 		}
 		return defvalue;
@@ -321,8 +336,8 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 	}
 
 	public final int getInt(Symbol label, int defvalue) {
-		for (int i = 0; i < this.labels.length; i++) {
-			if (labels[i] == label) {
+		for (int i = 0; i < this.size(); i++) {
+			if (getLabel(i) == label) {
 				return getInt(i, defvalue);
 			}
 		}
@@ -371,21 +386,23 @@ public abstract class Tree<E extends Tree<E>> extends AbstractList<E> implements
 		if (this.getTag() != null) {
 			sb.append(this.getTag().getSymbol());
 		}
-		if (this.subTree == null) {
+		if (this.size() == 0) {
 			sb.append(" ");
 			StringUtils.formatStringLiteral(sb, '\'', this.toText(), '\'');
 		} else {
 			for (int i = 0; i < this.size(); i++) {
 				sb.append(" ");
-				if (this.labels[i] != null) {
+				Symbol label = this.getLabel(i);
+				if (label != null) {
 					sb.append("$");
-					sb.append(this.labels[i].getSymbol());
+					sb.append(label.getSymbol());
 					sb.append("=");
 				}
-				if (this.subTree[i] == null) {
+				E sub = this.get(i);
+				if (sub == null) {
 					sb.append("null");
 				} else {
-					this.subTree[i].appendStringfied(sb, indent + 1, this.labels[i] == null);
+					sub.appendStringfied(sb, indent + 1, label == null);
 				}
 			}
 		}
@@ -1,5 +1,7 @@
 package nez.lang;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import nez.lang.Nez.And;
 import nez.lang.Nez.Any;
 import nez.lang.Nez.BeginTree;
@@ -53,15 +55,53 @@ public enum ByteAcceptance {
 		return true;
 	}
 
+	/**
+	 * Returns an analyzer that computes the acceptance of a production once
+	 * for all bytes. The productions can be analyzed from several threads, as
+	 * long as they are not changed.
+	 */
+
+	public final static Analyzer newMemoizedAnalyzer() {
+		return new Analyzer(new ConcurrentHashMap<Production, ByteAcceptance[]>());
+	}
+
 	public final static class Analyzer extends Expression.Visitor {
+		private final ConcurrentHashMap<Production, ByteAcceptance[]> memo;
+
+		Analyzer() {
+			this(null);
+		}
+
+		private Analyzer(ConcurrentHashMap<Production, ByteAcceptance[]> memo) {
+			this.memo = memo;
+		}
 
 		public ByteAcceptance accept(Expression e, Object ch) {
 			return (ByteAcceptance) e.visit(this, ch);
 		}
 
+		public ByteAcceptance[] accept(Production p) {
+			ByteAcceptance[] acc = memo == null ? null : memo.get(p);
+			if (acc == null) {
+				acc = new ByteAcceptance[256];
+				for (int ch = 0; ch < 256; ch++) {
+					acc[ch] = accept(p.getExpression(), ch);
+				}
+				ByteAcceptance[] acc2 = memo == null ? null : memo.putIfAbsent(p, acc);
+				if (acc2 != null) {
+					acc = acc2;
+				}
+			}
+			return acc;
+		}
+
 		@Override
 		public ByteAcceptance visitNonTerminal(NonTerminal e, Object ch) {
 			try {
+				if (memo != null) {
+					Production p = e.getProduction();
+					return p == null ? Accept : accept(p)[(int) ch];
+				}
 				return accept(e.deReference(), ch);
 			} catch (StackOverflowError ex) {
 				Verbose.debug(e + " at " + e.getLocalName());
@@ -1,7 +1,10 @@
 package nez.lang;
 
 import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 import nez.ast.SourceLocation;
 import nez.ast.Tree;
@@ -265,4 +268,35 @@ public class Grammar extends AbstractList<Production> {
 		return newParser(strategy);
 	}
 
+	/**
+	 * Create the parsers of the given start productions, which share one
+	 * compiled code (see Parser.newParsers)
+	 * 
+	 * @param names
+	 * @param strategy
+	 * @return
+	 */
+
+	public final Map<String, Parser> newParsers(Collection<String> names, ParserStrategy strategy) {
+		return Parser.newParsers(this, names, strategy);
+	}
+
+	/**
+	 * Create the parsers of the start production and the public productions
+	 * 
+	 * @param strategy
+	 * @return
+	 */
+
+	public final Map<String, Parser> newParsers(ParserStrategy strategy) {
+		ArrayList<String> names = new ArrayList<String>();
+		names.add(this.getStartProduction().getLocalName());
+		for (Production p : this) {
+			if (p.isPublic()) {
+				names.add(p.getLocalName());
+			}
+		}
+		return newParsers(names, strategy);
+	}
+
 }
@@ -1,7 +1,12 @@
 package nez.lang;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import nez.lang.Nez.Label;
 import nez.util.ConsoleUtils;
@@ -53,14 +58,32 @@ public class Productions {
 	 */
 
 	public final static NonterminalReference countNonterminalReference(Grammar grammar) {
+		return countNonterminalReference(grammar, Collections.singletonList(grammar.getStartProduction().getUniqueName()));
+	}
+
+	/**
+	 * Counts the number of nonterminal references in the given grammar, where
+	 * each of the entries is referenced once from outside the grammar.
+	 * 
+	 * @param grammar
+	 * @param entries
+	 *            unique names of the start productions
+	 * @return
+	 */
+
+	public final static NonterminalReference countNonterminalReference(Grammar grammar, Collection<String> entries) {
 		NonterminalReference refc = new NonterminalReference();
-		refc.put(grammar.getStartProduction().getUniqueName(), 1);
+		for (String entry : entries) {
+			refc.put(entry, 1);
+		}
 		for (Production p : grammar) {
 			count(p.getExpression(), refc);
 		}
 		if (hasUnusedProduction(grammar, refc)) {
 			NonterminalReference refc2 = new NonterminalReference();
-			refc2.put(grammar.getStartProduction().getUniqueName(), 1);
+			for (String entry : entries) {
+				refc2.put(entry, 1);
+			}
 			for (Production p : grammar) {
 				String uname = p.getUniqueName();
 				if (refc.count(uname) > 0) {
@@ -112,6 +135,121 @@ public class Productions {
 		}
 	}
 
+	/**
+	 * Splits the productions of the given grammar into the strongly connected
+	 * components of their nonterminal references, and groups the components
+	 * by level. A component refers only to itself and to the components of
+	 * lower levels, so the components of a level are independent.
+	 * 
+	 * @param grammar
+	 * @return the components of each level, from the lowest one; a component
+	 *         is an array of the indexes of its productions in the grammar
+	 */
+
+	public final static List<List<int[]>> findComponentLevels(Grammar grammar) {
+		return new ComponentFinder(grammar).find();
+	}
+
+	/* Tarjan's algorithm; a component is found after all the ones it refers to */
+
+	private static class ComponentFinder {
+		private final Grammar grammar;
+		private final HashMap<String, Integer> indexMap = new HashMap<>();
+		private final int[] order;
+		private final int[] lowlink;
+		private final int[] component;
+		private final int[] stack;
+		private final int[][] refs;
+		private final int[] marks;
+		private int[] buffer = new int[16];
+		private int bufferSize = 0;
+		private int stackTop = 0;
+		private int count = 0;
+		private final ArrayList<Integer> levels = new ArrayList<>();
+		private final List<List<int[]>> result = new ArrayList<>();
+
+		ComponentFinder(Grammar grammar) {
+			this.grammar = grammar;
+			int size = grammar.size();
+			for (int i = 0; i < size; i++) {
+				indexMap.put(grammar.get(i).getUniqueName(), i);
+			}
+			this.order = new int[size];
+			this.lowlink = new int[size];
+			this.component = new int[size];
+			this.stack = new int[size];
+			this.refs = new int[size][];
+			this.marks = new int[size];
+			Arrays.fill(component, -1);
+		}
+
+		List<List<int[]>> find() {
+			for (int i = 0; i < grammar.size(); i++) {
+				if (order[i] == 0) {
+					visit(i);
+				}
+			}
+			return result;
+		}
+
+		private void visit(int i) {
+			order[i] = lowlink[i] = ++count;
+			stack[stackTop++] = i;
+			bufferSize = 0;
+			references(grammar.get(i).getExpression(), i + 1);
+			refs[i] = Arrays.copyOf(buffer, bufferSize);
+			for (int j : refs[i]) {
+				if (order[j] == 0) {
+					visit(j);
+					lowlink[i] = Math.min(lowlink[i], lowlink[j]);
+				} else if (component[j] == -1) {
+					lowlink[i] = Math.min(lowlink[i], order[j]);
+				}
+			}
+			if (lowlink[i] == order[i]) {
+				int c = levels.size();
+				int start = stackTop;
+				do {
+					component[stack[--start]] = c;
+				} while (stack[start] != i);
+				int[] members = Arrays.copyOfRange(stack, start, stackTop);
+				stackTop = start;
+				int level = 0;
+				for (int m : members) {
+					for (int j : refs[m]) {
+						if (component[j] != c) {
+							level = Math.max(level, levels.get(component[j]) + 1);
+						}
+					}
+				}
+				levels.add(level);
+				while (result.size() <= level) {
+					result.add(new ArrayList<int[]>());
+				}
+				result.get(level).add(members);
+			}
+		}
+
+		/* the productions that e refers to, once each, into buffer */
+
+		private void references(Expression e, int mark) {
+			if (e instanceof NonTerminal) {
+				Integer j = indexMap.get(((NonTerminal) e).getUniqueName());
+				if (j != null && marks[j] != mark) {
+					marks[j] = mark;
+					if (bufferSize == buffer.length) {
+						buffer = Arrays.copyOf(buffer, bufferSize * 2);
+					}
+					buffer[bufferSize++] = j;
+				}
+				return;
+			}
+			for (int i = 0; i < e.size(); i++) {
+				references(e.get(i), mark);
+			}
+		}
+	}
+
 	// public static class ProductionProperty extends UList<String> {
 	// HashMap<String, Boolean> boolMap;
 	//
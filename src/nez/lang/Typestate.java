@@ -1,5 +1,13 @@
 package nez.lang;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
 import nez.lang.Nez.Byte;
 import nez.util.Verbose;
 
@@ -28,7 +36,67 @@ public enum Typestate {
 		return new Analyzer();
 	}
 
-	final static class Analyzer extends Expression.Visitor implements TypestateAnalyzer {
+	/**
+	 * Infers the typestates of a strongly connected component of productions
+	 * at once. The table must hold the typestates of the components that it
+	 * refers to. The productions of the component start Undecided, and a
+	 * production is inferred again over the table whenever a production that
+	 * it has read changes, until none of them changes.
+	 */
+
+	public static final void inferTypestates(List<Production> component, Map<String, Typestate> table) {
+		ComponentAnalyzer a = new ComponentAnalyzer(component, table);
+		ArrayDeque<Production> queue = new ArrayDeque<>();
+		HashSet<Production> queued = new HashSet<>();
+		for (int i = component.size() - 1; i >= 0; i--) {
+			queue.add(component.get(i)); // the references first, in the order found
+			queued.add(component.get(i));
+		}
+		int limit = component.size() * (component.size() + 1);
+		while (!queue.isEmpty() && limit-- > 0) {
+			Production p = queue.poll();
+			queued.remove(p);
+			a.reader = p;
+			Typestate ts = a.inferTypestate(p.getExpression());
+			if (table.put(p.getUniqueName(), ts) != ts) {
+				for (Production r : a.readers(p)) {
+					if (queued.add(r)) {
+						queue.add(r);
+					}
+				}
+			}
+		}
+	}
+
+	final static class ComponentAnalyzer extends Analyzer {
+		private final HashMap<String, LinkedHashSet<Production>> readerMap = new HashMap<>();
+		private final Map<String, Typestate> table;
+		Production reader = null;
+
+		ComponentAnalyzer(List<Production> component, Map<String, Typestate> table) {
+			for (Production p : component) {
+				readerMap.put(p.getUniqueName(), new LinkedHashSet<Production>());
+			}
+			this.table = table;
+		}
+
+		final Collection<Production> readers(Production p) {
+			return readerMap.get(p.getUniqueName());
+		}
+
+		@Override
+		public Typestate inferTypestate(Production p) {
+			String uname = p.getUniqueName();
+			LinkedHashSet<Production> readers = readerMap.get(uname);
+			if (readers != null) {
+				readers.add(reader);
+			}
+			Typestate ts = table.get(uname);
+			return ts == null ? Typestate.Undecided : ts;
+		}
+	}
+
+	static class Analyzer extends Expression.Visitor implements TypestateAnalyzer {
 
 		@Override
 		public boolean isUnit(Production p) {
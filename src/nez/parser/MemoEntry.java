@@ -7,12 +7,3 @@ public class MemoEntry {
 	// int memoPoint;
 	public int stateValue = 0;
 }
-
-class MemoEntryKey extends MemoEntry {
-	long key = -1;
-}
-
-class MemoEntryList extends MemoEntry {
-	int memoPoint;
-	MemoEntryList next;
-}
\ No newline at end of file
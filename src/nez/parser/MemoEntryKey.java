@@ -0,0 +1,5 @@
+package nez.parser;
+
+class MemoEntryKey extends MemoEntry {
+	long key = -1;
+}
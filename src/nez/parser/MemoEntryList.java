@@ -0,0 +1,6 @@
+package nez.parser;
+
+class MemoEntryList extends MemoEntry {
+	int memoPoint;
+	MemoEntryList next;
+}
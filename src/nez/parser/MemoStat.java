@@ -0,0 +1,176 @@
+package nez.parser;
+
+import java.util.Arrays;
+
+/**
+ * MemoStat counts memo hits and misses per memo point. It belongs to a single
+ * parsing context, so MemoPoint (shared by all threads through a compiled
+ * ParserCode) stays immutable. With +MemoAdaptive, the context also samples
+ * each memo point in windows of misses, and a memo point that does not pay
+ * off is bypassed (neither looked up nor stored) for a number of lookups
+ * that doubles each time it is deactivated again.
+ */
+
+public final class MemoStat {
+	private final int[] memoHit;
+	private final int[] memoFailHit;
+	private final long[] hitLength;
+	private final int[] maxLength;
+	private final int[] memoMiss;
+
+	/* adaptive memoization */
+	private final static int Window = 1024; // misses
+	private final static int SavedBytesPerMiss = 8;
+	private final static int InitialSkip = 256;
+	private final static int MaxSkip = 1 << 16;
+	private final int[] windowHit;
+	private final int[] windowMiss;
+	private final long[] windowSaved;
+	private final int[] skip;
+	private final int[] backoff;
+	private final int[] deactivated;
+	private final long[] bypassed;
+
+	public MemoStat(int memoPointSize) {
+		this.memoHit = new int[memoPointSize];
+		this.memoFailHit = new int[memoPointSize];
+		this.hitLength = new long[memoPointSize];
+		this.maxLength = new int[memoPointSize];
+		this.memoMiss = new int[memoPointSize];
+		this.windowHit = new int[memoPointSize];
+		this.windowMiss = new int[memoPointSize];
+		this.windowSaved = new long[memoPointSize];
+		this.skip = new int[memoPointSize];
+		this.backoff = new int[memoPointSize];
+		this.deactivated = new int[memoPointSize];
+		this.bypassed = new long[memoPointSize];
+	}
+
+	public final int size() {
+		return this.memoHit.length;
+	}
+
+	public final void reset() {
+		Arrays.fill(this.memoHit, 0);
+		Arrays.fill(this.memoFailHit, 0);
+		Arrays.fill(this.hitLength, 0);
+		Arrays.fill(this.maxLength, 0);
+		Arrays.fill(this.memoMiss, 0);
+		Arrays.fill(this.windowHit, 0);
+		Arrays.fill(this.windowMiss, 0);
+		Arrays.fill(this.windowSaved, 0);
+		Arrays.fill(this.skip, 0);
+		Arrays.fill(this.backoff, 0);
+		Arrays.fill(this.deactivated, 0);
+		Arrays.fill(this.bypassed, 0);
+	}
+
+	public final void memoHit(int id, int consumed) {
+		this.memoHit[id] += 1;
+		this.hitLength[id] += consumed;
+		if (this.maxLength[id] < consumed) {
+			this.maxLength[id] = consumed;
+		}
+		this.windowHit[id]++;
+		this.windowSaved[id] += consumed;
+	}
+
+	public final void failHit(int id) {
+		this.memoFailHit[id] += 1;
+		this.windowHit[id]++;
+	}
+
+	public final void miss(int id) {
+		this.memoMiss[id]++;
+		this.windowMiss[id]++;
+		if (this.windowMiss[id] == Window) {
+			/* the memo point has paid off for a whole window */
+			this.windowHit[id] = 0;
+			this.windowMiss[id] = 0;
+			this.windowSaved[id] = 0;
+			this.backoff[id] = 0;
+		}
+	}
+
+	public final double hitRatio(int id) {
+		if (this.memoMiss[id] == 0)
+			return 0.0;
+		return (double) this.memoHit[id] / this.memoMiss[id];
+	}
+
+	public final double failHitRatio(int id) {
+		if (this.memoMiss[id] == 0)
+			return 0.0;
+		return (double) this.memoFailHit[id] / this.memoMiss[id];
+	}
+
+	public final double meanLength(int id) {
+		if (this.memoHit[id] == 0)
+			return 0.0;
+		return (double) this.hitLength[id] / this.memoHit[id];
+	}
+
+	public final int count(int id) {
+		return this.memoMiss[id] + this.memoFailHit[id] + this.memoHit[id];
+	}
+
+	public final long savedLength(int id) {
+		return this.hitLength[id];
+	}
+
+	/* the current window */
+
+	public final boolean checkDeactivation(int id) {
+		int miss = this.windowMiss[id];
+		int hit = this.windowHit[id];
+		if (this.windowSaved[id] >= (long) miss * SavedBytesPerMiss) {
+			return false; // a few long hits pay for the misses
+		}
+		if (miss == 32) {
+			if (hit < 2) {
+				return true;
+			}
+		}
+		if (miss % 64 == 0) {
+			if (hit == 0) {
+				return true;
+			}
+			if (miss / hit > 10) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public final void deactivate(int id) {
+		this.deactivated[id]++;
+		this.backoff[id] = this.backoff[id] == 0 ? InitialSkip : Math.min(this.backoff[id] * 2, MaxSkip);
+		this.skip[id] = this.backoff[id];
+		this.windowHit[id] = 0;
+		this.windowMiss[id] = 0;
+		this.windowSaved[id] = 0;
+	}
+
+	/* true if the lookup is bypassed; the memo point is active again after the skip */
+
+	public final boolean bypass(int id) {
+		if (this.skip[id] > 0) {
+			this.skip[id]--;
+			this.bypassed[id]++;
+			return true;
+		}
+		return false;
+	}
+
+	public final boolean isActive(int id) {
+		return this.skip[id] == 0;
+	}
+
+	public final int deactivatedCount(int id) {
+		return this.deactivated[id];
+	}
+
+	public final long bypassedCount(int id) {
+		return this.bypassed[id];
+	}
+}
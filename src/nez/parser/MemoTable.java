@@ -13,28 +13,54 @@ public abstract class MemoTable {
 	int CountStored;
 	int CountUsed;
 	int CountInvalidated;
+	int CountLookup;
+	int CountEvicted;
+
+	MemoStat memoStat = null;
 
 	void initStat() {
 		this.CountStored = 0;
 		this.CountUsed = 0;
 		this.CountInvalidated = 0;
+		this.CountLookup = 0;
+		this.CountEvicted = 0;
+	}
+
+	public final MemoStat getMemoStat() {
+		return this.memoStat;
 	}
 
 	public static MemoTable newTable(int windowSize, int memoPointSize) {
+		return newTable(windowSize, memoPointSize, 1, "LRU");
+	}
+
+	public static MemoTable newTable(int windowSize, int memoPointSize, int ways, String policy) {
+		MemoTable table;
 		if (memoPointSize == 0 || windowSize == 0) {
-			return new NullTable(windowSize, memoPointSize);
-		}
-		if (windowSize < -1) {
-			return new PackratHashTable(windowSize, memoPointSize);
+			table = new NullTable(windowSize, memoPointSize);
+		} else if (windowSize < -1) {
+			table = new PackratHashTable(windowSize, memoPointSize);
+		} else if (ways > 1) {
+			table = new SetAssociativeTable(windowSize, memoPointSize, ways, "CLOCK".equalsIgnoreCase(policy));
+		} else {
+			table = new ElasticTable(windowSize, memoPointSize);
 		}
-		return new ElasticTable(windowSize, memoPointSize);
+		table.memoStat = new MemoStat(memoPointSize);
+		return table;
 	}
 
 	public void record(ParserProfiler rec) {
-		rec.setText("M.TableType", this.getClass().getSimpleName());
-		rec.setCount("M.MemoStored", this.CountStored);
-		rec.setRatio("M.MemoHit", this.CountUsed, this.CountStored);
-		rec.setCount("M.Invalidated", this.CountInvalidated);
+		record(rec, this.getClass().getSimpleName(), CountStored, CountLookup, CountUsed, CountInvalidated, CountEvicted);
+	}
+
+	public static void record(ParserProfiler rec, String type, int stored, int lookup, int used, int invalidated, int evicted) {
+		rec.setText("M.TableType", type);
+		rec.setCount("M.MemoStored", stored);
+		rec.setRatio("M.MemoHit", used, stored);
+		rec.setCount("M.Lookup", lookup);
+		rec.setRatio("M.HitRate", used, lookup);
+		rec.setCount("M.Invalidated", invalidated);
+		rec.setCount("M.Evicted", evicted);
 	}
 
 }
@@ -52,11 +78,13 @@ class NullTable extends MemoTable {
 
 	@Override
 	public MemoEntry getMemo(long pos, int id) {
+		this.CountLookup += 1;
 		return null;
 	}
 
 	@Override
 	public MemoEntry getStateMemo(long pos, int id, int stateValue) {
+		this.CountLookup += 1;
 		return null;
 	}
 }
@@ -84,6 +112,9 @@ class ElasticTable extends MemoTable {
 		long key = longkey(pos, memoPoint, shift);
 		int hash = (int) (key % memoArray.length);
 		MemoEntryKey m = this.memoArray[hash];
+		if (m.key != -1 && m.key != key) {
+			this.CountEvicted += 1;
+		}
 		m.key = key;
 		m.failed = failed;
 		m.result = result;
@@ -97,6 +128,7 @@ class ElasticTable extends MemoTable {
 		long key = longkey(pos, memoPoint, shift);
 		int hash = (int) (key % memoArray.length);
 		MemoEntryKey m = this.memoArray[hash];
+		this.CountLookup += 1;
 		if (m.key == key) {
 			this.CountUsed += 1;
 			return m;
@@ -109,6 +141,7 @@ class ElasticTable extends MemoTable {
 		long key = longkey(pos, memoPoint, shift);
 		int hash = (int) (key % memoArray.length);
 		MemoEntryKey m = this.memoArray[hash];
+		this.CountLookup += 1;
 		if (m.key == key) {
 			if (m.stateValue == stateValue) {
 				this.CountUsed += 1;
@@ -150,6 +183,7 @@ class PackratHashTable extends MemoTable {
 
 	@Override
 	public MemoEntry getMemo(long pos, int memoPoint) {
+		this.CountLookup += 1;
 		MemoEntryList m = this.memoMap.get(pos);
 		while (m != null) {
 			if (m.memoPoint == memoPoint) {
@@ -163,6 +197,7 @@ class PackratHashTable extends MemoTable {
 
 	@Override
 	public MemoEntry getStateMemo(long pos, int memoPoint, int stateValue) {
+		this.CountLookup += 1;
 		MemoEntryList m = this.memoMap.get(pos);
 		while (m != null) {
 			if (m.memoPoint == memoPoint) {
@@ -192,3 +227,138 @@ class PackratHashTable extends MemoTable {
 	}
 
 }
+
+/**
+ * SetAssociativeTable keeps each key in one set of a fixed number of ways,
+ * so that two hot keys that collide in ElasticTable can both stay. The
+ * victim in a full set is the least recently used entry (LRU) or the first
+ * entry without a reference bit under the set's clock hand (CLOCK).
+ */
+
+class SetAssociativeTable extends MemoTable {
+	private final MemoEntryKey[] memoArray;
+	private final int ways;
+	private final int setMask;
+	private final int shift;
+	private final int points;
+	private final boolean clock;
+	private final long[] stamp;
+	private final boolean[] ref;
+	private final int[] hand;
+	private long tick = 0;
+
+	SetAssociativeTable(int w, int n, int ways, boolean clock) {
+		int sets = Integer.highestOneBit(Math.max((w * n + 1) / ways, 1) * 2 - 1);
+		this.ways = ways;
+		this.setMask = sets - 1;
+		this.memoArray = new MemoEntryKey[sets * ways];
+		for (int i = 0; i < this.memoArray.length; i++) {
+			this.memoArray[i] = new MemoEntryKey();
+			this.memoArray[i].key = -1;
+		}
+		this.clock = clock;
+		this.stamp = clock ? null : new long[memoArray.length];
+		this.ref = clock ? new boolean[memoArray.length] : null;
+		this.hand = clock ? new int[sets] : null;
+		this.shift = (int) (Math.log(n) / Math.log(2.0)) + 1;
+		this.points = n;
+		this.initStat();
+	}
+
+	final long longkey(long pos, int memoPoint, int shift) {
+		return ((pos << shift) | memoPoint) & Long.MAX_VALUE;
+	}
+
+	/* pos * n + memoPoint, as in ParserContext */
+
+	private int set(long key) {
+		return (int) (((key >>> shift) * points + (key & ((1L << shift) - 1))) & setMask);
+	}
+
+	private void touch(int i) {
+		if (clock) {
+			ref[i] = true;
+		} else {
+			stamp[i] = ++tick;
+		}
+	}
+
+	private int find(long key) {
+		int base = set(key) * ways;
+		for (int i = base; i < base + ways; i++) {
+			if (memoArray[i].key == key) {
+				touch(i);
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int victim(long key) {
+		int set = set(key);
+		int base = set * ways;
+		for (int i = base; i < base + ways; i++) {
+			if (memoArray[i].key == key || memoArray[i].key == -1) {
+				touch(i);
+				return i;
+			}
+		}
+		this.CountEvicted += 1;
+		if (clock) {
+			while (true) {
+				int i = base + hand[set];
+				hand[set] = (hand[set] + 1) % ways;
+				if (!ref[i]) {
+					ref[i] = true;
+					return i;
+				}
+				ref[i] = false;
+			}
+		}
+		int v = base;
+		for (int i = base + 1; i < base + ways; i++) {
+			if (stamp[i] < stamp[v]) {
+				v = i;
+			}
+		}
+		stamp[v] = ++tick;
+		return v;
+	}
+
+	@Override
+	public void setMemo(long pos, int memoPoint, boolean failed, Object result, int consumed, int stateValue) {
+		long key = longkey(pos, memoPoint, shift);
+		MemoEntryKey m = this.memoArray[victim(key)];
+		m.key = key;
+		m.failed = failed;
+		m.result = result;
+		m.consumed = consumed;
+		m.stateValue = stateValue;
+		this.CountStored += 1;
+	}
+
+	@Override
+	public final MemoEntry getMemo(long pos, int memoPoint) {
+		this.CountLookup += 1;
+		int i = find(longkey(pos, memoPoint, shift));
+		if (i >= 0) {
+			this.CountUsed += 1;
+			return memoArray[i];
+		}
+		return null;
+	}
+
+	@Override
+	public final MemoEntry getStateMemo(long pos, int memoPoint, int stateValue) {
+		this.CountLookup += 1;
+		int i = find(longkey(pos, memoPoint, shift));
+		if (i >= 0) {
+			if (memoArray[i].stateValue == stateValue) {
+				this.CountUsed += 1;
+				return memoArray[i];
+			}
+			this.CountInvalidated += 1;
+		}
+		return null;
+	}
+}
@@ -1,27 +1,89 @@
 package nez.parser;
 
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 
 import nez.ast.CommonTree;
 import nez.ast.Source;
 import nez.ast.SourceError;
 import nez.ast.Tree;
 import nez.lang.Grammar;
+import nez.lang.Production;
+import nez.parser.io.ChannelSource;
 import nez.parser.io.CommonSource;
+import nez.parser.vm.MozCache;
+import nez.parser.vm.MozCode;
 import nez.parser.vm.ParserMachineContext;
+import nez.parser.vm.ParserMachineProfiler;
 import nez.util.ConsoleUtils;
 import nez.util.UList;
+import nez.util.Verbose;
+
+/**
+ * Parser is safe to share between threads once compiled. The compiled grammar
+ * and ParserCode are published through volatile fields and never mutated
+ * afterwards; each thread parses with its own pooled ParserMachineContext.
+ * The parsers made by newParsers() share the compiled grammar and ParserCode
+ * of the first one, and start at the entry point of their own production.
+ */
 
 public final class Parser {
-	private Grammar grammar;
-	private ParserStrategy strategy;
-	private String start;
+	private final Grammar grammar;
+	private final ParserStrategy strategy;
+	private final String start;
+	private final Parser unit; // the parser that compiles the shared code
+	private final String[] entries; // the start productions compiled by this
 
 	public Parser(Grammar grammar, String start, ParserStrategy strategy) {
+		this(grammar, start, strategy, null, null);
+	}
+
+	private Parser(Grammar grammar, String start, ParserStrategy strategy, Parser unit, String[] entries) {
 		this.grammar = grammar;
 		this.start = start;
 		this.strategy = strategy;
+		this.unit = unit == null ? this : unit;
+		this.entries = entries;
+	}
+
+	/**
+	 * Returns a parser for each start production, in the given order. The
+	 * parsers share one compiled grammar and one ParserCode, compiled once
+	 * with every start as an entry point.
+	 */
+
+	public final static Map<String, Parser> newParsers(Grammar grammar, Collection<String> starts, ParserStrategy strategy) {
+		LinkedHashMap<String, Parser> parsers = new LinkedHashMap<String, Parser>();
+		UList<String> l = new UList<String>(new String[starts.size()]);
+		for (String start : starts) {
+			if (grammar.getProduction(start) == null) {
+				Verbose.println("undefined production: " + start);
+			} else if (!l.contains(start)) {
+				l.add(start);
+			}
+		}
+		String[] entries = l.compactArray();
+		if (entries.length > 0) {
+			Parser unit = new Parser(grammar, entries[0], strategy, null, entries);
+			for (String start : entries) {
+				parsers.put(start, parsers.isEmpty() ? unit : new Parser(grammar, start, strategy, unit, null));
+			}
+		}
+		return parsers;
+	}
+
+	public final String getStartProductionName() {
+		return this.start;
 	}
 
 	public final Grammar getGrammar() {
@@ -32,26 +94,130 @@ public final class Parser {
 		return this.strategy;
 	}
 
-	private Grammar compiledGrammar = null;
-	private ParserCode<?> pcode = null;
+	private volatile Grammar compiledGrammar = null;
+	private volatile ParserCode<?> pcode = null;
+	private Map<String, String> entryNames = null;
 
 	public final Grammar getCompiledGrammar() {
-		if (compiledGrammar == null) {
-			compiledGrammar = new ParserOptimizer().optimize(grammar.getProduction(start), strategy, null);
+		if (unit != this) {
+			return unit.getCompiledGrammar();
 		}
-		return compiledGrammar;
+		Grammar g = compiledGrammar;
+		if (g == null) {
+			synchronized (this) {
+				g = compiledGrammar;
+				if (g == null) {
+					ParserOptimizer optimizer = new ParserOptimizer();
+					if (entries == null) {
+						g = optimizer.optimize(grammar.getProduction(start), strategy, null);
+					} else {
+						ArrayList<Production> starts = new ArrayList<Production>();
+						for (String name : entries) {
+							starts.add(grammar.getProduction(name));
+						}
+						g = optimizer.optimize(starts, strategy, null);
+					}
+					entryNames = optimizer.getEntryNames();
+					compiledGrammar = g;
+				}
+			}
+		}
+		return g;
+	}
+
+	/* the index of the start production in the shared code */
+
+	private volatile int entry = -1;
+
+	private int getEntryPoint(ParserCode<?> code) {
+		int e = this.entry;
+		if (e == -1) {
+			if (unit == this) {
+				e = 0;
+			} else {
+				unit.getCompiledGrammar();
+				synchronized (unit) {
+					e = code.getEntryPoint(unit.entryNames.get(start));
+				}
+			}
+			this.entry = e;
+		}
+		return e;
 	}
 
 	public final ParserCode<?> getParserCode() {
-		if (this.pcode == null) {
-			pcode = this.strategy.newParserCode(getCompiledGrammar());
+		if (unit != this) {
+			return unit.getParserCode();
 		}
-		return pcode;
+		ParserCode<?> code = this.pcode;
+		if (code == null) {
+			synchronized (this) {
+				code = this.pcode;
+				if (code == null) {
+					code = newParserCode();
+					this.pcode = code;
+				}
+			}
+		}
+		return code;
 	}
 
 	public final ParserCode<?> compile() {
-		this.pcode = this.strategy.newParserCode(getCompiledGrammar());
-		return pcode;
+		if (unit != this) {
+			return unit.compile();
+		}
+		synchronized (this) {
+			ParserCode<?> code = newParserCode();
+			this.pcode = code;
+			return code;
+		}
+	}
+
+	private ParserCode<?> newParserCode() {
+		/* the cache is keyed by the start production only */
+		if (entries == null && MozCache.isCacheable(strategy)) {
+			MozCache cache = new MozCache(strategy.MozCache, grammar, start, strategy);
+			ParserCode<?> code = cache.load();
+			if (code == null) {
+				code = this.strategy.newParserCode(getCompiledGrammar());
+				cache.store((MozCode) code);
+			}
+			return code;
+		}
+		return this.strategy.newParserCode(getCompiledGrammar());
+	}
+
+	/* ParserMachineContext pool */
+
+	private final ThreadLocal<ParserMachineContext<?>> contextPool = new ThreadLocal<ParserMachineContext<?>>();
+
+	/**
+	 * Returns the context of the current thread, bound to a new input. The
+	 * context is taken out of the pool until it is released, so that a nested
+	 * parse on the same thread gets a fresh one. A pooled context was reset
+	 * when it was released.
+	 */
+
+	@SuppressWarnings("unchecked")
+	public final <T extends Tree<T>> ParserMachineContext<T> newParserMachineContext(Source s, T proto) {
+		ParserMachineContext<T> ctx = (ParserMachineContext<T>) contextPool.get();
+		if (ctx == null) {
+			ctx = new ParserMachineContext<T>(s, proto);
+		} else {
+			contextPool.set(null);
+			ctx.bind(s, proto);
+		}
+		ParserCode<?> code = this.getParserCode();
+		ctx.initMemoTable(strategy.SlidingWindow, code.getMemoPointSize(), strategy.MemoWays, strategy.MemoPolicy, strategy.MemoOffHeap && !strategy.TreeConstruction, strategy.MemoAdaptive);
+		return ctx;
+	}
+
+	public final void releaseParserMachineContext(ParserMachineContext<?> ctx) {
+		if (ctx.source instanceof ChannelSource) {
+			((ChannelSource) ctx.source).setBacktrackPoint(null);
+		}
+		ctx.reset(null, null);
+		contextPool.set(ctx);
 	}
 
 	public final ParserInstance newParserContext(Source source, Tree<?> prototype) {
@@ -67,7 +233,7 @@ public final class Parser {
 		if (prof != null) {
 			context.startProfiling(prof);
 		}
-		Object matched = code.exec(context);
+		Object matched = code.exec(context, getEntryPoint(code));
 		if (prof != null) {
 			context.doneProfiling(prof);
 		}
@@ -88,36 +254,69 @@ public final class Parser {
 			return (T) perform(this.newParserContext(s, proto));
 		}
 		// Verbose.println("FT86");
-		ParserMachineContext<T> ctx = new ParserMachineContext<T>(s, proto);
-		ParserCode<?> code = this.getParserCode();
-		ctx.initMemoTable(strategy.SlidingWindow, code.getMemoPointSize());
-		// if (prof != null) {
-		// context.startProfiling(prof);
-		// }
-		T matched = code.exec(ctx);
-		// if (prof != null) {
-		// context.doneProfiling(prof);
-		// }
-		if (matched == null) {
-			perror(s, ctx.getMaximumPosition(), "syntax error");
-			return null;
+		if (strategy.Profiling) {
+			return profile(s, proto);
 		}
-		if (this.disabledUncosumed && !ctx.eof()) {
-			perror(s, ctx.getPosition(), "unconsumed");
+		ParserMachineContext<T> ctx = this.newParserMachineContext(s, proto);
+		try {
+			return perform(ctx);
+		} finally {
+			this.releaseParserMachineContext(ctx);
 		}
+	}
+
+	private <T extends Tree<T>> T perform(ParserMachineContext<T> ctx) {
+		ParserCode<?> code = this.getParserCode();
+		T matched = code.exec(ctx, getEntryPoint(code));
+		checkResult(ctx, matched != null);
 		return matched;
 	}
 
+	private boolean checkResult(ParserMachineContext<?> ctx, boolean matched) {
+		if (!matched) {
+			perror(ctx.source, ctx.getMaximumPosition(), "syntax error");
+		} else if (this.disabledUncosumed && !ctx.eof()) {
+			perror(ctx.source, ctx.getPosition(), "unconsumed");
+		}
+		return matched;
+	}
+
+	/* +Profiling: inputs are parsed one at a time with the profiler of this parser */
+
+	private ParserMachineProfiler<?> machineProfiler = null;
+
+	public final synchronized ParserMachineProfiler<?> getMachineProfiler() {
+		return this.machineProfiler;
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T extends Tree<T>> T profile(Source s, T proto) {
+		ParserMachineProfiler<T> ctx = (ParserMachineProfiler<T>) this.machineProfiler;
+		if (ctx == null) {
+			ctx = new ParserMachineProfiler<T>(s, proto, start);
+			this.machineProfiler = ctx;
+		} else {
+			ctx.bind(s, proto); // reset after the previous input
+		}
+		ParserCode<?> code = this.getParserCode();
+		ctx.initMemoTable(strategy.SlidingWindow, code.getMemoPointSize(), strategy.MemoWays, strategy.MemoPolicy, strategy.MemoOffHeap && !strategy.TreeConstruction, strategy.MemoAdaptive);
+		try {
+			return perform(ctx);
+		} finally {
+			ctx.reset(null, null);
+		}
+	}
+
 	protected ParserProfiler prof = null;
 
 	public void setProfiler(ParserProfiler prof) {
 		this.prof = prof;
 		if (prof != null) {
-			this.compile();
+			ParserCode<?> code = this.compile();
 			// prof.setFile("G.File", this.start.getGrammarFile().getURN());
 			prof.setCount("G.Production", this.grammar.size());
-			prof.setCount("G.Instruction", this.pcode.getInstructionSize());
-			prof.setCount("G.MemoPoint", this.pcode.getMemoPointSize());
+			prof.setCount("G.Instruction", code.getInstructionSize());
+			prof.setCount("G.MemoPoint", code.getMemoPointSize());
 		}
 	}
 
@@ -133,8 +332,30 @@ public final class Parser {
 
 	/* --------------------------------------------------------------------- */
 
+	/**
+	 * Recognizes the input without returning a tree. Only match slides the
+	 * buffer of a ChannelSource, because a tree returned by parse may read
+	 * any part of the input later.
+	 */
+
 	public final boolean match(Source s) {
-		return perform(this.newParserContext(s, null)) != null;
+		if (strategy.Moz) {
+			return perform(this.newParserContext(s, null)) != null;
+		}
+		if (strategy.Profiling) {
+			return profile(s, new CommonTree()) != null;
+		}
+		ParserMachineContext<CommonTree> ctx = this.newParserMachineContext(s, new CommonTree());
+		try {
+			ParserCode<?> code = this.getParserCode();
+			if (s instanceof ChannelSource && !strategy.TreeConstruction && !(code instanceof MozCode && ((MozCode) code).isJitCompiled())) {
+				/* without trees and JIT frames, only the VM stacks refer to the input */
+				((ChannelSource) s).setBacktrackPoint(ctx::getOldestBacktrackPosition);
+			}
+			return checkResult(ctx, code.match(ctx, getEntryPoint(code)));
+		} finally {
+			this.releaseParserMachineContext(ctx);
+		}
 	}
 
 	public final boolean match(String str) {
@@ -154,6 +375,219 @@ public final class Parser {
 		return this.parse(sc, new CommonTree());
 	}
 
+	/* Batch parsing */
+
+	public static interface ParseListener<T> {
+		/**
+		 * Called on the thread that invoked parseAll, in completion order.
+		 * result is null if the index-th input failed to parse; its errors
+		 * are reported by showErrors(input).
+		 */
+		void parsed(int index, Source input, T result, long elapsedNanoTime);
+	}
+
+	private final static class Parsed<T> {
+		final int index;
+		final Source input;
+		final T result;
+		final long elapsed;
+
+		Parsed(int index, Source input, T result, long elapsed) {
+			this.index = index;
+			this.input = input;
+			this.result = result;
+			this.elapsed = elapsed;
+		}
+	}
+
+	public final static int DefaultBatchWindow = 64;
+
+	/**
+	 * Parses inputs on the executor and streams the results to the listener
+	 * as they complete. At most window inputs are taken from the iterator at
+	 * once, so that a lazy iterator never keeps more than window sources open.
+	 */
+
+	public final <T extends Tree<T>> void parseAll(Iterable<Source> inputs, final T proto, Executor executor, int window, ParseListener<? super T> listener) {
+		this.getParserCode(); // compile once before sharing
+		ExecutorCompletionService<Parsed<T>> ecs = new ExecutorCompletionService<Parsed<T>>(executor);
+		Iterator<Source> iter = inputs.iterator();
+		int index = 0;
+		int running = 0;
+		try {
+			while (iter.hasNext() || running > 0) {
+				if (running < window && iter.hasNext()) {
+					final Source input = iter.next();
+					final int id = index++;
+					ecs.submit(new Callable<Parsed<T>>() {
+						@Override
+						public Parsed<T> call() {
+							long t1 = System.nanoTime();
+							T result = parse(input, proto);
+							long t2 = System.nanoTime();
+							return new Parsed<T>(id, input, result, t2 - t1);
+						}
+					});
+					running++;
+					continue;
+				}
+				Parsed<T> p = ecs.take().get();
+				running--;
+				listener.parsed(p.index, p.input, p.result, p.elapsed);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Parses inputs on the executor and returns the results in input order.
+	 */
+
+	public final <T extends Tree<T>> List<T> parseAll(Iterable<Source> inputs, T proto, Executor executor) {
+		final List<T> results = new ArrayList<T>();
+		parseAll(inputs, proto, executor, DefaultBatchWindow, new ParseListener<T>() {
+			@Override
+			public void parsed(int index, Source input, T result, long elapsedNanoTime) {
+				while (results.size() <= index) {
+					results.add(null);
+				}
+				results.set(index, result);
+			}
+		});
+		return results;
+	}
+
+	public final List<CommonTree> parseAll(Iterable<Source> inputs, Executor executor) {
+		return parseAll(inputs, new CommonTree(), executor);
+	}
+
+	/* Streaming */
+
+	/**
+	 * Returns the records of s one by one, parsing the start production
+	 * repeatedly as in File = Record*. Before the next record is parsed, the
+	 * tree log, the memo table and the input behind the previous record are
+	 * released, so a record may refer to its source text only until the
+	 * next call of hasNext(). Iteration stops at the end of input or at the
+	 * first syntax error, which is reported as a parser error. The pooled
+	 * context is released at the end of the iteration, or by close() when
+	 * the iteration is abandoned.
+	 */
+
+	public final <T extends Tree<T>> RecordIterator<T> records(Source s, T proto) {
+		return new RecordIterator<T>(s, proto);
+	}
+
+	/**
+	 * Passes each record of s to the listener as soon as it is parsed, and
+	 * returns the number of records. See records(Source, T).
+	 */
+
+	public final <T extends Tree<T>> long parseRecords(Source s, T proto, ParseListener<? super T> listener) {
+		RecordIterator<T> iter = new RecordIterator<T>(s, proto);
+		int index = 0;
+		try {
+			while (true) {
+				long t1 = System.nanoTime();
+				if (!iter.hasNext()) {
+					break;
+				}
+				T record = iter.next();
+				long t2 = System.nanoTime();
+				listener.parsed(index++, s, record, t2 - t1);
+			}
+		} finally {
+			iter.close();
+		}
+		return index;
+	}
+
+	public final class RecordIterator<T extends Tree<T>> implements Iterator<T>, Closeable {
+		private final Source source;
+		private final T proto;
+		private final ParserCode<?> code;
+		private ParserMachineContext<T> ctx;
+		private long pos = 0;
+		private T record = null;
+
+		RecordIterator(Source source, T proto) {
+			this.source = source;
+			this.proto = proto;
+			this.code = getParserCode();
+			this.ctx = newParserMachineContext(source, proto);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (record == null && ctx != null) {
+				boolean parsed = false;
+				try {
+					record = parseNext();
+					parsed = true;
+				} finally {
+					if (!parsed || record == null) {
+						close();
+					}
+				}
+			}
+			return record != null;
+		}
+
+		/* releases the context; the iteration ends */
+
+		@Override
+		public void close() {
+			if (ctx != null) {
+				releaseParserMachineContext(ctx);
+				ctx = null;
+			}
+		}
+
+		private T parseNext() {
+			if (pos > 0) {
+				ctx.reset(source, proto);
+				ctx.setPosition(pos);
+				if (source instanceof CommonSource) {
+					((CommonSource) source).releaseBefore(pos);
+				}
+			}
+			if (source.eof(pos)) {
+				return null;
+			}
+			T matched = code.exec(ctx, getEntryPoint(code));
+			if (matched == null) {
+				perror(source, ctx.getMaximumPosition(), "syntax error");
+				return null;
+			}
+			if (ctx.getPosition() == pos) {
+				perror(source, pos, "unconsumed");
+				return null;
+			}
+			pos = ctx.getPosition();
+			return matched;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T r = record;
+			record = null;
+			return r;
+		}
+	}
+
 	/* Errors */
 
 	private boolean disabledUncosumed = false;
@@ -163,26 +597,26 @@ public final class Parser {
 		this.disabledUncosumed = disabled;
 	}
 
-	private void perror(Source source, long pos, String message) {
+	private synchronized void perror(Source source, long pos, String message) {
 		if (this.errors == null) {
 			this.errors = new UList<SourceError>(new SourceError[4]);
 		}
 		errors.add(new SourceError(source, pos, message));
 	}
 
-	public final boolean hasErrors() {
+	public final synchronized boolean hasErrors() {
 		return errors != null;
 	}
 
-	public final void clearErrors() {
+	public final synchronized void clearErrors() {
 		errors = null;
 	}
 
-	public final List<SourceError> getErrors() {
+	public final synchronized List<SourceError> getErrors() {
 		return errors == null ? new ArrayList<SourceError>() : this.errors;
 	}
 
-	public final boolean showErrors() {
+	public final synchronized boolean showErrors() {
 		if (errors != null) {
 			for (SourceError e : errors) {
 				ConsoleUtils.println(e.toString());
@@ -193,7 +627,33 @@ public final class Parser {
 		return false;
 	}
 
-	public final void ensureNoErrors() throws ParserException {
+	/* errors of one input; those of inputs parsed concurrently are kept */
+
+	public final synchronized boolean showErrors(Source source) {
+		if (errors == null) {
+			return false;
+		}
+		int kept = 0;
+		for (int i = 0; i < errors.size(); i++) {
+			SourceError e = errors.ArrayValues[i];
+			if (e.getSource() == source) {
+				ConsoleUtils.println(e.toString());
+			} else {
+				errors.ArrayValues[kept++] = e;
+			}
+		}
+		if (kept == errors.size()) {
+			return false;
+		}
+		if (kept == 0) {
+			this.clearErrors();
+		} else {
+			errors.clear(kept);
+		}
+		return true;
+	}
+
+	public final synchronized void ensureNoErrors() throws ParserException {
 		if (errors != null) {
 			throw new ParserException(errors.ArrayValues[0].toString());
 		}
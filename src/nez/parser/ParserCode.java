@@ -1,9 +1,14 @@
 package nez.parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import nez.ast.Tree;
 import nez.lang.Grammar;
@@ -11,10 +16,10 @@ import nez.lang.Production;
 import nez.lang.Productions;
 import nez.lang.Productions.NonterminalReference;
 import nez.lang.Typestate;
-import nez.lang.Typestate.TypestateAnalyzer;
 import nez.parser.vm.Moz86;
 import nez.parser.vm.MozInst;
 import nez.parser.vm.ParserMachineContext;
+import nez.parser.vm.ParserMachineProfiler;
 import nez.util.UList;
 import nez.util.Verbose;
 
@@ -23,13 +28,71 @@ public abstract class ParserCode<T extends Instruction> {
 	protected final Grammar grammar;
 	protected UList<T> codeList;
 	protected final boolean RecognitionMode;
+	private final Typestate[] typestates; // of each production, by its index in the grammar
 
 	protected ParserCode(Grammar grammar, T[] initArray) {
 		this.grammar = grammar;
 		this.funcMap = new HashMap<>();
 		this.codeList = initArray != null ? new UList<>(initArray) : null;
-		TypestateAnalyzer typestate = Typestate.newAnalyzer();
-		this.RecognitionMode = typestate.inferTypestate(grammar.getStartProduction()) == Typestate.Unit;
+		grammar.getStartProduction(); // an empty grammar gets its EMPTY start
+		long t = System.nanoTime();
+		this.typestates = inferTypestates(grammar);
+		Verbose.printElapsedTime("Typestate", t, System.nanoTime());
+		this.RecognitionMode = typestates[0] == Typestate.Unit;
+		this.entryModes = new boolean[grammar.size()];
+		for (int entry = 0; entry < entryModes.length; entry++) {
+			entryModes[entry] = typestates[entry] == Typestate.Unit;
+		}
+	}
+
+	/*
+	 * The typestates are inferred once per strongly connected component of
+	 * the grammar, from the lowest level up. The components of a level are
+	 * independent, so a level of several components is inferred in parallel
+	 * on the ForkJoin common pool.
+	 */
+
+	private static Typestate[] inferTypestates(Grammar grammar) {
+		ConcurrentHashMap<String, Typestate> table = new ConcurrentHashMap<>();
+		for (List<int[]> level : Productions.findComponentLevels(grammar)) {
+			if (level.size() == 1) {
+				inferTypestates(grammar, level.get(0), table);
+			} else {
+				level.parallelStream().forEach(component -> inferTypestates(grammar, component, table));
+			}
+		}
+		Typestate[] typestates = new Typestate[grammar.size()];
+		for (int i = 0; i < typestates.length; i++) {
+			typestates[i] = table.get(grammar.get(i).getUniqueName());
+		}
+		return typestates;
+	}
+
+	private static void inferTypestates(Grammar grammar, int[] component, ConcurrentHashMap<String, Typestate> table) {
+		ArrayList<Production> l = new ArrayList<>(component.length);
+		for (int i : component) {
+			l.add(grammar.get(i));
+		}
+		Typestate.inferTypestates(l, table);
+	}
+
+	/* loaded code, which has no grammar */
+
+	protected ParserCode(boolean recognitionMode, T[] initArray, MemoPoint[] memoPoints) {
+		this.grammar = null;
+		this.typestates = null;
+		this.entryModes = null;
+		this.funcMap = new HashMap<>();
+		this.codeList = new UList<>(initArray);
+		for (T inst : initArray) {
+			this.codeList.add(inst);
+		}
+		this.RecognitionMode = recognitionMode;
+		HashMap<String, MemoPoint> map = new HashMap<>();
+		for (MemoPoint m : memoPoints) {
+			map.put(m.label, m);
+		}
+		this.memoPointMap = Collections.unmodifiableMap(map);
 	}
 
 	public final Grammar getCompiledGrammar() {
@@ -65,32 +128,71 @@ public abstract class ParserCode<T extends Instruction> {
 		}
 	}
 
+	/*
+	 * Entry points: the code of any production in the compiled grammar can be
+	 * run as a start production, identified by its index. Entry 0 is the start
+	 * production. Whether each entry runs in recognition mode is fixed when
+	 * the code is created.
+	 */
+
+	private final boolean[] entryModes;
+
+	public final int getEntryPoint(String uname) {
+		for (int entry = 0; grammar != null && entry < grammar.size(); entry++) {
+			if (grammar.get(entry).getUniqueName().equals(uname)) {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	public final T getEntryInstruction(int entry) {
+		if (entry == 0) {
+			return getStartInstruction();
+		}
+		return funcMap.get(grammar.get(entry).getUniqueName()).getCompiled();
+	}
+
+	protected final boolean isRecognitionMode(int entry) {
+		return entry == 0 ? RecognitionMode : entryModes[entry];
+	}
+
 	public final <E extends Tree<E>> E exec(ParserMachineContext<E> ctx) {
+		return exec(ctx, 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	public final <E extends Tree<E>> E exec(ParserMachineContext<E> ctx, int entry) {
 		int ppos = (int) ctx.getPosition();
-		MozInst code = (MozInst) this.getStartInstruction();
-		boolean result = exec(ctx, code);
-		if (RecognitionMode && result) {
+		MozInst code = (MozInst) this.getEntryInstruction(entry);
+		boolean result = ctx instanceof ParserMachineProfiler ? ((ParserMachineProfiler<E>) ctx).exec(code) : exec(ctx, entry, code);
+		if (isRecognitionMode(entry) && result) {
 			ctx.left = ctx.newTree(null, ppos, (int) ctx.getPosition(), 0, null);
 		}
 		return result ? ctx.left : null;
 	}
 
-	private <E extends Tree<E>> boolean exec(ParserMachineContext<E> ctx, MozInst inst) {
+	/* runs the code without making the tree of a recognition mode entry */
+
+	public final boolean match(ParserMachineContext<?> ctx, int entry) {
+		MozInst code = (MozInst) this.getEntryInstruction(entry);
+		return ctx instanceof ParserMachineProfiler ? ((ParserMachineProfiler<?>) ctx).exec(code) : exec(ctx, entry, code);
+	}
+
+	protected <E extends Tree<E>> boolean exec(ParserMachineContext<E> ctx, int entry, MozInst inst) {
 		MozInst cur = inst;
-		try {
-			while (true) {
-				MozInst next = cur.exec(ctx);
-				// if (next == null) {
-				// System.out.println("null " + cur);
-				// }
-				cur = next;
-			}
-		} catch (TerminationException e) {
-			return e.status;
+		MozInst next;
+		while ((next = cur.exec(ctx)) != null) {
+			cur = next;
 		}
+		return Moz86.Exit.status(cur);
 	}
 
-	public abstract Object exec(ParserInstance context);
+	public final Object exec(ParserInstance context) {
+		return exec(context, 0);
+	}
+
+	public abstract Object exec(ParserInstance context, int entry);
 
 	/* ProductionCode */
 
@@ -141,13 +243,17 @@ public abstract class ParserCode<T extends Instruction> {
 	}
 
 	public void initMemoPoint(ParserStrategy strategy) {
-		final TypestateAnalyzer typestate = Typestate.newAnalyzer();
 		memoPointMap = new HashMap<>();
+		if (strategy.MemoPlan != null) {
+			initMemoPlan(strategy.MemoPlan);
+			return;
+		}
 		NonterminalReference refs = Productions.countNonterminalReference(grammar);
 		ArrayList<Score> l = new ArrayList<Score>();
-		for (Production p : grammar) {
+		for (int i = 0; i < grammar.size(); i++) {
+			Production p = grammar.get(i);
 			String uname = p.getUniqueName();
-			Typestate ts = typestate.inferTypestate(p);
+			Typestate ts = typestates[i];
 			if (ts != Typestate.TreeMutation) {
 				l.add(new Score(p, ts, refs.count(uname), ts == Typestate.Unit ? 1 : 1 * strategy.TreeFactor));
 			}
@@ -165,7 +271,30 @@ public abstract class ParserCode<T extends Instruction> {
 				Verbose.println("MomoPoint(%d): %s score=%f", memoPoint.id, uname, s.score);
 			}
 		}
+		memoPointMap = Collections.unmodifiableMap(memoPointMap);
+	}
+
+	/* the memo points listed in MemoPlan=A,B,C */
+
+	private void initMemoPlan(String plan) {
+		HashSet<String> names = new HashSet<>(Arrays.asList(plan.split(",")));
+		for (int i = 0; i < grammar.size(); i++) {
+			Production p = grammar.get(i);
+			String uname = p.getUniqueName();
+			if (names.contains(uname)) {
+				Typestate ts = typestates[i];
+				if (ts != Typestate.TreeMutation) {
+					MemoPoint memoPoint = new MemoPoint(this.memoPointMap.size(), uname, p.getExpression(), ts, false);
+					this.memoPointMap.put(uname, memoPoint);
+					Verbose.println("MomoPoint(%d): %s planned", memoPoint.id, uname);
+				}
+			}
+		}
+		memoPointMap = Collections.unmodifiableMap(memoPointMap);
+	}
 
+	public final Collection<MemoPoint> getMemoPoints() {
+		return this.memoPointMap != null ? this.memoPointMap.values() : Collections.<MemoPoint> emptyList();
 	}
 
 	public final MemoPoint getMemoPoint(String uname) {
@@ -179,12 +308,12 @@ public abstract class ParserCode<T extends Instruction> {
 		return this.memoPointMap != null ? this.memoPointMap.size() : 0;
 	}
 
-	public final void dumpMemoPoints() {
+	public final void dumpMemoPoints(MemoStat stat) {
 		if (this.memoPointMap != null) {
 			Verbose.println("ID\tPEG\tCount\tHit\tFail\tMean");
 			for (String key : this.memoPointMap.keySet()) {
 				MemoPoint p = this.memoPointMap.get(key);
-				String s = String.format("%d\t%s\t%d\t%f\t%f\t%f", p.id, p.label, p.count(), p.hitRatio(), p.failHitRatio(), p.meanLength());
+				String s = String.format("%d\t%s\t%d\t%f\t%f\t%f", p.id, p.label, stat.count(p.id), stat.hitRatio(p.id), stat.failHitRatio(p.id), stat.meanLength(p.id));
 				Verbose.println(s);
 			}
 			Verbose.println("");
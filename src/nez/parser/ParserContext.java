@@ -1,5 +1,9 @@
 package nez.parser;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import nez.ast.Source;
 import nez.ast.Symbol;
 import nez.ast.Tree;
@@ -22,15 +26,61 @@ public class ParserContext<T extends Tree<T>> {
 
 	protected ParserContext(Source s, T proto) {
 		source = s;
-		inputs = null;
-		length = 0;
+		initInputs(s);
 		this.pos = 0;
 		this.left = proto;
 	}
 
 	protected Source source;
-	private byte[] inputs;
-	private int length;
+	/* the bytes of a StringSource, read without going through Source */
+	protected byte[] inputs;
+	protected int length;
+
+	private void initInputs(Source s) {
+		if (s instanceof StringSource) {
+			this.inputs = ((StringSource) s).inputs;
+			this.length = inputs.length - 1;
+		} else {
+			this.inputs = null;
+			this.length = 0;
+		}
+	}
+
+	/**
+	 * Resets the context for a new input so that the log, symbol table and
+	 * memo arrays are reused instead of reallocated.
+	 */
+
+	/**
+	 * Binds a context that was reset on release to the next input.
+	 */
+
+	protected void bind(Source s, T proto) {
+		this.source = s;
+		this.initInputs(s);
+		this.left = proto;
+	}
+
+	protected void reset(Source s, T proto) {
+		this.source = s;
+		this.initInputs(s);
+		this.pos = 0;
+		this.left = proto;
+		this.backLog(0); // a pooled context keeps no tree of the previous input
+		this.openSize = 0;
+		for (int i = 0; i < tableSize; i++) {
+			tables[i].symbol = null;
+			tables[i].table = null;
+		}
+		this.tableSize = 0;
+		this.stateValue = 0;
+		this.stateCount = 0;
+		this.count = 0;
+		if (this.memoSize > 0) {
+			this.clearMemo();
+			this.resetMemoStat();
+		}
+	}
 
 	public boolean eof() {
 		return !(pos < length);
@@ -78,88 +128,96 @@ public class ParserContext<T extends Tree<T>> {
 
 	// AST
 
-	private enum Operation {
-		Link, Tag, Replace, New;
-	}
+	/*
+	 * The tree log is kept in two parallel arrays, logs (op, pos) and refs
+	 * (value, tree), two slots per entry. Each New entry is also pushed on
+	 * openLogs, so endTree finds the start of the node being closed without
+	 * scanning, and walks only the entries of that node.
+	 */
 
-	static class TreeLog {
-		Operation op;
-		int pos;
-		Object value;
-		Object tree;
-	}
+	private final static int Link = 0;
+	private final static int Tag = 1;
+	private final static int Replace = 2;
+	private final static int New = 3;
 
-	private TreeLog[] logs = new TreeLog[0];
+	private int[] logs = new int[0];
+	private Object[] refs = new Object[0];
 	private int unused_log = 0;
-
-	private void log2(Operation op, int pos, Object value, T tree) {
-		if (!(unused_log < logs.length)) {
-			TreeLog[] newlogs = new TreeLog[logs.length + 1024];
-			System.arraycopy(logs, 0, newlogs, 0, logs.length);
-			for (int i = logs.length; i < newlogs.length; i++) {
-				newlogs[i] = new TreeLog();
-			}
-			logs = newlogs;
+	private int[] openLogs = new int[0];
+	private int openSize = 0;
+
+	private int log2(int op) {
+		int i = unused_log * 2;
+		if (!(i < logs.length)) {
+			int size = Math.max(512, logs.length * 2);
+			logs = Arrays.copyOf(logs, size);
+			refs = Arrays.copyOf(refs, size);
 		}
-		TreeLog l = logs[unused_log];
-		l.op = op;
-		l.pos = pos;
-		l.value = value;
-		l.tree = tree;
+		logs[i] = op;
 		this.unused_log++;
+		return i;
+	}
+
+	/* New entries keep no refs; Tag and Replace keep no tree */
+
+	private void logNew(int pos) {
+		if (openSize == openLogs.length) {
+			openLogs = Arrays.copyOf(openLogs, Math.max(64, openSize * 2));
+		}
+		openLogs[openSize++] = unused_log;
+		int i = log2(New);
+		logs[i + 1] = pos;
+	}
+
+	private void logLink(Symbol label, T tree) {
+		int i = log2(Link);
+		refs[i] = label;
+		refs[i + 1] = tree;
 	}
 
 	public final void beginTree(int shift) {
-		log2(Operation.New, pos + shift, null, null);
+		logNew(pos + shift);
 	}
 
 	public final void linkTree(T parent, Symbol label) {
-		log2(Operation.Link, 0, label, left);
+		logLink(label, left);
 	}
 
 	public final void tagTree(Symbol tag) {
-		log2(Operation.Tag, 0, tag, null);
+		int i = log2(Tag);
+		refs[i] = tag;
 	}
 
 	public final void valueTree(String value) {
-		log2(Operation.Replace, 0, value, null);
+		int i = log2(Replace);
+		refs[i] = value;
 	}
 
 	public final void foldTree(int shift, Symbol label) {
-		log2(Operation.New, pos + shift, null, null);
-		log2(Operation.Link, 0, label, left);
+		logNew(pos + shift);
+		logLink(label, left);
 	}
 
 	public final void endTree(int shift, Symbol tag, String value) {
+		int start_index = openLogs[--openSize];
+		int end = unused_log * 2;
 		int objectSize = 0;
-		TreeLog start = null;
-		int start_index = 0;
-		for (int i = unused_log - 1; i >= 0; i--) {
-			TreeLog l = logs[i];
-			if (l.op == Operation.Link) {
+		for (int i = end - 2; i > start_index * 2; i -= 2) {
+			int op = logs[i];
+			if (op == Link) {
 				objectSize++;
-				continue;
-			}
-			if (l.op == Operation.New) {
-				start = l;
-				start_index = i;
-				break;
-			}
-			if (l.op == Operation.Tag && tag == null) {
-				tag = (Symbol) l.value;
-			}
-			if (l.op == Operation.Replace && value == null) {
-				value = (String) l.value;
+			} else if (op == Tag && tag == null) {
+				tag = (Symbol) refs[i];
+			} else if (op == Replace && value == null) {
+				value = (String) refs[i];
 			}
 		}
-		left = newTree(tag, start.pos, (pos + shift), objectSize, value);
+		left = newTree(tag, logs[start_index * 2 + 1], (pos + shift), objectSize, value);
 		if (objectSize > 0) {
 			int n = 0;
-			for (int j = start_index; j < unused_log; j++) {
-				TreeLog l = logs[j];
-				if (l.op == Operation.Link) {
-					left.link(n++, (Symbol) l.value, l.tree);
-					l.tree = null;
+			for (int j = start_index * 2 + 2; j < end; j += 2) {
+				if (logs[j] == Link) {
+					left.link(n++, (Symbol) refs[j], refs[j + 1]);
 				}
 			}
 		}
@@ -179,7 +237,11 @@ public class ParserContext<T extends Tree<T>> {
 
 	public final void backLog(int log) {
 		if (this.unused_log > log) {
+			Arrays.fill(refs, log * 2, unused_log * 2, null); // drop the rolled back trees
 			this.unused_log = log;
+			while (openSize > 0 && openLogs[openSize - 1] >= log) {
+				openSize--;
+			}
 		}
 	}
 
@@ -411,149 +473,450 @@ public class ParserContext<T extends Tree<T>> {
 	public final static int SuccFound = 1;
 	public final static int FailFound = 2;
 
-	private static class MemoEntry<E extends Tree<E>> {
-		long key = -1;
-		public int consumed;
-		public E memoTree;
-		public int result;
-		public int stateValue = 0;
-	}
+	/*
+	 * The memo table is a struct of arrays, one slot per index: key, consumed
+	 * length, result and state value, plus the memoized tree only once a
+	 * non-null tree is stored. With an off-heap buffer (recognition only), a slot is a
+	 * 24-byte record [key:8 consumed:4 state:4 result:1]. The table is
+	 * direct-mapped (memoWays == 1) or set-associative, with LRU or CLOCK
+	 * replacement within a set.
+	 */
+
+	private final static int SlotBytes = 24;
+
+	private int memoSize = 0;
+	private long[] memoKey = null;
+	private int[] memoConsumed = null;
+	private int[] memoState = null;
+	private byte[] memoResult = null;
+	private Object[] memoTree = null;
+	private ByteBuffer memoBuffer = null;
 
-	private MemoEntry<T>[] memoArray = null;
 	private int shift = 0;
+	private int memoPoints = 0;
+	private int memoWays = 1;
+	private int memoSetMask = 0;
+	private boolean memoClock = false;
+	private long[] memoStamp = null; // LRU
+	private long memoTick = 0;
+	private boolean[] memoRef = null; // CLOCK
+	private int[] memoHand = null;
+
+	private int memoLookup = 0;
+	private int memoHit = 0;
+	private int memoStored = 0;
+	private int memoEvicted = 0;
+	private int memoInvalidated = 0;
 
-	@SuppressWarnings("unchecked")
 	public void initMemoTable(int w, int n) {
-		this.memoArray = new MemoEntry[w * n + 1];
-		for (int i = 0; i < this.memoArray.length; i++) {
-			this.memoArray[i] = new MemoEntry<T>();
-			this.memoArray[i].key = -1;
-			this.memoArray[i].result = NotFound;
+		initMemoTable(w, n, 1, "LRU", false);
+	}
+
+	public void initMemoTable(int w, int n, int ways, String policy) {
+		initMemoTable(w, n, ways, policy, false);
+	}
+
+	public void initMemoTable(int w, int n, int ways, String policy, boolean offheap) {
+		initMemoTable(w, n, ways, policy, offheap, false);
+	}
+
+	public void initMemoTable(int w, int n, int ways, String policy, boolean offheap, boolean adaptive) {
+		if (!adaptive) {
+			this.memoStat = null;
+		} else if (this.memoStat == null || this.memoStat.size() != n) {
+			this.memoStat = new MemoStat(n); // kept over the inputs parsed with this context
+		}
+		int size = w * n + 1;
+		boolean clock = "CLOCK".equalsIgnoreCase(policy);
+		ways = ways > 1 ? ways : 1;
+		if (ways > 1) {
+			int sets = Integer.highestOneBit(Math.max(size / ways, 1) * 2 - 1);
+			this.memoSetMask = sets - 1;
+			size = sets * ways;
 		}
 		this.shift = (int) (Math.log(n) / Math.log(2.0)) + 1;
-		// this.initStat();
+		this.memoPoints = n;
+		if (this.memoSize == size && this.memoWays == ways && this.memoClock == clock && (this.memoBuffer != null) == offheap) {
+			return; // cleared by reset()
+		}
+		this.memoSize = size;
+		this.memoWays = ways;
+		this.memoClock = clock;
+		this.memoTree = null;
+		if (offheap) {
+			this.memoBuffer = ByteBuffer.allocateDirect(size * SlotBytes).order(ByteOrder.nativeOrder());
+			this.memoKey = null;
+			this.memoConsumed = null;
+			this.memoState = null;
+			this.memoResult = null;
+		} else {
+			this.memoBuffer = null;
+			this.memoKey = new long[size];
+			this.memoConsumed = new int[size];
+			this.memoState = new int[size];
+			this.memoResult = new byte[size];
+		}
+		this.memoStamp = (ways > 1 && !clock) ? new long[size] : null;
+		this.memoRef = (ways > 1 && clock) ? new boolean[size] : null;
+		this.memoHand = (ways > 1 && clock) ? new int[memoSetMask + 1] : null;
+		this.clearMemo();
+	}
+
+	private void clearMemo() {
+		if (memoBuffer != null) {
+			for (int i = 0; i < memoSize; i++) {
+				memoBuffer.putLong(i * SlotBytes, -1L);
+			}
+		} else {
+			Arrays.fill(memoKey, -1L);
+		}
+		if (memoTree != null) {
+			Arrays.fill(memoTree, null);
+		}
+	}
+
+	private void resetMemoStat() {
+		this.memoLookup = 0;
+		this.memoHit = 0;
+		this.memoStored = 0;
+		this.memoEvicted = 0;
+		this.memoInvalidated = 0;
+	}
+
+	public final void recordMemo(ParserProfiler rec) {
+		assert memoBuffer == null || memoTree == null : "trees are memoized off-heap";
+		String type = memoWays == 1 ? "DirectMapped" : memoWays + "Way" + (memoClock ? "CLOCK" : "LRU");
+		MemoTable.record(rec, memoBuffer != null ? type + "OffHeap" : type, memoStored, memoLookup, memoHit, memoInvalidated, memoEvicted);
+	}
+
+	/* +MemoAdaptive */
+
+	private MemoStat memoStat = null;
+
+	public final MemoStat getMemoStat() {
+		return this.memoStat;
+	}
+
+	private void missMemo(int memoPoint) {
+		memoStat.miss(memoPoint);
+		if (memoStat.checkDeactivation(memoPoint)) {
+			memoStat.deactivate(memoPoint);
+		}
+	}
+
+	private void hitMemo(int memoPoint, int i) {
+		if (resultAt(i) == SuccFound) {
+			memoStat.memoHit(memoPoint, consumedAt(i));
+		} else {
+			memoStat.failHit(memoPoint);
+		}
+	}
+
+	private boolean isBypassed(int memoPoint) {
+		return memoStat != null && !memoStat.isActive(memoPoint);
+	}
+
+	public final int getMemoLookupCount() {
+		return this.memoLookup;
+	}
+
+	public final int getMemoHitCount() {
+		return this.memoHit;
+	}
+
+	public final int getMemoStoredCount() {
+		return this.memoStored;
+	}
+
+	public final int getMemoEvictedCount() {
+		return this.memoEvicted;
+	}
+
+	public final boolean hasMemoTree() {
+		return this.memoTree != null;
+	}
+
+	/* slot accessors */
+
+	private long keyAt(int i) {
+		return memoBuffer != null ? memoBuffer.getLong(i * SlotBytes) : memoKey[i];
+	}
+
+	private int consumedAt(int i) {
+		return memoBuffer != null ? memoBuffer.getInt(i * SlotBytes + 8) : memoConsumed[i];
+	}
+
+	private int stateAt(int i) {
+		return memoBuffer != null ? memoBuffer.getInt(i * SlotBytes + 12) : memoState[i];
+	}
+
+	private int resultAt(int i) {
+		return memoBuffer != null ? memoBuffer.get(i * SlotBytes + 16) : memoResult[i];
+	}
+
+	@SuppressWarnings("unchecked")
+	private T treeAt(int i) {
+		return memoTree != null ? (T) memoTree[i] : null;
+	}
+
+	private void setSlot(int i, long key, int consumed, int result, int stateValue) {
+		if (memoBuffer != null) {
+			int offset = i * SlotBytes;
+			memoBuffer.putLong(offset, key);
+			memoBuffer.putInt(offset + 8, consumed);
+			memoBuffer.putInt(offset + 12, stateValue);
+			memoBuffer.put(offset + 16, (byte) result);
+		} else {
+			memoKey[i] = key;
+			memoConsumed[i] = consumed;
+			memoState[i] = stateValue;
+			memoResult[i] = (byte) result;
+		}
+	}
+
+	/* only tree memo points keep a tree; the others never allocate memoTree */
+
+	private void setTree(int i, T tree) {
+		if (memoTree == null) {
+			if (tree == null) {
+				return;
+			}
+			memoTree = new Object[memoSize];
+		}
+		memoTree[i] = tree;
+	}
+
+	private void clearTree(int i) {
+		if (memoTree != null) {
+			memoTree[i] = null;
+		}
 	}
 
 	final long longkey(long pos, int memoPoint, int shift) {
 		return ((pos << shift) | memoPoint) & Long.MAX_VALUE;
 	}
 
+	/*
+	 * The low shift bits of a key are the memo point, so a set is picked by
+	 * pos * n + memoPoint. A window of positions then fills all the sets.
+	 */
+
+	private int memoSet(long key) {
+		return (int) (((key >>> shift) * memoPoints + (key & ((1L << shift) - 1))) & memoSetMask);
+	}
+
+	private int findMemo(long key) {
+		this.memoLookup++;
+		if (memoWays == 1) {
+			int i = (int) (key % memoSize);
+			return keyAt(i) == key ? i : -1;
+		}
+		int base = memoSet(key) * memoWays;
+		for (int i = base; i < base + memoWays; i++) {
+			if (keyAt(i) == key) {
+				touchMemo(i);
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int storeMemo(long key) {
+		this.memoStored++;
+		int i = memoWays == 1 ? (int) (key % memoSize) : victimMemo(key);
+		long k = keyAt(i);
+		if (k != -1 && k != key) {
+			this.memoEvicted++;
+		}
+		return i;
+	}
+
+	private int victimMemo(long key) {
+		int set = memoSet(key);
+		int base = set * memoWays;
+		for (int i = base; i < base + memoWays; i++) {
+			long k = keyAt(i);
+			if (k == key || k == -1) {
+				touchMemo(i);
+				return i;
+			}
+		}
+		if (memoClock) {
+			while (true) {
+				int i = base + memoHand[set];
+				memoHand[set] = (memoHand[set] + 1) % memoWays;
+				if (!memoRef[i]) {
+					memoRef[i] = true;
+					return i;
+				}
+				memoRef[i] = false;
+			}
+		}
+		int victim = base;
+		for (int i = base + 1; i < base + memoWays; i++) {
+			if (memoStamp[i] < memoStamp[victim]) {
+				victim = i;
+			}
+		}
+		memoStamp[victim] = ++memoTick;
+		return victim;
+	}
+
+	private void touchMemo(int i) {
+		if (memoClock) {
+			memoRef[i] = true;
+		} else {
+			memoStamp[i] = ++memoTick;
+		}
+	}
+
 	public final int lookupMemo(int memoPoint) {
-		long key = longkey(pos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		if (m.key == key) {
-			this.pos += m.consumed;
-			return m.result;
+		if (memoStat != null && memoStat.bypass(memoPoint)) {
+			return NotFound;
+		}
+		int i = findMemo(longkey(pos, memoPoint, shift));
+		if (i >= 0) {
+			this.memoHit++;
+			if (memoStat != null) {
+				hitMemo(memoPoint, i);
+			}
+			this.pos += consumedAt(i);
+			return resultAt(i);
+		}
+		if (memoStat != null) {
+			missMemo(memoPoint);
 		}
 		return NotFound;
 	}
 
 	public final int lookupTreeMemo(int memoPoint) {
-		long key = longkey(pos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		if (m.key == key) {
-			this.pos += m.consumed;
-			this.left = m.memoTree;
-			return m.result;
+		if (memoStat != null && memoStat.bypass(memoPoint)) {
+			return NotFound;
+		}
+		int i = findMemo(longkey(pos, memoPoint, shift));
+		if (i >= 0) {
+			this.memoHit++;
+			if (memoStat != null) {
+				hitMemo(memoPoint, i);
+			}
+			this.pos += consumedAt(i);
+			int r = resultAt(i);
+			if (r == SuccFound) {
+				this.left = treeAt(i);
+			}
+			return r;
+		}
+		if (memoStat != null) {
+			missMemo(memoPoint);
 		}
 		return NotFound;
 	}
 
 	public void memoSucc(int memoPoint, int ppos) {
+		if (isBypassed(memoPoint)) {
+			return;
+		}
 		long key = longkey(ppos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		m.key = key;
-		m.memoTree = left;
-		m.consumed = pos - ppos;
-		m.result = SuccFound;
-		m.stateValue = -1;
-		// this.CountStored += 1;
+		int i = storeMemo(key);
+		setSlot(i, key, pos - ppos, SuccFound, -1);
+		clearTree(i);
 	}
 
 	public void memoTreeSucc(int memoPoint, int ppos) {
+		if (isBypassed(memoPoint)) {
+			return;
+		}
 		long key = longkey(ppos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		m.key = key;
-		m.memoTree = left;
-		m.consumed = pos - ppos;
-		m.result = SuccFound;
-		m.stateValue = -1;
-		// this.CountStored += 1;
+		int i = storeMemo(key);
+		setSlot(i, key, pos - ppos, SuccFound, -1);
+		setTree(i, left);
 	}
 
 	public void memoFail(int memoPoint) {
+		if (isBypassed(memoPoint)) {
+			return;
+		}
 		long key = longkey(pos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		m.key = key;
-		m.memoTree = left;
-		m.consumed = 0;
-		m.result = FailFound;
-		m.stateValue = -1;
+		int i = storeMemo(key);
+		setSlot(i, key, 0, FailFound, -1);
+		clearTree(i);
 	}
 
 	/* State Version */
 
 	public final int lookupStateMemo(int memoPoint) {
-		long key = longkey(pos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		if (m.key == key) {
-			this.pos += m.consumed;
-			return m.result;
+		if (memoStat != null && memoStat.bypass(memoPoint)) {
+			return NotFound;
+		}
+		int i = findMemo(longkey(pos, memoPoint, shift));
+		if (i >= 0) {
+			this.memoHit++;
+			if (memoStat != null) {
+				hitMemo(memoPoint, i);
+			}
+			this.pos += consumedAt(i);
+			return resultAt(i);
+		}
+		if (memoStat != null) {
+			missMemo(memoPoint);
 		}
 		return NotFound;
 	}
 
 	public final int lookupStateTreeMemo(int memoPoint) {
-		long key = longkey(pos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		if (m.key == key && m.stateValue == this.stateValue) {
-			this.pos += m.consumed;
-			this.left = m.memoTree;
-			return m.result;
+		if (memoStat != null && memoStat.bypass(memoPoint)) {
+			return NotFound;
+		}
+		int i = findMemo(longkey(pos, memoPoint, shift));
+		if (i >= 0) {
+			if (stateAt(i) == this.stateValue) {
+				this.memoHit++;
+				if (memoStat != null) {
+					hitMemo(memoPoint, i);
+				}
+				this.pos += consumedAt(i);
+				int r = resultAt(i);
+				if (r == SuccFound) {
+					this.left = treeAt(i);
+				}
+				return r;
+			}
+			this.memoInvalidated++;
+		}
+		if (memoStat != null) {
+			missMemo(memoPoint);
 		}
 		return NotFound;
 	}
 
 	public void memoStateSucc(int memoPoint, int ppos) {
+		if (isBypassed(memoPoint)) {
+			return;
+		}
 		long key = longkey(ppos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		m.key = key;
-		m.memoTree = left;
-		m.consumed = pos - ppos;
-		m.result = SuccFound;
-		m.stateValue = this.stateValue;
-		// this.CountStored += 1;
+		int i = storeMemo(key);
+		setSlot(i, key, pos - ppos, SuccFound, this.stateValue);
+		clearTree(i);
 	}
 
 	public void memoStateTreeSucc(int memoPoint, int ppos) {
+		if (isBypassed(memoPoint)) {
+			return;
+		}
 		long key = longkey(ppos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		m.key = key;
-		m.memoTree = left;
-		m.consumed = pos - ppos;
-		m.result = SuccFound;
-		m.stateValue = this.stateValue;
-		// this.CountStored += 1;
+		int i = storeMemo(key);
+		setSlot(i, key, pos - ppos, SuccFound, this.stateValue);
+		setTree(i, left);
 	}
 
 	public void memoStateFail(int memoPoint) {
+		if (isBypassed(memoPoint)) {
+			return;
+		}
 		long key = longkey(pos, memoPoint, shift);
-		int hash = (int) (key % memoArray.length);
-		MemoEntry<T> m = this.memoArray[hash];
-		m.key = key;
-		m.memoTree = left;
-		m.consumed = 0;
-		m.result = FailFound;
-		m.stateValue = this.stateValue;
+		int i = storeMemo(key);
+		setSlot(i, key, 0, FailFound, this.stateValue);
+		clearTree(i);
 	}
 
 }
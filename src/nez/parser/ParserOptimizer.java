@@ -1,7 +1,10 @@
 package nez.parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,26 +33,45 @@ public class ParserOptimizer {
 
 	Grammar grammar;
 	ParserStrategy strategy;
+	final LinkedHashMap<String, String> entryMap = new LinkedHashMap<>();
 
 	public Grammar optimize(Production start, ParserStrategy strategy, TreeMap<String, Boolean> boolMap) {
+		return optimize(Arrays.asList(start), strategy, boolMap);
+	}
+
+	/**
+	 * Optimizes the productions reachable from the starts into one grammar,
+	 * whose start production is the first start. Every start is kept as a
+	 * production, so that it can be an entry point of the compiled code.
+	 */
+
+	public Grammar optimize(List<Production> starts, ParserStrategy strategy, TreeMap<String, Boolean> boolMap) {
 		this.strategy = strategy;
 		this.grammar = new Grammar();
 
 		long t1 = System.nanoTime();
-		new CheckerVisitor().check(start, boolMap);
+		new CheckerVisitor().check(starts, boolMap);
 		// grammar.dump();
 		long t2 = System.nanoTime();
 		if (strategy.Optimization) {
 			// Verbose.println("optimizing %s ..", strategy);
 			new OptimizerVisitor().optimize();
 		}
-		new NormalizerVisitor().perform();
 		long t3 = System.nanoTime();
+		new NormalizerVisitor().perform();
+		long t4 = System.nanoTime();
 		Verbose.printElapsedTime("Grammar checking time", t1, t2);
 		Verbose.printElapsedTime("Optimization time", t2, t3);
+		Verbose.printElapsedTime("Normalization", t3, t4);
 		return grammar;
 	}
 
+	/* start production name to its unique name in the optimized grammar */
+
+	public final Map<String, String> getEntryNames() {
+		return this.entryMap;
+	}
+
 	/* Consumed */
 
 	private final ByteConsumption consumed = new ByteConsumption();
@@ -82,8 +104,15 @@ public class ParserOptimizer {
 	static class Conditions extends TreeMap<String, Boolean> {
 
 		public final static Conditions newConditions(Production start, Map<String, Boolean> inits, boolean defaultTrue) {
+			return newConditions(Arrays.asList(start), inits, defaultTrue);
+		}
+
+		public final static Conditions newConditions(List<Production> starts, Map<String, Boolean> inits, boolean defaultTrue) {
 			Conditions conds = new Conditions();
-			Set<String> s = retriveConditionSet(start);
+			Set<String> s = new TreeSet<>();
+			for (Production start : starts) {
+				s.addAll(retriveConditionSet(start));
+			}
 			for (String c : s) {
 				if (inits != null && inits.containsKey(c)) {
 					conds.put(c, inits.get(c));
@@ -234,14 +263,19 @@ public class ParserOptimizer {
 			return this.conds.get(flag);
 		}
 
-		final void check(Production start, TreeMap<String, Boolean> boolMap) {
-			this.conds = Conditions.newConditions(start, boolMap, strategy.DefaultCondition);
+		final void check(List<Production> starts, TreeMap<String, Boolean> boolMap) {
+			this.conds = Conditions.newConditions(starts, boolMap, strategy.DefaultCondition);
 			if (!strategy.TreeConstruction) {
 				this.enterNoTreeConstruction();
 			}
-			String uname = conds.conditionalName(start, isNoTreeConstruction());
-			// String uname = uniqueName(start.getUniqueName(), start);
-			this.checkFirstVisitedProduction(uname, start); // start
+			for (Production start : starts) {
+				String uname = conds.conditionalName(start, isNoTreeConstruction());
+				// String uname = uniqueName(start.getUniqueName(), start);
+				if (!this.isVisited(uname)) {
+					this.checkFirstVisitedProduction(uname, start); // start
+				}
+				entryMap.put(start.getLocalName(), grammar.getProduction(uname).getUniqueName());
+			}
 		}
 
 		private final Expression visitExpression(Expression e) {
@@ -640,9 +674,12 @@ public class ParserOptimizer {
 
 		void optimize() {
 			long t1 = System.nanoTime();
-			refc = Productions.countNonterminalReference(grammar);
-			Production start = grammar.getStartProduction();
-			optimizeProduction(start);
+			refc = Productions.countNonterminalReference(grammar, entryMap.values());
+			for (Production p : grammar.toArray(new Production[grammar.size()])) {
+				if (entryMap.containsValue(p.getUniqueName())) {
+					optimizeProduction(p);
+				}
+			}
 			long t2 = System.nanoTime();
 			Verbose.printElapsedTime("Lexical Optimization", t1, t2);
 
@@ -650,9 +687,9 @@ public class ParserOptimizer {
 				t1 = t2;
 				optimizeChoicePrediction();
 				t2 = System.nanoTime();
-				Verbose.printElapsedTime("Prediction", t2, t2);
+				Verbose.printElapsedTime("Prediction", t1, t2);
 			}
-			NonterminalReference refc2 = Productions.countNonterminalReference(grammar);
+			NonterminalReference refc2 = Productions.countNonterminalReference(grammar, entryMap.values());
 			UList<Production> prodList = new UList<Production>(new Production[grammar.size()]);
 			for (Production p : grammar) {
 				String uname = p.getUniqueName();
@@ -929,8 +966,19 @@ public class ParserOptimizer {
 
 		/* Choice Prediction */
 
+		private ByteAcceptance.Analyzer acceptance;
+
+		/*
+		 * The acceptance of every production is computed in parallel before
+		 * the choices are rewritten, which keeps the acceptance of each byte.
+		 */
+
 		private void optimizeChoicePrediction() {
-			NonterminalReference refc = Productions.countNonterminalReference(grammar);
+			acceptance = ByteAcceptance.newMemoizedAnalyzer();
+			long t1 = System.nanoTime();
+			Arrays.stream(grammar.toArray(new Production[grammar.size()])).parallel().forEach(acceptance::accept);
+			Verbose.printElapsedTime("ByteAcceptance", t1, System.nanoTime());
+			NonterminalReference refc = Productions.countNonterminalReference(grammar, entryMap.values());
 			for (Production p : grammar) {
 				if (refc.count(p.getUniqueName()) > 1) {
 					optimizeChoicePrediction(p.getExpression());
@@ -956,9 +1004,9 @@ public class ParserOptimizer {
 		}
 
 		UList<Expression> bufferList = Expressions.newUList(256);
-		HashMap<String, Expression> bufferMap = new HashMap<>();
+		HashMap<BitSet, Expression> bufferMap = new HashMap<>();
 		ArrayList<Expression> uniqueList = new ArrayList<>();
-		HashMap<String, Byte> bufferIndex = new HashMap<>();
+		HashMap<BitSet, Byte> bufferIndex = new HashMap<>();
 
 		private void optimizeChoicePrediction(Nez.Choice choice) {
 			Nez.ChoicePrediction p = new Nez.ChoicePrediction();
@@ -970,10 +1018,23 @@ public class ParserOptimizer {
 			bufferIndex.clear();
 
 			byte[] indexMap = new byte[256];
+			/* the alternatives that may accept each byte */
+			BitSet[] accepted = new BitSet[255];
+			for (int ch = 0; ch < 255; ch++) {
+				accepted[ch] = new BitSet(choice.size());
+			}
+			for (int i = 0; i < choice.size(); i++) {
+				Expression sub = choice.get(i);
+				for (int ch = 0; ch < 255; ch++) {
+					if (acceptance.accept(sub, ch) != ByteAcceptance.Reject) {
+						accepted[ch].set(i);
+					}
+				}
+			}
 			int count = 0;
 			int selected = 0;
 			for (int ch = 0; ch < 255; ch++) {
-				Expression predicted = selectPredictedChoice(choice, ch, indexMap);
+				Expression predicted = selectPredictedChoice(choice, ch, indexMap, accepted[ch]);
 				if (predicted != null) {
 					count++;
 					if (predicted instanceof Nez.Choice) {
@@ -996,19 +1057,8 @@ public class ParserOptimizer {
 
 		}
 
-		private Expression selectPredictedChoice(Nez.Choice choice, int ch, byte[] indexMap) {
-			StringBuilder sb = new StringBuilder();
-			for (int i = 0; i < choice.size(); i++) {
-				Expression p = choice.get(i);
-				ByteAcceptance acc = ByteAcceptance.acc(p, ch);
-				if (acc == ByteAcceptance.Reject) {
-					continue;
-				}
-				sb.append(':');
-				sb.append(i);
-			}
-			String key = sb.toString();
-			if (key.length() == 0) {
+		private Expression selectPredictedChoice(Nez.Choice choice, int ch, byte[] indexMap, BitSet key) {
+			if (key.isEmpty()) {
 				indexMap[ch] = 0;
 				return null; // empty
 			}
@@ -1018,11 +1068,8 @@ public class ParserOptimizer {
 				return bufferMap.get(key);
 			}
 			// boolean commonFactored = false;
-			for (Expression sub : choice) {
-				ByteAcceptance acc = ByteAcceptance.acc(sub, ch);
-				if (acc == ByteAcceptance.Reject) {
-					continue;
-				}
+			for (int i = key.nextSetBit(0); i >= 0; i = key.nextSetBit(i + 1)) {
+				Expression sub = choice.get(i);
 				if (bufferList.size() > 0) {
 					int prev = bufferList.size() - 1;
 					Expression last = bufferList.ArrayValues[prev];
@@ -1131,7 +1178,7 @@ public class ParserOptimizer {
 	class NormalizerVisitor extends Expression.TransformVisitor {
 
 		void perform() {
-			NonterminalReference refCounts = Productions.countNonterminalReference(grammar);
+			NonterminalReference refCounts = Productions.countNonterminalReference(grammar, entryMap.values());
 			UList<Production> prodList = new UList<Production>(new Production[grammar.size()]);
 			for (Production p : grammar) {
 				if (refCounts.count(p.getUniqueName()) > 0) {
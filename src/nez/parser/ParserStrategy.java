@@ -32,6 +32,7 @@ public class ParserStrategy {
 	public boolean Ostring = true;
 	public int Prediction = 2;
 	public boolean Odfa = false;
+	public boolean Ojit = false;
 
 	public boolean Oorder = true;
 	public boolean Detree = false;
@@ -44,10 +45,18 @@ public class ParserStrategy {
 	public double TreeFactor = 3.00;
 	public double MemoLimit = 0.5;
 	public boolean StatefulPackratParsing = false;
+	public int MemoWays = 1; // 1: direct-mapped, 2/4/8: set-associative
+	public String MemoPolicy = "LRU"; // LRU or CLOCK
+	public boolean MemoOffHeap = false; // direct ByteBuffer, without trees
+	public boolean MemoAdaptive = false; // bypass memo points that do not pay off
+	public String MemoPlan = null; // memo points, as A,B,C printed by nez memoplan
+
+	/* Compiled code cache (directory) */
+	public String MozCache = null;
 
 	/* Generator */
 	public boolean VerboseCode = true;
-	public boolean SSE = false;
+	public boolean SSE = false; // cnez: SSE4.2, Moz86: RByte/RSet 8 bytes at a time
 
 	/* Profiling */
 	public boolean Coverage = false;
@@ -250,7 +259,7 @@ public class ParserStrategy {
 	}
 
 	public ParserInstance newParserContext(Source source, int memoPointSize, Tree<?> prototype) {
-		MemoTable table = MemoTable.newTable(this.SlidingWindow, memoPointSize);
+		MemoTable table = MemoTable.newTable(this.SlidingWindow, memoPointSize, this.MemoWays, this.MemoPolicy);
 		MozMachine machine = new MozMachine(source);
 		machine.init(table, prototype);
 		return new ParserInstance(source, machine);
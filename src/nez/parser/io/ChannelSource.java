@@ -0,0 +1,223 @@
+package nez.parser.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.function.LongSupplier;
+
+import nez.util.StringUtils;
+import nez.util.Verbose;
+
+/**
+ * ChannelSource reads a pipe, socket or any ReadableByteChannel on demand. It
+ * buffers the input from the oldest position that may still be read to the
+ * current head, and grows the buffer only when that window is full. The
+ * oldest position is the one given by releaseBefore() or, while matching,
+ * the oldest live backtrack point reported by the parser. Parser.parse()
+ * keeps the whole input, since its tree may read any part of it. Reading a
+ * released position is an IllegalStateException.
+ *
+ * length() is the number of bytes read so far; it is exact once the end of
+ * the stream is reached. The channel must be in blocking mode, since the
+ * parser waits for each byte it reads.
+ */
+
+public class ChannelSource extends CommonSource {
+	public final static int DefaultBufferSize = 64 * 1024;
+	private final static int Margin = 4096; // kept for error messages
+
+	private final ReadableByteChannel channel;
+	private byte[] buffer;
+	private long base = 0;
+	private int filled = 0;
+	private boolean eof = false;
+	private long released = 0;
+	private long baseLinenum;
+	private LongSupplier backtrackPoint = null;
+
+	public ChannelSource(String resourceName, ReadableByteChannel channel) {
+		super(resourceName, 1);
+		if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+			throw new IllegalArgumentException("non-blocking channel: " + resourceName);
+		}
+		this.channel = channel;
+		this.buffer = new byte[DefaultBufferSize];
+		this.baseLinenum = this.startLineNum;
+	}
+
+	public ChannelSource(String resourceName, InputStream in) {
+		this(resourceName, Channels.newChannel(in));
+	}
+
+	/**
+	 * Sets the oldest position that a running parser may still read (or -1
+	 * if unknown); null when the parser keeps the whole input alive.
+	 */
+
+	public final void setBacktrackPoint(LongSupplier backtrackPoint) {
+		this.backtrackPoint = backtrackPoint;
+	}
+
+	@Override
+	public final void releaseBefore(long pos) {
+		if (pos > this.released) {
+			this.released = pos;
+		}
+	}
+
+	private boolean fill() {
+		if (eof) {
+			return false;
+		}
+		if (filled == buffer.length) {
+			slide();
+		}
+		try {
+			int n = channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+			if (n < 0) {
+				eof = true;
+				channel.close();
+				return false;
+			}
+			filled += n;
+			return true;
+		} catch (IOException e) {
+			Verbose.traceException(e);
+			eof = true;
+			return false;
+		}
+	}
+
+	private void slide() {
+		long keep = this.released;
+		if (backtrackPoint != null) {
+			long p = backtrackPoint.getAsLong();
+			if (p >= 0 && p > keep) {
+				keep = p;
+			}
+		}
+		keep -= Margin;
+		int shift = keep > base ? (int) Math.min(keep - base, filled) : 0;
+		if (shift >= buffer.length / 2) {
+			for (int i = 0; i < shift; i++) {
+				if (buffer[i] == '\n') {
+					baseLinenum++;
+				}
+			}
+			System.arraycopy(buffer, shift, buffer, 0, filled - shift);
+			base += shift;
+			filled -= shift;
+		} else {
+			byte[] newbuf = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, newbuf, 0, filled);
+			buffer = newbuf;
+		}
+	}
+
+	private boolean ensure(long pos) {
+		if (pos < base) {
+			throw new IllegalStateException("released position " + pos + " < " + base + " in " + getResourceName());
+		}
+		while (pos >= base + filled) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public final long length() {
+		return base + filled;
+	}
+
+	@Override
+	public final int byteAt(long pos) {
+		long i = pos - base;
+		if (i >= 0 && i < filled) {
+			return buffer[(int) i] & 0xff;
+		}
+		return ensure(pos) ? buffer[(int) (pos - base)] & 0xff : 0;
+	}
+
+	@Override
+	public final boolean eof(long pos) {
+		return !(pos - base < filled) && !ensure(pos);
+	}
+
+	@Override
+	public final boolean match(long pos, byte[] text) {
+		if (text.length == 0) {
+			return true;
+		}
+		if (!ensure(pos + text.length - 1)) {
+			return false;
+		}
+		int offset = (int) (pos - base);
+		for (int i = 0; i < text.length; i++) {
+			if (text[i] != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public final String subString(long startIndex, long endIndex) {
+		try {
+			return new String(subByte(startIndex, endIndex), StringUtils.DefaultEncoding);
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return "";
+	}
+
+	@Override
+	public final byte[] subByte(long startIndex, long endIndex) {
+		if (!(endIndex > startIndex)) {
+			return new byte[0];
+		}
+		ensure(endIndex - 1);
+		ensure(startIndex);
+		if (endIndex > base + filled) {
+			endIndex = base + filled;
+		}
+		byte[] b = new byte[(int) (endIndex - startIndex)];
+		System.arraycopy(buffer, (int) (startIndex - base), b, 0, b.length);
+		return b;
+	}
+
+	/* counted back to the start of the buffer at most */
+
+	@Override
+	public final int column(long pos) {
+		int count = 0;
+		for (long p = pos - 1; p >= base; p--) {
+			if (this.byteAt(p) == '\n') {
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public final long linenum(long pos) {
+		if (pos < base) {
+			return baseLinenum;
+		}
+		ensure(pos);
+		long count = baseLinenum;
+		int end = (int) Math.min(pos - base, filled);
+		for (int i = 0; i < end; i++) {
+			if (buffer[i] == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+}
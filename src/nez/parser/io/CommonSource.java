@@ -47,13 +47,31 @@ public abstract class CommonSource implements Source {
 	@Override
 	public abstract long linenum(long pos);
 
+	/**
+	 * Tells the source that no position before pos will be read again, so
+	 * that a streaming source can drop its buffer behind pos.
+	 */
+
+	public void releaseBefore(long pos) {
+	}
+
+	/**
+	 * Tells the source that it will not be read again, so that a mapped file
+	 * can drop its mappings. Trees parsed from the source can no longer read
+	 * their text.
+	 */
+
+	public void close() {
+	}
+
 	@Override
-	public final int column(long pos) {
+	public int column(long pos) {
 		int count = 0;
 		for (long p = pos - 1; p >= 0; p--) {
-			if (this.byteAt(pos) == '\n') {
+			if (this.byteAt(p) == '\n') {
 				break;
 			}
+			count++;
 		}
 		return count;
 	}
@@ -184,8 +202,16 @@ public abstract class CommonSource implements Source {
 		return new StringSource(resource, linenum, str);
 	}
 
+	/**
+	 * Files at least this large are memory-mapped by newFileSource.
+	 */
+	public final static long MappedFileThreshold = 1L << 20;
+
 	public final static Source newFileSource(String fileName) throws IOException {
 		File f = new File(fileName);
+		if (f.isFile() && f.length() >= MappedFileThreshold) {
+			return new MappedFileSource(fileName);
+		}
 		if (!f.isFile()) {
 			InputStream Stream = CommonSource.class.getResourceAsStream("/nez/lib/" + fileName);
 			if (Stream != null) {
@@ -0,0 +1,202 @@
+package nez.parser.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import nez.util.StringUtils;
+import nez.util.Verbose;
+
+/**
+ * MappedFileSource reads a file through FileChannel.map. Files larger than
+ * 1 GiB are mapped in several chunks; reads that straddle two chunks fall
+ * back to byteAt. The mapping is read-only, so the source is safe to read
+ * from several threads. close() drops the chunks, so that the mappings can
+ * be released without waiting for the source itself to be collected; reading
+ * a closed source is an IllegalStateException.
+ */
+
+public class MappedFileSource extends CommonSource {
+	private final static int ChunkBits = 30;
+	public final static long ChunkSize = 1L << ChunkBits;
+	private final static int ChunkMask = (int) (ChunkSize - 1);
+
+	private final long fileLength;
+	private MappedByteBuffer[] chunks;
+	private MappedByteBuffer first;
+
+	public MappedFileSource(String fileName) throws IOException {
+		super(fileName, 1);
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()) {
+			this.fileLength = channel.size();
+			int n = (int) ((fileLength + ChunkSize - 1) >>> ChunkBits);
+			this.chunks = new MappedByteBuffer[Math.max(n, 1)];
+			for (int i = 0; i < n; i++) {
+				long offset = i * ChunkSize;
+				this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(ChunkSize, fileLength - offset));
+			}
+			if (n == 0) {
+				this.chunks[0] = channel.map(FileChannel.MapMode.READ_ONLY, 0, 0);
+			}
+			this.first = this.chunks[0];
+		} catch (IOException e) {
+			Verbose.traceException(e);
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	@Override
+	public final void close() {
+		this.chunks = null;
+		this.first = null;
+	}
+
+	private MappedByteBuffer chunk(long pos) {
+		MappedByteBuffer[] chunks = this.chunks;
+		if (chunks == null) {
+			throw closed();
+		}
+		return chunks[(int) (pos >>> ChunkBits)];
+	}
+
+	private IllegalStateException closed() {
+		return new IllegalStateException("closed " + this.getResourceName());
+	}
+
+	@Override
+	public final long length() {
+		return this.fileLength;
+	}
+
+	@Override
+	public final int byteAt(long pos) {
+		if (pos < ChunkSize) {
+			MappedByteBuffer first = this.first;
+			if (first == null) {
+				throw closed();
+			}
+			return pos < fileLength ? first.get((int) pos) & 0xff : 0;
+		}
+		if (pos < fileLength) {
+			return chunk(pos).get((int) pos & ChunkMask) & 0xff;
+		}
+		return 0;
+	}
+
+	@Override
+	public final boolean eof(long pos) {
+		return pos >= this.fileLength;
+	}
+
+	@Override
+	public final boolean match(long pos, byte[] text) {
+		if (pos + text.length > this.fileLength) {
+			return false;
+		}
+		int offset = (int) pos & ChunkMask;
+		if (offset + text.length <= ChunkSize) {
+			ByteBuffer chunk = chunk(pos);
+			for (int i = 0; i < text.length; i++) {
+				if (text[i] != chunk.get(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for (int i = 0; i < text.length; i++) {
+			if ((text[i] & 0xff) != this.byteAt(pos + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public final String subString(long startIndex, long endIndex) {
+		if (endIndex > startIndex) {
+			try {
+				return new String(subByte(startIndex, endIndex), StringUtils.DefaultEncoding);
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+			}
+		}
+		return "";
+	}
+
+	@Override
+	public final byte[] subByte(long startIndex, long endIndex) {
+		if (endIndex > this.fileLength) {
+			endIndex = this.fileLength;
+		}
+		if (!(endIndex > startIndex)) {
+			return new byte[0];
+		}
+		byte[] b = new byte[(int) (endIndex - startIndex)];
+		int copied = 0;
+		long pos = startIndex;
+		while (copied < b.length) {
+			ByteBuffer chunk = chunk(pos).duplicate();
+			int offset = (int) pos & ChunkMask;
+			int len = (int) Math.min(b.length - copied, ChunkSize - offset);
+			((Buffer) chunk).position(offset);
+			chunk.get(b, copied, len);
+			copied += len;
+			pos += len;
+		}
+		return b;
+	}
+
+	@Override
+	public final ByteBuffer subBuffer(long startIndex, long endIndex) {
+		if (endIndex > this.fileLength) {
+			endIndex = this.fileLength;
+		}
+		if (endIndex > startIndex && (startIndex >>> ChunkBits) == ((endIndex - 1) >>> ChunkBits)) {
+			ByteBuffer chunk = chunk(startIndex).asReadOnlyBuffer();
+			int offset = (int) startIndex & ChunkMask;
+			((Buffer) chunk).limit(offset + (int) (endIndex - startIndex));
+			((Buffer) chunk).position(offset);
+			return chunk.slice();
+		}
+		return super.subBuffer(startIndex, endIndex);
+	}
+
+	/* line numbers are counted lazily per 64 KiB block */
+
+	private final static int BlockBits = 16;
+	private long[] lines = null;
+	private int countedBlocks = 0;
+
+	@Override
+	public final synchronized long linenum(long pos) {
+		if (pos > fileLength) {
+			pos = fileLength;
+		}
+		int block = (int) (pos >>> BlockBits);
+		if (lines == null) {
+			lines = new long[(int) (fileLength >>> BlockBits) + 2];
+			lines[0] = this.startLineNum;
+			countedBlocks = 0;
+		}
+		while (countedBlocks < block) {
+			long start = (long) countedBlocks << BlockBits;
+			lines[countedBlocks + 1] = lines[countedBlocks] + countLines(start, start + (1 << BlockBits));
+			countedBlocks++;
+		}
+		return lines[block] + countLines((long) block << BlockBits, pos);
+	}
+
+	private long countLines(long start, long end) {
+		long count = 0;
+		for (long p = start; p < end; p++) {
+			if (byteAt(p) == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+}
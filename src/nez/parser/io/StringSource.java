@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 import nez.ast.Source;
 import nez.util.StringUtils;
@@ -82,6 +83,11 @@ public class StringSource extends CommonSource {
 		return b;
 	}
 
+	@Override
+	public final ByteBuffer subBuffer(long startIndex, long endIndex) {
+		return ByteBuffer.wrap(this.inputs, (int) startIndex, (int) (endIndex - startIndex)).slice().asReadOnlyBuffer();
+	}
+
 	@Override
 	public final String subString(long startIndex, long endIndex) {
 		try {
@@ -245,6 +245,9 @@ class ASTMachine {
 		if (parseResult == null) {
 			parseResult = prototype.newInstance(Symbol.Null, source, startpos, (int) (endpos - startpos), 0, null);
 		}
+		if (parseResult == null && prototype instanceof EmptyTree) {
+			parseResult = prototype; // matched without trees
+		}
 		this.firstLog = null;
 		this.unusedDataLog = null;
 		if (debugMode) {
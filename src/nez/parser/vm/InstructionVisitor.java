@@ -138,4 +138,8 @@ public abstract class InstructionVisitor {
 
 	public abstract void visitTMemo(Moz86.TMemo inst);
 
+	/* Token */
+
+	public abstract void visitDfa(Moz86.Dfa inst);
+
 }
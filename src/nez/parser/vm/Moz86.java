@@ -14,7 +14,6 @@ import nez.parser.MemoEntry;
 import nez.parser.MemoPoint;
 import nez.parser.ParserCode.ProductionCode;
 import nez.parser.ParserContext;
-import nez.parser.TerminationException;
 import nez.parser.vm.MozMachine.MozStackData;
 import nez.util.StringUtils;
 
@@ -71,6 +70,7 @@ public class Moz86 {
 			{ "TLink", "label" }, //
 			{ "TFold", "shift", "label" }, //
 			{ "TEmit", "label" }, //
+			{ "TStart" }, //
 
 			// Symbol instructions
 			{ "SOpen" }, //
@@ -90,10 +90,13 @@ public class Moz86 {
 			// Memoization
 			{ "Lookup", "jump", "uid" }, //
 			{ "Memo", "uid" }, //
-			{ "FailMemo", "uid" }, //
-			{ "TLookup", "jump", "uid" }, //
+			{ "MemoFail", "uid" }, //
+			{ "TLookup", "jump", "uid", "label" }, //
 			{ "TMemo", "uid" }, //
 
+			// Token
+			{ "Dfa", "jump", "dfa" }, //
+
 	};
 
 	static HashMap<String, String[]> specMap = new HashMap<>();
@@ -117,8 +120,21 @@ public class Moz86 {
 		return insts == null ? 0 : insts.length - 1;
 	}
 
+	/* the Binary and Scan variants have the operands of their instruction */
+
+	static String specName(MozInst inst) {
+		String name = inst.getName();
+		if (name.startsWith("Binary")) {
+			return name.substring(6);
+		}
+		if (name.startsWith("Scan")) {
+			return name.substring(4);
+		}
+		return name;
+	}
+
 	static Object opValue(MozInst inst, int p) {
-		String[] insts = specMap.get(inst.getName());
+		String[] insts = specMap.get(specName(inst));
 		try {
 			Field f = inst.getClass().getField(insts[p + 1]);
 			return f.get(inst);
@@ -131,9 +147,9 @@ public class Moz86 {
 	}
 
 	static void stringfy(MozInst inst, StringBuilder sb) {
-		String name = inst.getName();
+		String name = specName(inst);
 		String[] insts = specMap.get(name);
-		sb.append(name.toLowerCase());
+		sb.append(inst.getName().toLowerCase());
 		int size = opSize(name);
 		for (int i = 0; i < size; i++) {
 			sb.append(" ");
@@ -191,18 +207,27 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return this.next;
 		}
 
 	}
 
+	/**
+	 * Exit returns null as a sentinel so that the dispatch loop stops without
+	 * throwing an exception; the loop reads the status from the last
+	 * executed instruction.
+	 */
+
 	public final static class Exit extends MozInst {
+		public final static Exit SuccExit = new Exit(true);
+		public final static Exit FailExit = new Exit(false);
+
 		public final boolean status;
 
 		public Exit(boolean status) {
@@ -216,13 +241,17 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
-			throw new TerminationException(status);
+		public MozInst execMoz(MozMachine sc) {
+			return null;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
-			throw new TerminationException(status);
+		public MozInst exec(ParserMachineContext<?> sc) {
+			return null;
+		}
+
+		public final static boolean status(MozInst last) {
+			return last instanceof Exit && ((Exit) last).status;
 		}
 	}
 
@@ -251,13 +280,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			// Coverage.enter(this.id);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			prof.countCoverage(this.uid, state);
 			return this.next;
 		}
@@ -277,12 +306,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.trap(uid);
 			return this.next;
 		}
@@ -303,14 +332,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.newUnusedStack();
 			s.value = sc.getPosition();
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xPos();
 			return this.next;
 		}
@@ -332,14 +361,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.popStack();
 			sc.setPosition(s.value);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xBack();
 			return this.next;
 		}
@@ -365,13 +394,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			sc.consume(this.shift);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.move(this.shift);
 			return this.next;
 		}
@@ -392,12 +421,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return this.jump;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return this.jump;
 		}
 
@@ -444,14 +473,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.newUnusedStack();
 			s.ref = this.jump;
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xCall(name, jump);
 			return this.next;
 		}
@@ -477,13 +506,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.popStack();
 			return (MozInst) s.ref;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.xRet();
 		}
 
@@ -491,15 +520,23 @@ public class Moz86 {
 
 	public final static class Alt extends MozInst {
 		public final MozInst jump;
+		private final Expression e; // the alternative that may fail
 
 		public Alt(Expression e, MozInst failjump, MozInst next) {
 			super(MozSet.Alt, e, next);
 			this.jump = joinPoint(failjump);
+			this.e = e;
 		}
 
 		public Alt(MozInst failjump, MozInst next) {
 			super(MozSet.Alt, null, next);
 			this.jump = joinPoint(failjump);
+			this.e = null;
+		}
+
+		@Override
+		public Expression getExpression() {
+			return this.e;
 		}
 
 		@Override
@@ -513,13 +550,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			sc.pushAlt(this.jump);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xAlt(jump);
 			return this.next;
 		}
@@ -540,13 +577,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			sc.popAlt();
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xSucc();
 			return this.next;
 		}
@@ -567,12 +604,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return sc.xFail();
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.xFail();
 		}
 
@@ -593,12 +630,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return sc.skip(this.next);
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.xStep(this.next);
 		}
 	}
@@ -618,12 +655,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return sc.skip(this.next);
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.xStep(this.next);
 		}
 	}
@@ -661,7 +698,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.prefetch() == this.byteChar) {
 				sc.consume(1);
 				return this.next;
@@ -670,7 +707,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			/* EOF must be checked at the next instruction */
 			if (sc.read() == this.byteChar) {
 				return this.next;
@@ -685,7 +722,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.prefetch() == 0 && !sc.eof()) {
 				sc.move(1);
 				return this.next;
@@ -705,7 +742,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.prefetch() != this.byteChar) {
 				return this.next;
 			}
@@ -713,7 +750,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.prefetch() != this.byteChar) {
 				return this.next;
 			}
@@ -728,7 +765,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.prefetch() != this.byteChar && !sc.eof()) {
 				return this.next;
 			}
@@ -747,7 +784,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.prefetch() == this.byteChar) {
 				sc.consume(1);
 			}
@@ -755,7 +792,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.prefetch() == this.byteChar) {
 				if (this.byteChar == 0) {
 					return this.next;
@@ -772,7 +809,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.prefetch() == 0 && !sc.eof()) {
 				sc.move(1);
 			}
@@ -791,7 +828,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			while (sc.prefetch() == this.byteChar) {
 				sc.consume(1);
 			}
@@ -799,7 +836,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			while (sc.prefetch() == this.byteChar) {
 				sc.move(1);
 			}
@@ -807,13 +844,27 @@ public class Moz86 {
 		}
 	}
 
+	/* +SSE: eight bytes at a time */
+
+	public final static class ScanRByte extends RByte {
+		public ScanRByte(int byteChar, MozInst next) {
+			super(byteChar, next);
+		}
+
+		@Override
+		public MozInst exec(ParserMachineContext<?> sc) {
+			sc.scanByte(this.byteChar);
+			return this.next;
+		}
+	}
+
 	public static class BinaryRByte extends RByte {
 		public BinaryRByte(MozInst next) {
 			super(0, next);
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			while (sc.prefetch() == 0 && !sc.eof()) {
 				sc.move(1);
 			}
@@ -843,7 +894,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.hasUnconsumed()) {
 				sc.consume(1);
 				return this.next;
@@ -852,7 +903,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (!sc.eof()) {
 				sc.move(1);
 				return this.next;
@@ -876,7 +927,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.hasUnconsumed()) {
 				return sc.xFail();
 			}
@@ -884,7 +935,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.eof()) {
 				return next;
 			}
@@ -924,7 +975,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			int byteChar = sc.prefetch();
 			if (byteSet[byteChar]) {
 				sc.consume(1);
@@ -934,7 +985,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int byteChar = sc.read();
 			if (byteSet[byteChar]) {
 				return this.next;
@@ -950,7 +1001,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int byteChar = sc.prefetch();
 			if (byteSet[byteChar] && !sc.eof()) {
 				sc.move(1);
@@ -972,7 +1023,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			int byteChar = sc.prefetch();
 			if (byteSet[byteChar]) {
 				sc.consume(1);
@@ -981,7 +1032,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int byteChar = sc.prefetch();
 			if (byteSet[byteChar]) {
 				sc.move(1);
@@ -997,7 +1048,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int byteChar = sc.prefetch();
 			if (byteSet[byteChar] && sc.eof()) {
 				sc.move(1);
@@ -1017,7 +1068,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			int byteChar = sc.prefetch();
 			if (!byteSet[byteChar]) {
 				return this.next;
@@ -1026,7 +1077,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int byteChar = sc.prefetch();
 			if (!byteSet[byteChar]) {
 				return this.next;
@@ -1042,7 +1093,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int byteChar = sc.prefetch();
 			if (!byteSet[byteChar] && !sc.eof()) {
 				return this.next;
@@ -1063,7 +1114,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			int byteChar = sc.prefetch();
 			while (byteSet[byteChar]) {
 				sc.consume(1);
@@ -1073,7 +1124,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			while (byteSet[sc.prefetch()]) {
 				sc.move(1);
 			}
@@ -1082,13 +1133,30 @@ public class Moz86 {
 
 	}
 
+	/* +SSE: eight bytes at a time, for sets with a few bytes out of them */
+
+	public final static class ScanRSet extends RSet {
+		public final long[] scan;
+
+		public ScanRSet(boolean[] byteMap, long[] scan, MozInst next) {
+			super(byteMap, next);
+			this.scan = scan;
+		}
+
+		@Override
+		public MozInst exec(ParserMachineContext<?> sc) {
+			sc.scanSet(this.byteSet, this.scan);
+			return this.next;
+		}
+	}
+
 	public static class BinaryRSet extends RSet {
 		public BinaryRSet(boolean[] byteMap, MozInst next) {
 			super(byteMap, next);
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			while (byteSet[sc.prefetch()] && !sc.eof()) {
 				sc.move(1);
 			}
@@ -1134,7 +1202,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.match(this.utf8)) {
 				sc.consume(utf8.length);
 				return this.next;
@@ -1143,7 +1211,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (sc.match(this.utf8)) {
 				return this.next;
 			}
@@ -1167,7 +1235,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (!sc.match(this.utf8)) {
 				return this.next;
 			}
@@ -1175,7 +1243,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			if (!sc.match(this.utf8)) {
 				return this.next;
 			}
@@ -1199,7 +1267,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.match(this.utf8)) {
 				sc.consume(utf8.length);
 			}
@@ -1207,7 +1275,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.match(this.utf8);
 			return this.next;
 		}
@@ -1229,7 +1297,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			while (sc.match(this.utf8)) {
 				sc.consume(utf8.length);
 			}
@@ -1237,7 +1305,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			while (sc.match(this.utf8)) {
 			}
 			return this.next;
@@ -1269,13 +1337,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			int ch = sc.prefetch();
 			return jumpTable[ch];
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ch = sc.prefetch();
 			return jumpTable[ch];
 		}
@@ -1293,14 +1361,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			int ch = sc.prefetch();
 			sc.consume(1);
 			return jumpTable[ch];
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return jumpTable[sc.read()];
 		}
 
@@ -1319,14 +1387,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logPush();
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xTPush();
 			return this.next;
 		}
@@ -1345,7 +1413,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			// ASTMachine astMachine = sc.getAstMachine();
 			// astMachine.a(label);
 			System.out.println("unsupported");
@@ -1353,7 +1421,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xTPop();
 			return this.next;
 		}
@@ -1379,14 +1447,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logNew(sc.getPosition() + shift, this.id);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.beginTree(shift);
 			return this.next;
 		}
@@ -1417,14 +1485,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logCapture(sc.getPosition() + shift);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.endTree(shift, tag, value);
 			return this.next;
 		}
@@ -1454,14 +1522,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logTag(tag);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.tagTree(tag);
 			return this.next;
 		}
@@ -1492,14 +1560,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logReplace(this.value);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.valueTree(value);
 			return this.next;
 		}
@@ -1514,6 +1582,11 @@ public class Moz86 {
 			this.label = e.label;
 		}
 
+		public TLink(Symbol label, MozInst next) {
+			super(MozSet.TPop, null, next);
+			this.label = label;
+		}
+
 		// @Override
 		// protected String getOperand() {
 		// return label.getSymbol();
@@ -1525,14 +1598,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logPop(label);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xTLink(label);
 			return this.next;
 		}
@@ -1561,14 +1634,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.logLeftFold(sc.getPosition() + shift, this.label);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.foldTree(shift, label);
 			return this.next;
 		}
@@ -1582,13 +1655,18 @@ public class Moz86 {
 			this.label = e.label;
 		}
 
+		public TEmit(Symbol label, MozInst next) {
+			super(MozSet.TCommit, null, next);
+			this.label = label;
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitTEmit(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.popStack();
 			ASTMachine astMachine = sc.getAstMachine();
 			astMachine.commitTransactionPoint(label, s.ref);
@@ -1596,7 +1674,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return this.next;
 		}
 
@@ -1613,7 +1691,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.newUnusedStack();
 			ASTMachine astMachine = sc.getAstMachine();
 			s.ref = astMachine.saveTransactionPoint();
@@ -1621,7 +1699,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return this.next;
 		}
 
@@ -1650,14 +1728,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.newUnusedStack();
 			s.value = sc.getSymbolTable().saveSymbolPoint();
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xSOpen();
 			return this.next;
 		}
@@ -1675,14 +1753,14 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.popStack();
 			sc.getSymbolTable().backSymbolPoint((int) s.value);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xSClose();
 			return this.next;
 		}
@@ -1693,13 +1771,17 @@ public class Moz86 {
 			super(MozSet.SMask, e, e.tableName, next);
 		}
 
+		public SMask(Symbol table, MozInst next) {
+			super(MozSet.SMask, null, table, next);
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSMask(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.newUnusedStack();
 			SymbolTable st = sc.getSymbolTable();
 			s.value = st.saveSymbolPoint();
@@ -1708,7 +1790,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.xSOpen();
 			sc.addSymbolMask(table);
 			return this.next;
@@ -1721,13 +1803,17 @@ public class Moz86 {
 			super(MozSet.SDef, e, e.tableName, next);
 		}
 
+		public SDef(Symbol table, MozInst next) {
+			super(MozSet.SDef, null, table, next);
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSDef(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData top = sc.popStack();
 			byte[] captured = sc.subbyte(top.value, sc.getPosition());
 			// System.out.println("symbol captured: " + new String(captured) +
@@ -1738,7 +1824,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ppos = sc.xPPos();
 			sc.addSymbol(table, ppos);
 			return this.next;
@@ -1750,19 +1836,23 @@ public class Moz86 {
 			super(MozSet.SExists, e, e.tableName, next);
 		}
 
+		public SExists(Symbol table, MozInst next) {
+			super(MozSet.SExists, null, table, next);
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSExists(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			byte[] t = sc.getSymbolTable().getSymbol(table);
 			return t != null ? this.next : sc.xFail();
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.exists(table) ? this.next : sc.xFail();
 		}
 
@@ -1776,13 +1866,18 @@ public class Moz86 {
 			utf8 = StringUtils.utf8(e.symbol);
 		}
 
+		public SIsDef(Symbol table, byte[] utf8, MozInst next) {
+			super(MozSet.SIsDef, null, table, next);
+			this.utf8 = utf8;
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSIsDef(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			if (sc.getSymbolTable().contains(this.table, utf8)) {
 				return this.next;
 			}
@@ -1790,7 +1885,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.existsSymbol(table, utf8) ? this.next : sc.xFail();
 		}
 	}
@@ -1800,13 +1895,17 @@ public class Moz86 {
 			super(MozSet.SMatch, e, e.tableName, next);
 		}
 
+		public SMatch(Symbol table, MozInst next) {
+			super(MozSet.SMatch, null, table, next);
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSMatch(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			byte[] t = sc.getSymbolTable().getSymbol(table);
 			if (t == null) {
 				return this.next;
@@ -1819,7 +1918,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.matchSymbol(table) ? this.next : sc.xFail();
 		}
 
@@ -1830,13 +1929,17 @@ public class Moz86 {
 			super(MozSet.SIs, e, e.tableName, next);
 		}
 
+		public SIs(Symbol table, MozInst next) {
+			super(MozSet.SIs, null, table, next);
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSIs(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			byte[] symbol = sc.getSymbolTable().getSymbol(table);
 			if (symbol != null) {
 				MozStackData s = sc.popStack();
@@ -1851,7 +1954,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ppos = sc.xPPos();
 			return sc.equals(table, ppos) ? this.next : sc.xFail();
 		}
@@ -1863,13 +1966,17 @@ public class Moz86 {
 			super(MozSet.SIsa, e, e.tableName, next);
 		}
 
+		public SIsa(Symbol table, MozInst next) {
+			super(MozSet.SIsa, null, table, next);
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitSIsa(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MozStackData s = sc.popStack();
 			byte[] captured = sc.subbyte(s.value, sc.getPosition());
 			if (sc.getSymbolTable().contains(this.table, captured)) {
@@ -1881,7 +1988,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ppos = sc.xPPos();
 			return sc.contains(table, ppos) ? this.next : sc.xFail();
 		}
@@ -1906,12 +2013,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ppos = sc.xPPos();
 			sc.scanCount(ppos, mask, shift);
 			return next;
@@ -1932,12 +2039,12 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			return this.jump;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			return sc.decCount() ? this.next : this.jump;
 		}
 	}
@@ -1979,23 +2086,23 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MemoEntry entry = sc.getMemo(uid, state);
 			if (entry != null) {
 				if (entry.failed) {
-					memoPoint.failHit();
+					sc.getMemoStat().failHit(uid);
 					return sc.xFail();
 				}
-				memoPoint.memoHit(entry.consumed);
+				sc.getMemoStat().memoHit(uid, entry.consumed);
 				sc.consume(entry.consumed);
 				return this.jump;
 			}
-			memoPoint.miss();
+			sc.getMemoStat().miss(uid);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			switch (sc.lookupMemo(uid)) {
 			case ParserContext.NotFound:
 				return this.next;
@@ -2018,7 +2125,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			long ppos = sc.popAlt();
 			int length = (int) (sc.getPosition() - ppos);
 			sc.setMemo(ppos, uid, false, null, length, this.state);
@@ -2026,7 +2133,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ppos = sc.xSuccPos();
 			sc.memoSucc(uid, ppos);
 			return this.next;
@@ -2044,13 +2151,13 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			sc.setMemo(sc.getPosition(), uid, true, null, 0, state);
 			return sc.xFail();
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			sc.memoFail(uid);
 			return sc.xFail();
 		}
@@ -2070,31 +2177,36 @@ public class Moz86 {
 			this.label = null;
 		}
 
+		public TLookup(MemoPoint m, Symbol label, MozInst next, MozInst skip) {
+			super(MozSet.TLookup, null, m, m.isStateful(), next, skip);
+			this.label = label;
+		}
+
 		@Override
 		public void visit(InstructionVisitor v) {
 			v.visitTLookup(this);
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			MemoEntry entry = sc.getMemo(uid, state);
 			if (entry != null) {
 				if (entry.failed) {
-					memoPoint.failHit();
+					sc.getMemoStat().failHit(uid);
 					return sc.xFail();
 				}
-				memoPoint.memoHit(entry.consumed);
+				sc.getMemoStat().memoHit(uid, entry.consumed);
 				sc.consume(entry.consumed);
 				ASTMachine astMachine = sc.getAstMachine();
 				astMachine.logLink(label, entry.result);
 				return this.jump;
 			}
-			memoPoint.miss();
+			sc.getMemoStat().miss(uid);
 			return this.next;
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			switch (sc.lookupTreeMemo(uid)) {
 			case ParserContext.NotFound:
 				return this.next;
@@ -2118,7 +2230,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst execMoz(MozMachine sc) throws TerminationException {
+		public MozInst execMoz(MozMachine sc) {
 			ASTMachine astMachine = sc.getAstMachine();
 			long ppos = sc.popAlt();
 			int length = (int) (sc.getPosition() - ppos);
@@ -2127,7 +2239,7 @@ public class Moz86 {
 		}
 
 		@Override
-		public MozInst exec(ParserMachineContext<?> sc) throws TerminationException {
+		public MozInst exec(ParserMachineContext<?> sc) {
 			int ppos = sc.xSuccPos();
 			sc.memoTreeSucc(uid, ppos);
 			return this.next;
@@ -2135,4 +2247,42 @@ public class Moz86 {
 
 	}
 
+	public final static class Dfa extends MozInst {
+		public final ParserMachineDfa dfa;
+		public final MozInst jump; // the code of the production
+
+		public Dfa(ParserMachineDfa dfa, MozInst jump, MozInst next) {
+			super(MozSet.Dfa, null, next);
+			this.dfa = dfa;
+			this.jump = joinPoint(jump);
+		}
+
+		@Override
+		public void visit(InstructionVisitor v) {
+			v.visitDfa(this);
+		}
+
+		@Override
+		MozInst branch() {
+			return this.jump;
+		}
+
+		@Override
+		public MozInst execMoz(MozMachine sc) {
+			return this.jump;
+		}
+
+		@Override
+		public MozInst exec(ParserMachineContext<?> sc) {
+			switch (dfa.match(sc)) {
+			case ParserMachineDfa.Succ:
+				return this.next;
+			case ParserMachineDfa.Fallback:
+				return this.jump;
+			default:
+				return sc.xFail();
+			}
+		}
+	}
+
 }
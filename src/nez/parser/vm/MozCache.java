@@ -0,0 +1,91 @@
+package nez.parser.vm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import nez.lang.Grammar;
+import nez.lang.Production;
+import nez.parser.ParserStrategy;
+import nez.util.StringUtils;
+import nez.util.Verbose;
+
+/**
+ * MozCache keeps compiled grammars as .moz files in a directory
+ * (MozCache=dir), named by a hash of the grammar text, the start production
+ * and the strategy, so that a later run loads the code instead of optimizing
+ * and compiling the grammar again. Files are written to a temporary name and
+ * renamed, so concurrent runs never read a partial file.
+ */
+
+public class MozCache {
+	private final File file;
+	private final ParserStrategy strategy;
+
+	public MozCache(String dir, Grammar grammar, String start, ParserStrategy strategy) {
+		this.strategy = strategy;
+		this.file = new File(dir, key(grammar, start, strategy) + ".moz");
+	}
+
+	/* JIT compiled code and coverage counters need the grammar */
+
+	public static boolean isCacheable(ParserStrategy strategy) {
+		return strategy.MozCache != null && !strategy.Ojit && !strategy.Coverage;
+	}
+
+	static String key(Grammar grammar, String start, ParserStrategy strategy) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(nez.Version.Version).append('\n');
+		sb.append(start).append('\n');
+		sb.append(strategy).append('\n');
+		for (Production p : grammar) {
+			sb.append(p.getLocalName()).append(" = ").append(p.getExpression()).append('\n');
+		}
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] digest = md.digest(StringUtils.utf8(sb.toString()));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				hex.append(String.format("%02x", digest[i] & 0xff));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(sb.toString().hashCode());
+		}
+	}
+
+	public final String getPath() {
+		return this.file.getPath();
+	}
+
+	public MozCode load() {
+		if (this.file.isFile()) {
+			try {
+				MozCode code = MozReader.load(this.file.getPath(), strategy.SSE);
+				Verbose.println("loaded " + this.file);
+				return code;
+			} catch (IOException e) {
+				Verbose.traceException(e);
+			}
+		}
+		return null;
+	}
+
+	public void store(MozCode code) {
+		MozWriter w = new MozWriter();
+		code.encode(w);
+		try {
+			File dir = this.file.getParentFile();
+			dir.mkdirs();
+			File tmp = File.createTempFile("moz", ".tmp", dir);
+			Files.write(tmp.toPath(), w.toByteArray());
+			Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			Verbose.println("cached " + this.file);
+		} catch (IOException e) {
+			Verbose.traceException(e);
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package nez.parser.vm;
 
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import nez.ast.Tree;
+import nez.lang.Expression;
 import nez.lang.Grammar;
+import nez.lang.Production;
+import nez.parser.MemoPoint;
 import nez.parser.Parser;
 import nez.parser.ParserCode;
 import nez.parser.ParserInstance;
-import nez.parser.TerminationException;
+import nez.parser.ParserStrategy;
 import nez.util.ConsoleUtils;
 import nez.util.UList;
 import nez.util.Verbose;
@@ -15,52 +22,135 @@ public class MozCode extends ParserCode<MozInst> {
 		super(compiledGrammar, new MozInst[1026]);
 	}
 
+	MozCode(boolean recognitionMode, MozInst[] insts, MemoPoint[] memoPoints) {
+		super(recognitionMode, insts, memoPoints);
+	}
+
 	UList<MozInst> codeList() {
 		return this.codeList;
 	}
 
+	private ParserMachineJit.JitFunction jit = null;
+
+	void setJitFunction(ParserMachineJit.JitFunction jit) {
+		this.jit = jit;
+	}
+
+	public final boolean isJitCompiled() {
+		return this.jit != null;
+	}
+
+	private ParserStrategy dfaStrategy = null;
+	private ParserMachineDfa.Tokens tokens = null;
+	private HashMap<String, ParserMachineDfa> dfaMap = null;
+	private IdentityHashMap<Expression, Object[]> runMap = null;
+
+	/* the token productions and the runs of token expressions are matched by a DFA (+Odfa) */
+
+	void initDfa(ParserStrategy strategy) {
+		dfaStrategy = strategy;
+		tokens = new ParserMachineDfa.Tokens(strategy);
+		dfaMap = new HashMap<>();
+		runMap = new IdentityHashMap<>();
+		for (Production p : this.grammar) {
+			ParserMachineDfa dfa = tokens.isToken(p) ? ParserMachineDfa.compile(strategy, p) : null;
+			if (dfa != null) {
+				dfaMap.put(p.getUniqueName(), dfa);
+			}
+		}
+	}
+
+	final ParserMachineDfa getDfa(Production p) {
+		return dfaMap == null ? null : dfaMap.get(p.getUniqueName());
+	}
+
+	/* the elements of a sequence with its runs as ParserMachineDfa.Run, or null */
+
+	final Object[] getTokenRuns(String name, Expression seq) {
+		if (runMap == null) {
+			return null;
+		}
+		if (!runMap.containsKey(seq)) {
+			runMap.put(seq, ParserMachineDfa.split(dfaStrategy, tokens, name, seq));
+		}
+		return runMap.get(seq);
+	}
+
+	final int getDfaSize() {
+		int n = dfaMap == null ? 0 : dfaMap.size();
+		if (runMap != null) {
+			for (Object[] runs : runMap.values()) {
+				for (int i = 0; runs != null && i < runs.length; i++) {
+					if (runs[i] instanceof ParserMachineDfa.Run) {
+						n++;
+					}
+				}
+			}
+		}
+		return n;
+	}
+
 	@Override
-	public Object exec(ParserInstance context) {
+	protected <E extends Tree<E>> boolean exec(ParserMachineContext<E> ctx, int entry, MozInst inst) {
+		if (jit != null) {
+			E proto = ctx.left;
+			int ppos = (int) ctx.getPosition();
+			int log = ctx.saveLog();
+			int symbol = ctx.saveSymbolPoint();
+			try {
+				boolean result = entry == 0 ? jit.parse(ctx) : jit.parse(ctx, entry);
+				if (!result) {
+					ctx.back((int) ctx.getPosition()); // the outermost failure
+				}
+				return result;
+			} catch (StackOverflowError e) {
+				/* the jit code recurses on the Java stack; Moz86 has its own */
+				Verbose.println("jit: stack overflow at %d, reparsing with moz86", ctx.getPosition());
+				ctx.back(ppos);
+				ctx.backLog(log);
+				ctx.backSymbolPoint(symbol);
+				ctx.left = proto;
+			}
+		}
+		return super.exec(ctx, entry, inst);
+	}
+
+	@Override
+	public Object exec(ParserInstance context, int entry) {
 		long startPosition = context.getPosition();
 		MozMachine machine = (MozMachine) context.getRuntime();
-		MozInst code = this.getStartInstruction();
-		boolean result = false;
-		try {
-			while (true) {
-				code = code.execMoz(machine);
-			}
-		} catch (TerminationException e) {
-			result = e.status;
+		MozInst code = this.getEntryInstruction(entry);
+		MozInst next;
+		while ((next = code.execMoz(machine)) != null) {
+			code = next;
 		}
+		boolean result = Moz86.Exit.status(code);
 		return result ? machine.getParseResult(startPosition, context.getPosition()) : null;
 	}
 
 	public boolean run(MozInst code, MozMachine sc) {
-		boolean result = false;
 		String u = "Start";
 		UList<String> stack = new UList<String>(new String[128]);
 		stack.add("Start");
-		try {
-			while (true) {
-				if (code instanceof Moz86.Call) {
-					stack.add(u);
-					u = ((Moz86.Call) code).getNonTerminalName();
-				}
-				if (code instanceof Moz86.Ret) {
-					u = stack.ArrayValues[stack.size() - 1];
-					stack.clear(stack.size() - 1);
-				}
-				ConsoleUtils.println(u + "(" + sc.getPosition() + ")  " + code.id + " " + code);
-				MozInst code2 = code.execMoz(sc);
-				if (code2 == null) {
+		while (true) {
+			if (code instanceof Moz86.Call) {
+				stack.add(u);
+				u = ((Moz86.Call) code).getNonTerminalName();
+			}
+			if (code instanceof Moz86.Ret) {
+				u = stack.ArrayValues[stack.size() - 1];
+				stack.clear(stack.size() - 1);
+			}
+			ConsoleUtils.println(u + "(" + sc.getPosition() + ")  " + code.id + " " + code);
+			MozInst code2 = code.execMoz(sc);
+			if (code2 == null) {
+				if (!(code instanceof Moz86.Exit)) {
 					Verbose.debug("@@ returning null at " + code);
 				}
-				code = code2;
+				return Moz86.Exit.status(code);
 			}
-		} catch (TerminationException e) {
-			result = e.status;
+			code = code2;
 		}
-		return result;
 	}
 
 	@Override
@@ -88,6 +178,12 @@ public class MozCode extends ParserCode<MozInst> {
 	public final void encode(MozWriter coder) {
 		if (coder != null) {
 			coder.setHeader(codeList.size(), this.getInstructionSize(), this.getMemoPointSize());
+			coder.setRecognitionMode(this.RecognitionMode);
+			if (this.memoPointMap != null) {
+				for (MemoPoint m : this.memoPointMap.values()) {
+					coder.setMemoPoint(m);
+				}
+			}
 			coder.setInstructions(codeList.ArrayValues, codeList.size());
 		}
 	}
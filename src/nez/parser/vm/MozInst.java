@@ -2,7 +2,6 @@ package nez.parser.vm;
 
 import nez.lang.Expression;
 import nez.parser.Instruction;
-import nez.parser.TerminationException;
 
 public abstract class MozInst implements Instruction {
 	public int id;
@@ -29,9 +28,9 @@ public abstract class MozInst implements Instruction {
 		return null;
 	}
 
-	public abstract MozInst execMoz(MozMachine sc) throws TerminationException;
+	public abstract MozInst execMoz(MozMachine sc);
 
-	public abstract MozInst exec(ParserMachineContext<?> sc) throws TerminationException;
+	public abstract MozInst exec(ParserMachineContext<?> sc);
 
 	protected static String label(MozInst inst) {
 		return "L" + inst.id;
@@ -3,6 +3,7 @@ package nez.parser.vm;
 import nez.ast.Source;
 import nez.ast.Tree;
 import nez.parser.MemoEntry;
+import nez.parser.MemoStat;
 import nez.parser.MemoTable;
 import nez.parser.ParserProfiler;
 import nez.parser.ParserRuntime;
@@ -109,11 +110,11 @@ public final class MozMachine extends ParserRuntime {
 		}
 		this.stacks[0].ref = null;
 		this.stacks[0].value = 0;
-		this.stacks[1].ref = new Moz86.Exit(false);
+		this.stacks[1].ref = Moz86.Exit.FailExit;
 		this.stacks[1].value = this.getPosition();
 		this.stacks[2].ref = astMachine.saveTransactionPoint();
 		this.stacks[2].value = symbolTable.saveSymbolPoint();
-		this.stacks[3].ref = new Moz86.Exit(true);
+		this.stacks[3].ref = Moz86.Exit.SuccExit;
 		this.stacks[3].value = 0;
 		this.catchStackTop = 0;
 		this.usedStackTop = 3;
@@ -209,6 +210,10 @@ public final class MozMachine extends ParserRuntime {
 		return state ? memoTable.getStateMemo(this.pos, memoId, symbolTable.getState()) : memoTable.getMemo(this.pos, memoId);
 	}
 
+	public final MemoStat getMemoStat() {
+		return memoTable.getMemoStat();
+	}
+
 	// Profiling ------------------------------------------------------------
 
 	private LocalProfiler lprof;
@@ -0,0 +1,426 @@
+package nez.parser.vm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import nez.ast.Symbol;
+import nez.parser.MemoPoint;
+import nez.util.StringUtils;
+
+/**
+ * MozReader loads the .moz format written by MozWriter (NEZ1) back into a
+ * runnable MozCode. Instructions whose jump is final (Alt, NDec, Lookup,
+ * TLookup, Dfa) are built after their jump target, as failure and memo
+ * jumps only go forward; the next pointers and the other jumps are linked
+ * once all instructions exist, since the code graph has cycles.
+ * The loaded code has no grammar, so it cannot be JIT-compiled.
+ */
+
+public class MozReader extends ByteReader {
+	private int instSize;
+	private MemoPoint[] memoPoints;
+	private String[] names;
+	private boolean[][] sets;
+	private byte[][] strs;
+	private Symbol[] tags;
+	private Symbol[] tables;
+
+	private MozInst[] insts;
+	private int[] nextIds;
+	private int[] jumpIds;
+	private int[][] tableIds;
+	private Linked[] linked;
+
+	/* an instruction that takes its jump target in the constructor */
+
+	private interface Linked {
+		MozInst build(MozInst jump);
+	}
+
+	public MozReader(byte[] b) {
+		super(b);
+	}
+
+	public static MozCode load(String path) throws IOException {
+		return load(path, false);
+	}
+
+	/* scan (+SSE) reads RByte and RSet as ScanRByte and ScanRSet */
+
+	public static MozCode load(String path, boolean scan) throws IOException {
+		MozReader r = new MozReader(Files.readAllBytes(Paths.get(path)));
+		r.scan = scan;
+		return r.read(path);
+	}
+
+	private boolean scan = false;
+
+	public final MozCode read(String resourceName) throws IOException {
+		if (source.length < 4 || source[0] != 'N' || source[1] != 'E' || source[2] != 'Z' || source[3] != '1') {
+			throw new IOException("not a NEZ1 .moz file: " + resourceName);
+		}
+		try {
+			pos = 4;
+			readHeader();
+			readInstructions();
+			build();
+			link();
+		} catch (ArrayIndexOutOfBoundsException | NullPointerException e) {
+			throw new IOException("broken .moz file: " + resourceName + " at " + pos, e);
+		}
+		return new MozCode(recognitionMode, insts, memoPoints);
+	}
+
+	private boolean recognitionMode;
+
+	private void readHeader() {
+		instSize = read_u24();
+		int memoSize = read_u16();
+		read_u16(); // jumpTableSize
+		recognitionMode = read_b();
+		memoPoints = new MemoPoint[memoSize];
+		for (int i = 0; i < memoSize; i++) {
+			String label = read_string();
+			memoPoints[i] = new MemoPoint(i, label, null, null, read_b());
+		}
+		names = new String[read_u16()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = read_string();
+		}
+		sets = new boolean[read_u16()][];
+		for (int i = 0; i < sets.length; i++) {
+			sets[i] = read_set();
+		}
+		strs = new byte[read_u16()][];
+		for (int i = 0; i < strs.length; i++) {
+			strs[i] = read_utf8();
+		}
+		tags = new Symbol[read_u16()];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = Symbol.unique(read_string());
+		}
+		tables = new Symbol[read_u16()];
+		for (int i = 0; i < tables.length; i++) {
+			tables[i] = Symbol.unique(read_string());
+		}
+	}
+
+	private byte[] read_utf8() {
+		int len = read_u16();
+		byte[] b = new byte[len];
+		System.arraycopy(source, pos, b, 0, len);
+		pos += len + 1; // '\0'
+		return b;
+	}
+
+	private String read_string() {
+		return StringUtils.newString(read_utf8());
+	}
+
+	private boolean[] read_set() {
+		boolean[] b = new boolean[257];
+		for (int offset = 0; offset < 256; offset += 32) {
+			int n = read_u32();
+			for (int i = 0; i < 32; i++) {
+				b[offset + i] = (n & (1 << i)) != 0;
+			}
+		}
+		return b;
+	}
+
+	private Symbol read_label() {
+		Symbol s = tags[read_u16()];
+		return s == Symbol.Null ? null : s;
+	}
+
+	private int read_jump() {
+		int id = read_u24();
+		return id == MozWriter.NullJump ? -1 : id;
+	}
+
+	private void readInstructions() throws IOException {
+		insts = new MozInst[instSize];
+		nextIds = new int[instSize];
+		jumpIds = new int[instSize];
+		tableIds = new int[instSize][];
+		linked = new Linked[instSize];
+		for (int i = 0; i < instSize; i++) {
+			int op = read_u8();
+			jumpIds[i] = -1;
+			insts[i] = readInstruction(i, op & 63, (op & MozWriter.BinaryFlag) != 0);
+			if (insts[i] != null) {
+				insts[i].id = i;
+			}
+			nextIds[i] = (op & MozWriter.NextFlag) != 0 ? read_jump() : ImplicitNext;
+		}
+	}
+
+	private final static int ImplicitNext = -2;
+
+	private final static MozInst Building = new Moz86.Ret();
+
+	private void build() throws IOException {
+		for (int i = 0; i < instSize; i++) {
+			build(i);
+		}
+		for (int i = 0; i < instSize; i++) {
+			if (nextIds[i] == ImplicitNext) {
+				nextIds[i] = hasNext(insts[i]) && i + 1 < instSize ? i + 1 : -1;
+			}
+		}
+	}
+
+	private MozInst build(int id) throws IOException {
+		if (insts[id] == Building) {
+			throw new IOException("cyclic jump at " + id);
+		}
+		if (insts[id] == null) {
+			insts[id] = Building;
+			MozInst jump = jumpIds[id] == -1 ? null : build(jumpIds[id]);
+			insts[id] = linked[id].build(jump);
+			insts[id].id = id;
+		}
+		return insts[id];
+	}
+
+	private static boolean hasNext(MozInst inst) {
+		return !(inst instanceof Moz86.Exit || inst instanceof Moz86.Ret || inst instanceof Moz86.Fail || inst instanceof Moz86.Jump || inst instanceof Moz86.MemoFail);
+	}
+
+	private MozInst readInstruction(int id, int op, boolean binary) throws IOException {
+		String name = Moz86.Specification[op][0];
+		switch (name) {
+		case "Nop":
+			return new Moz86.Nop(names[read_u16()], null);
+		case "Exit":
+			return new Moz86.Exit(read_b());
+		case "Cov": {
+			int uid = read_u16();
+			read_b();
+			return new Moz86.Cov(uid, null);
+		}
+		case "Trap":
+			return new Moz86.Trap(read_u16(), null);
+		case "Pos":
+			return new Moz86.Pos(null);
+		case "Back":
+			return new Moz86.Back(null);
+		case "Move":
+			return new Moz86.Move(read_i8(), null);
+		case "Jump":
+			jumpIds[id] = read_jump();
+			return new Moz86.Jump(null);
+		case "Call": {
+			jumpIds[id] = read_jump();
+			return new Moz86.Call(names[read_u16()], null, null);
+		}
+		case "Ret":
+			return new Moz86.Ret();
+		case "Alt":
+			jumpIds[id] = read_jump();
+			linked[id] = jump -> new Moz86.Alt(jump, null);
+			return null;
+		case "Succ":
+			return new Moz86.Succ(null);
+		case "Fail":
+			return new Moz86.Fail();
+		case "Guard":
+			return new Moz86.Guard();
+		case "Step":
+			return new Moz86.Step();
+		case "Byte": {
+			int c = read_u8();
+			return binary ? new Moz86.BinaryByte(null) : new Moz86.Byte(c, null);
+		}
+		case "Set": {
+			boolean[] b = sets[read_u16()];
+			return binary ? new Moz86.BinarySet(b, null) : new Moz86.Set(b, null);
+		}
+		case "Str":
+			return new Moz86.Str(strs[read_u16()], null);
+		case "Any":
+			return new Moz86.Any(null);
+		case "NByte": {
+			int c = read_u8();
+			return binary ? new Moz86.BinaryNByte(c, null) : new Moz86.NByte(c, null);
+		}
+		case "NSet": {
+			boolean[] b = sets[read_u16()];
+			return binary ? new Moz86.BinaryNSet(b, null) : new Moz86.NSet(b, null);
+		}
+		case "NStr":
+			return new Moz86.NStr(strs[read_u16()], null);
+		case "NAny":
+			return new Moz86.NAny(null, null);
+		case "OByte": {
+			int c = read_u8();
+			return binary ? new Moz86.BinaryOByte(null) : new Moz86.OByte(c, null);
+		}
+		case "OSet": {
+			boolean[] b = sets[read_u16()];
+			return binary ? new Moz86.BinaryOSet(b, null) : new Moz86.OSet(b, null);
+		}
+		case "OStr":
+			return new Moz86.OStr(strs[read_u16()], null);
+		case "RByte": {
+			int c = read_u8();
+			if (binary) {
+				return new Moz86.BinaryRByte(null);
+			}
+			return scan ? new Moz86.ScanRByte(c, null) : new Moz86.RByte(c, null);
+		}
+		case "RSet": {
+			boolean[] b = sets[read_u16()];
+			if (binary) {
+				return new Moz86.BinaryRSet(b, null);
+			}
+			long[] w = scan ? ParserMachineContext.scanWords(b) : null;
+			return w != null ? new Moz86.ScanRSet(b, w, null) : new Moz86.RSet(b, null);
+		}
+		case "RStr":
+			return new Moz86.RStr(strs[read_u16()], null);
+		case "Dispatch":
+		case "DDispatch": {
+			Moz86.Dispatch inst = name.equals("Dispatch") ? new Moz86.Dispatch(null, null) : new Moz86.DDispatch(null, null);
+			tableIds[id] = new int[inst.jumpTable.length];
+			for (int i = 0; i < inst.jumpTable.length; i++) {
+				tableIds[id][i] = read_jump();
+			}
+			return inst;
+		}
+		case "TPush":
+			return new Moz86.TPush(null, null);
+		case "TPop":
+			return new Moz86.TPop(null, null);
+		case "TBegin":
+			return new Moz86.TBegin(read_i8(), null);
+		case "TEnd": {
+			int shift = read_i8();
+			Symbol tag = read_label();
+			String value = read_b() ? StringUtils.newString(strs[read_u16()]) : null;
+			return new Moz86.TEnd(tag, value, shift, null);
+		}
+		case "TTag":
+			return new Moz86.TTag(tags[read_u16()], null);
+		case "TReplace":
+			return new Moz86.TReplace(StringUtils.newString(strs[read_u16()]), null);
+		case "TLink":
+			return new Moz86.TLink(read_label(), null);
+		case "TFold": {
+			int shift = read_i8();
+			return new Moz86.TFold(read_label(), shift, null);
+		}
+		case "TEmit":
+			return new Moz86.TEmit(read_label(), null);
+		case "TStart":
+			return new Moz86.TStart(null, null);
+		case "SOpen":
+			return new Moz86.SOpen(null, null);
+		case "SClose":
+			return new Moz86.SClose(null, null);
+		case "SMask":
+			return new Moz86.SMask(tables[read_u16()], null);
+		case "SDef":
+			return new Moz86.SDef(tables[read_u16()], null);
+		case "SExists":
+			return new Moz86.SExists(tables[read_u16()], null);
+		case "SIsDef": {
+			Symbol table = tables[read_u16()];
+			return new Moz86.SIsDef(table, strs[read_u16()], null);
+		}
+		case "SMatch":
+			return new Moz86.SMatch(tables[read_u16()], null);
+		case "SIs":
+			return new Moz86.SIs(tables[read_u16()], null);
+		case "SIsa":
+			return new Moz86.SIsa(tables[read_u16()], null);
+		case "NScan": {
+			long mask = ((long) read_u32() << 32) | (read_u32() & 0xffffffffL);
+			return new Moz86.NScan(mask, read_i8(), null);
+		}
+		case "NDec":
+			jumpIds[id] = read_jump();
+			linked[id] = jump -> new Moz86.NDec(jump, null);
+			return null;
+		case "Lookup": {
+			MemoPoint m = read_memo();
+			jumpIds[id] = read_jump();
+			linked[id] = jump -> new Moz86.Lookup(null, m, null, jump);
+			return null;
+		}
+		case "Memo":
+			return new Moz86.Memo(null, read_memo(), null);
+		case "MemoFail":
+			return new Moz86.MemoFail(null, read_memo());
+		case "TLookup": {
+			MemoPoint m = read_memo();
+			jumpIds[id] = read_jump();
+			Symbol label = read_label();
+			linked[id] = jump -> new Moz86.TLookup(m, label, null, jump);
+			return null;
+		}
+		case "TMemo":
+			return new Moz86.TMemo(null, read_memo(), null);
+		case "Dfa": {
+			jumpIds[id] = read_jump();
+			ParserMachineDfa dfa = read_dfa(names[read_u16()]);
+			linked[id] = jump -> new Moz86.Dfa(dfa, jump, null);
+			return null;
+		}
+		}
+		throw new IOException("unknown opcode " + op + " (" + name + ")");
+	}
+
+	private MemoPoint read_memo() {
+		read_b(); // state, given by the memo point
+		return memoPoints[read_u32()];
+	}
+
+	private ParserMachineDfa read_dfa(String name) {
+		int size = read_u16();
+		int[] table = new int[size * 256];
+		int[] eof = new int[size];
+		for (int s = 0; s < size; s++) {
+			int c = 0;
+			while (c < 256) {
+				int run = read_u8() + 1;
+				int value = read_u32();
+				Arrays.fill(table, s * 256 + c, s * 256 + c + run, value);
+				c += run;
+			}
+			eof[s] = read_u32();
+		}
+		return new ParserMachineDfa(name, table, eof);
+	}
+
+	private MozInst inst(int id) {
+		return id == -1 ? null : insts[id];
+	}
+
+	private void link() {
+		for (int i = 0; i < instSize; i++) {
+			MozInst inst = insts[i];
+			inst.next = inst(nextIds[i]);
+			MozInst jump = inst(jumpIds[i]);
+			if (jump != null) {
+				jump.joinPoint = true;
+			}
+			if (inst instanceof Moz86.Jump) {
+				((Moz86.Jump) inst).jump = jump;
+			} else if (inst instanceof Moz86.Call) {
+				((Moz86.Call) inst).jump = jump;
+				Moz86.joinPoint(inst.next);
+			} else if (inst instanceof Moz86.Dispatch) {
+				MozInst[] table = ((Moz86.Dispatch) inst).jumpTable;
+				for (int c = 0; c < table.length; c++) {
+					table[c] = inst(tableIds[i][c]);
+					if (table[c] != null) {
+						table[c].joinPoint = true;
+					}
+				}
+			}
+		}
+	}
+}
@@ -67,6 +67,7 @@ public class MozSet {
 	public final static byte DFirst = 55; // Dfa
 	public final static byte Cov = 56;
 	public final static byte Covx = 57;
+	public final static byte Dfa = 58;
 
 	public final static byte Label = 127; // 7-bit
 
@@ -190,6 +191,8 @@ public class MozSet {
 
 		case Exit:
 			return "exit";
+		case Dfa:
+			return "dfa";
 
 		default:
 			return "-";
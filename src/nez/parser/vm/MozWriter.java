@@ -4,16 +4,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 
 import nez.ast.Symbol;
+import nez.parser.MemoPoint;
 import nez.parser.vm.Moz86.Alt;
 import nez.parser.vm.Moz86.Any;
 import nez.parser.vm.Moz86.Back;
 import nez.parser.vm.Moz86.Byte;
 import nez.parser.vm.Moz86.Call;
 import nez.parser.vm.Moz86.Cov;
+import nez.parser.vm.Moz86.Dfa;
 import nez.parser.vm.Moz86.DDispatch;
 import nez.parser.vm.Moz86.Dispatch;
 import nez.parser.vm.Moz86.Exit;
@@ -68,7 +71,18 @@ import nez.parser.vm.Moz86.Trap;
 import nez.util.StringUtils;
 import nez.util.Verbose;
 
+/**
+ * MozWriter encodes a MozCode into the .moz format (NEZ1), which MozReader
+ * loads back into an equivalent MozCode. Each instruction is an opcode from
+ * Moz86.Specification (bit 6 marks the Binary variant, bit 7 an explicit
+ * next jump) followed by its operands; sets, strings, tags, tables and
+ * memo points are pooled in the header.
+ */
+
 public class MozWriter extends InstructionVisitor {
+	public final static int BinaryFlag = 64;
+	public final static int NextFlag = 128;
+	public final static int NullJump = 0xffffff;
 
 	class SetEntry {
 		int id;
@@ -116,6 +130,8 @@ public class MozWriter extends InstructionVisitor {
 	int prodSize;
 	int jumpTableSize;
 	int memoSize;
+	boolean recognitionMode;
+	MemoPoint[] memoPoints;
 	ByteArrayOutputStream stream;
 	HashMap<String, StrEntry> NonTerminalPoolMap;
 	HashMap<String, SetEntry> BSetPoolMap;
@@ -132,6 +148,7 @@ public class MozWriter extends InstructionVisitor {
 		this.instSize = instSize;
 		this.prodSize = prodSize;
 		this.memoSize = memoSize;
+		this.memoPoints = new MemoPoint[memoSize];
 		NonTerminalPoolMap = new HashMap<>();
 		BSetPoolMap = new HashMap<>();
 		BStrPoolMap = new HashMap<>();
@@ -144,6 +161,14 @@ public class MozWriter extends InstructionVisitor {
 		TablePools = new ArrayList<>();
 	}
 
+	public void setRecognitionMode(boolean recognitionMode) {
+		this.recognitionMode = recognitionMode;
+	}
+
+	public void setMemoPoint(MemoPoint m) {
+		this.memoPoints[m.id] = m;
+	}
+
 	public void setInstructions(MozInst[] insts, int len) {
 		stream = new ByteArrayOutputStream();
 		for (int i = 0; i < len; i++) {
@@ -223,7 +248,7 @@ public class MozWriter extends InstructionVisitor {
 	}
 
 	public final void encodeJump(MozInst jump) {
-		write_u24(jump.id);
+		write_u24(jump == null ? NullJump : jump.id);
 	}
 
 	public final void encodeJumpTable(MozInst[] table) {
@@ -265,18 +290,14 @@ public class MozWriter extends InstructionVisitor {
 	}
 
 	public void encodeBstr(byte[] utf8) {
-		try {
-			String key = new String(utf8, StringUtils.DefaultEncoding);
-			StrEntry entry = BStrPoolMap.get(key);
-			if (entry == null) {
-				entry = new StrEntry(BStrPoolMap.size(), utf8);
-				BStrPoolMap.put(key, entry);
-				BStrPools.add(entry);
-			}
-			write_u16(entry.id);
-		} catch (IOException e) {
-			Verbose.traceException(e);
+		String key = new String(utf8, StandardCharsets.ISO_8859_1); // byte by byte
+		StrEntry entry = BStrPoolMap.get(key);
+		if (entry == null) {
+			entry = new StrEntry(BStrPoolMap.size(), utf8);
+			BStrPoolMap.put(key, entry);
+			BStrPools.add(entry);
 		}
+		write_u16(entry.id);
 	}
 
 	public void encodeNonTerminal(String key) {
@@ -319,17 +340,22 @@ public class MozWriter extends InstructionVisitor {
 		write_u16(entry.id);
 	}
 
-	public void writeTo(String fileName) {
+	public byte[] toByteArray() {
 		byte[] body = stream.toByteArray();
 		stream = new ByteArrayOutputStream();
 		stream.write('N');
 		stream.write('E');
 		stream.write('Z');
-		stream.write('0');
+		stream.write('1');
 
-		write_u16(instSize);
+		write_u24(instSize);
 		write_u16(memoSize);
 		write_u16(jumpTableSize);
+		write_b(recognitionMode);
+		for (MemoPoint m : memoPoints) {
+			write_utf8(StringUtils.utf8(m.label));
+			write_b(m.isStateful());
+		}
 
 		write_u16(NonTerminalPools.size());
 		for (StrEntry e : NonTerminalPools) {
@@ -356,8 +382,11 @@ public class MozWriter extends InstructionVisitor {
 		} catch (IOException e1) {
 			Verbose.traceException(e1);
 		}
+		return stream.toByteArray();
+	}
 
-		byte[] code = stream.toByteArray();
+	public void writeTo(String fileName) {
+		byte[] code = toByteArray();
 		try {
 			OutputStream out = new FileOutputStream(fileName);
 			out.write(code);
@@ -368,11 +397,20 @@ public class MozWriter extends InstructionVisitor {
 	}
 
 	private void encode(MozInst inst) {
+		String name = inst.getName();
+		int opcode = 0;
+		if (name.startsWith("Binary")) {
+			name = name.substring(6);
+			opcode = BinaryFlag;
+		} else if (name.startsWith("Scan")) {
+			name = name.substring(4); // made again by MozReader (+SSE)
+		}
+		opcode |= Moz86.opCode(name);
 		if (inst.isIncrementedNext()) {
-			this.encodeOpcode(inst.opcode);
+			this.encodeOpcode((byte) opcode);
 			inst.visit(this);
 		} else {
-			this.encodeOpcode((byte) (inst.opcode | 128)); // opcode | 10000000
+			this.encodeOpcode((byte) (opcode | NextFlag));
 			inst.visit(this);
 			this.encodeJump(inst.next);
 		}
@@ -550,6 +588,11 @@ public class MozWriter extends InstructionVisitor {
 	@Override
 	public void visitTEnd(TEnd inst) {
 		this.encodeShift(inst.shift);
+		this.encodeLabel(inst.tag);
+		this.write_b(inst.value != null);
+		if (inst.value != null) {
+			this.encodeBstr(StringUtils.utf8(inst.value));
+		}
 	}
 
 	@Override
@@ -559,7 +602,7 @@ public class MozWriter extends InstructionVisitor {
 
 	@Override
 	public void visitTReplace(TReplace inst) {
-		this.encodeBstr(inst.value.getBytes());
+		this.encodeBstr(StringUtils.utf8(inst.value));
 	}
 
 	@Override
@@ -628,14 +671,14 @@ public class MozWriter extends InstructionVisitor {
 
 	@Override
 	public void visitNScan(NScan inst) {
-		// TODO Auto-generated method stub
-
+		this.write_u32((int) (inst.mask >>> 32));
+		this.write_u32((int) inst.mask);
+		this.encodeShift(inst.shift);
 	}
 
 	@Override
 	public void visitNDec(NDec inst) {
-		// TODO Auto-generated method stub
-
+		this.encodeJump(inst.jump);
 	}
 
 	@Override
@@ -671,4 +714,28 @@ public class MozWriter extends InstructionVisitor {
 		this.write_u32(inst.uid);
 	}
 
+	/* each state is 256 transitions in runs of the same value, then the one at EOF */
+
+	@Override
+	public void visitDfa(Dfa inst) {
+		this.encodeJump(inst.jump);
+		this.encodeNonTerminal(inst.dfa.name);
+		int[] table = inst.dfa.table;
+		this.write_u16(inst.dfa.size());
+		for (int s = 0; s < inst.dfa.size(); s++) {
+			int c = 0;
+			while (c < 256) {
+				int value = table[s * 256 + c];
+				int run = 1;
+				while (c + run < 256 && table[s * 256 + c + run] == value) {
+					run++;
+				}
+				this.write_i8(run - 1);
+				this.write_u32(value);
+				c += run;
+			}
+			this.write_u32(inst.dfa.eof[s]);
+		}
+	}
+
 }
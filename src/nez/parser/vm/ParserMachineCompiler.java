@@ -35,9 +35,26 @@ public class ParserMachineCompiler implements ParserCompiler {
 			code.initMemoPoint(strategy);
 		}
 		code.initCoverage(strategy);
-		new CompilerVisitor(code, grammar).compile();
 		long t2 = System.nanoTime();
+		Verbose.printElapsedTime("MemoPoint", t, t2);
+		/* as with +Ojit, the instructions that coverage counts must run one by one */
+		boolean dfa = strategy.Odfa && !strategy.Moz && !strategy.Coverage;
+		if (dfa) {
+			code.initDfa(strategy);
+			t = t2;
+			t2 = System.nanoTime();
+			Verbose.printElapsedTime("DfaCompilingTime", t, t2);
+		}
+		new CompilerVisitor(code, grammar).compile();
+		if (dfa) {
+			Verbose.println("dfa: %d tables", code.getDfaSize());
+		}
+		t = t2;
+		t2 = System.nanoTime();
 		Verbose.printElapsedTime("CompilingTime", t, t2);
+		if (strategy.Ojit) {
+			code.setJitFunction(ParserMachineJit.compile(strategy, code));
+		}
 		return code;
 	}
 
@@ -76,6 +93,8 @@ public class ParserMachineCompiler implements ParserCompiler {
 		protected void visitProduction(UList<MozInst> codeList, Production p, MozInst next) {
 			ProductionCode<MozInst> f = code.getProductionCode(p);
 			encodingProduction = p;
+			/* the code of a production with a DFA is only its fallback */
+			tokenDepth = code.getDfa(p) == null ? 0 : 1;
 			if (strategy.Moz) {
 				// next = Coverage.visitExitCoverage(p, next);
 				next = compile(p.getExpression(), next, null/* failjump */);
@@ -168,6 +187,10 @@ public class ParserMachineCompiler implements ParserCompiler {
 		@Override
 		public final MozInst visitNonTerminal(NonTerminal n, Object next) {
 			Production p = n.getProduction();
+			ParserMachineDfa dfa = code.getDfa(p);
+			if (dfa != null) {
+				return new Moz86.Dfa(dfa, this.compileNonTerminal(n, next), (MozInst) next);
+			}
 			if (strategy.Moz) {
 				MemoPoint m = code.getMemoPoint(p.getUniqueName());
 				ProductionCode<MozInst> f = code.getProductionCode(p);
@@ -237,12 +260,19 @@ public class ParserMachineCompiler implements ParserCompiler {
 					if (strategy.BinaryGrammar && ((Nez.Byte) inner).byteChar == 0) {
 						return new Moz86.BinaryRByte((MozInst) next);
 					}
+					if (strategy.SSE) {
+						return new Moz86.ScanRByte(((Nez.Byte) inner).byteChar, (MozInst) next);
+					}
 					return new Moz86.RByte(((Nez.Byte) inner).byteChar, (MozInst) next);
 				}
 				if (inner instanceof Nez.ByteSet) {
 					if (strategy.BinaryGrammar && ((Nez.ByteSet) inner).byteset[0]) {
 						return new Moz86.BinaryRSet(((Nez.ByteSet) inner).byteset, (MozInst) next);
 					}
+					long[] scan = strategy.SSE ? ParserMachineContext.scanWords(((Nez.ByteSet) inner).byteset) : null;
+					if (scan != null) {
+						return new Moz86.ScanRSet(((Nez.ByteSet) inner).byteset, scan, (MozInst) next);
+					}
 					return new Moz86.RSet(((Nez.ByteSet) inner).byteset, (MozInst) next);
 				}
 				if (inner instanceof Nez.MultiByte) {
@@ -290,6 +320,10 @@ public class ParserMachineCompiler implements ParserCompiler {
 
 		@Override
 		public MozInst visitPair(Nez.Pair p, Object next) {
+			Object[] runs = tokenDepth == 0 ? code.getTokenRuns(getEncodingProduction().getLocalName(), p) : null;
+			if (runs != null) {
+				return compileTokenRuns(runs, (MozInst) next);
+			}
 			Object nextStart = next;
 			for (int i = p.size() - 1; i >= 0; i--) {
 				Expression e = p.get(i);
@@ -301,6 +335,10 @@ public class ParserMachineCompiler implements ParserCompiler {
 		@Override
 		public MozInst visitSequence(Nez.Sequence p, Object next) {
 			// return visit(p.get(0), visit(p.get(1), (MozInst)next));
+			Object[] runs = tokenDepth == 0 ? code.getTokenRuns(getEncodingProduction().getLocalName(), p) : null;
+			if (runs != null) {
+				return compileTokenRuns(runs, (MozInst) next);
+			}
 			Object nextStart = next;
 			for (int i = p.size() - 1; i >= 0; i--) {
 				Expression e = p.get(i);
@@ -309,6 +347,28 @@ public class ParserMachineCompiler implements ParserCompiler {
 			return (MozInst) nextStart;
 		}
 
+		/* +Odfa: the code of a run is the fallback of its DFA */
+
+		private int tokenDepth = 0;
+
+		private MozInst compileTokenRuns(Object[] runs, MozInst next) {
+			for (int i = runs.length - 1; i >= 0; i--) {
+				if (runs[i] instanceof ParserMachineDfa.Run) {
+					ParserMachineDfa.Run run = (ParserMachineDfa.Run) runs[i];
+					MozInst fallback = next;
+					tokenDepth++;
+					for (int j = run.elements.length - 1; j >= 0; j--) {
+						fallback = compile(run.elements[j], fallback);
+					}
+					tokenDepth--;
+					next = new Moz86.Dfa(run.dfa, fallback, next);
+				} else {
+					next = compile((Expression) runs[i], next);
+				}
+			}
+			return next;
+		}
+
 		@Override
 		public final MozInst visitChoice(Nez.Choice p, Object next) {
 			if (p.predicted != null) {
@@ -1,38 +1,59 @@
 package nez.parser.vm;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import nez.ast.Source;
 import nez.ast.Symbol;
 import nez.ast.Tree;
 import nez.parser.ParserContext;
+import nez.parser.io.MappedFileSource;
 
 public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 
 	public ParserMachineContext(String s, T proto) {
 		super(s, proto);
+		initWords();
 	}
 
 	public ParserMachineContext(Source source, T proto) {
 		super(source, proto);
 		initVM();
+		initWords();
 	}
 
+	/* a StringSource is read from its array (inputs), other sources through Source */
+
 	@Override
 	public final boolean eof() {
+		if (inputs != null) {
+			return !(pos < length);
+		}
 		return this.source.eof(pos);
 	}
 
 	@Override
 	public final int read() {
+		if (inputs != null) {
+			return inputs[pos++] & 0xff;
+		}
 		return this.source.byteAt(pos++);
 	}
 
 	@Override
 	public final int prefetch() {
+		if (inputs != null) {
+			return inputs[pos] & 0xff;
+		}
 		return this.source.byteAt(pos);
 	}
 
 	@Override
 	public final boolean match(byte[] utf8) {
+		if (inputs != null) {
+			return super.match(utf8);
+		}
 		if (source.match(pos, utf8)) {
 			this.move(utf8.length);
 			return true;
@@ -47,11 +68,28 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 
 	@Override
 	public final byte byteAt(int pos) {
+		if (inputs != null) {
+			return inputs[pos];
+		}
 		return (byte) source.byteAt(pos);
 	}
 
 	private int head_pos = 0;
 
+	@Override
+	public void reset(Source source, T proto) {
+		super.reset(source, proto);
+		this.head_pos = 0;
+		this.initVM();
+		this.initWords();
+	}
+
+	@Override
+	public void bind(Source source, T proto) {
+		super.bind(source, proto);
+		this.initWords();
+	}
+
 	@Override
 	public final void back(int pos) {
 		if (head_pos < this.pos) {
@@ -72,11 +110,117 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 		this.pos = (int) pos;
 	}
 
+	/* ----------------------------------------------------------------- */
+	/* Scanning eight bytes at a time (+SSE) */
+
+	private final static long Ones = 0x0101010101010101L;
+	private final static long Lows = 0x7f7f7f7f7f7f7f7fL;
+	private final static long Highs = 0x8080808080808080L;
+	private final static int MaxScanBytes = 4;
+
+	/* the input as little-endian words, when the source holds it in memory */
+	private ByteBuffer words = null;
+	private int wordLimit = 0;
+
+	private void initWords() {
+		this.words = null;
+		this.wordLimit = 0;
+		if (inputs != null) {
+			this.words = ByteBuffer.wrap(inputs).order(ByteOrder.LITTLE_ENDIAN);
+			this.wordLimit = inputs.length;
+		} else if (source instanceof MappedFileSource && source.length() <= MappedFileSource.ChunkSize) {
+			this.words = source.subBuffer(0, source.length()).order(ByteOrder.LITTLE_ENDIAN);
+			this.wordLimit = (int) source.length();
+		}
+	}
+
+	/**
+	 * Returns the bytes on the smaller side of the set (those out of it, or
+	 * those in it), each repeated in a word and padded to MaxScanBytes words
+	 * with the first one, or null if both sides have more than MaxScanBytes
+	 * bytes.
+	 */
+
+	public final static long[] scanWords(boolean[] byteSet) {
+		int in = 0;
+		for (int c = 0; c < 256; c++) {
+			if (byteSet[c]) {
+				in++;
+			}
+		}
+		boolean side = in <= MaxScanBytes;
+		if (!side && 256 - in > MaxScanBytes || in == 0 || in == 256) {
+			return null;
+		}
+		long[] w = new long[MaxScanBytes];
+		int n = 0;
+		for (int c = 0; c < 256; c++) {
+			if (byteSet[c] == side) {
+				w[n++] = c * Ones;
+			}
+		}
+		Arrays.fill(w, n, MaxScanBytes, w[0]);
+		return w;
+	}
+
+	/* the high bit of each byte of x that is zero */
+
+	private static long zeros(long x) {
+		return ~(((x & Lows) + Lows) | x | Lows);
+	}
+
+	/* moves over the bytes equal to byteChar, as RByte does */
+
+	public final void scanByte(int byteChar) {
+		if (words != null) {
+			long w = byteChar * Ones;
+			int p = pos;
+			int limit = wordLimit - 8;
+			while (p <= limit) {
+				long x = words.getLong(p) ^ w;
+				if (x != 0) {
+					pos = p + (Long.numberOfTrailingZeros(x) >>> 3);
+					return;
+				}
+				p += 8;
+			}
+			pos = p;
+		}
+		while (prefetch() == byteChar) {
+			pos++;
+		}
+	}
+
+	/* moves over the bytes in byteSet, as RSet does; scan is scanWords(byteSet) */
+
+	public final void scanSet(boolean[] byteSet, long[] scan) {
+		if (words != null) {
+			long s0 = scan[0], s1 = scan[1], s2 = scan[2], s3 = scan[3];
+			long flip = byteSet[(int) s0 & 0xff] ? Highs : 0;
+			int p = pos;
+			int limit = wordLimit - 8;
+			while (p <= limit) {
+				long w = words.getLong(p);
+				long m = (zeros(w ^ s0) | zeros(w ^ s1) | zeros(w ^ s2) | zeros(w ^ s3)) ^ flip;
+				if (m != 0) {
+					pos = p + (Long.numberOfTrailingZeros(m) >>> 3);
+					return;
+				}
+				p += 8;
+			}
+			pos = p;
+		}
+		while (byteSet[prefetch()]) {
+			pos++;
+		}
+	}
+
 	// ----------------------------------------------------------------------
 
 	public static class StackData {
 		public Object ref;
 		public int value;
+		public int symbol; // the symbol point saved by a catch frame
 	}
 
 	private static int StackSize = 64;
@@ -85,22 +229,32 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 	private int catchStackTop;
 
 	public final void initVM() {
-		this.stacks = new StackData[StackSize];
-		for (int i = 0; i < StackSize; i++) {
-			this.stacks[i] = new StackData();
+		if (this.stacks == null) {
+			this.stacks = new StackData[StackSize];
+			for (int i = 0; i < StackSize; i++) {
+				this.stacks[i] = new StackData();
+			}
+		} else {
+			for (StackData s : this.stacks) {
+				s.ref = null;
+			}
 		}
 		this.stacks[0].ref = null;
 		this.stacks[0].value = 0;
-		this.stacks[1].ref = new Moz86.Exit(false);
+		this.stacks[1].ref = Moz86.Exit.FailExit;
 		this.stacks[1].value = pos;
-		this.stacks[2].ref = this.saveLog();
-		this.stacks[2].value = this.saveSymbolPoint();
-		this.stacks[3].ref = new Moz86.Exit(true);
+		this.stacks[2].value = this.saveLog();
+		this.stacks[2].symbol = this.saveSymbolPoint();
+		this.stacks[3].ref = Moz86.Exit.SuccExit;
 		this.stacks[3].value = 0;
 		this.catchStackTop = 0;
 		this.usedStackTop = 3;
 	}
 
+	final int getUsedStackDepth() {
+		return usedStackTop;
+	}
+
 	public final StackData getUsedStackTop() {
 		return stacks[usedStackTop];
 	}
@@ -127,11 +281,36 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 
 	// Instruction
 
+	private final static Object PinnedPos = new Object();
+
 	public final void xPos() {
 		StackData s = this.newUnusedStack();
+		s.ref = PinnedPos;
 		s.value = this.pos;
 	}
 
+	/**
+	 * Returns the oldest input position that the machine may read again: the
+	 * minimum of the backtrack positions on the catch stack (except the
+	 * outermost failure exit) and of the positions saved by xPos. A stale
+	 * PinnedPos mark can only make the result smaller, which is safe.
+	 */
+
+	public final long getOldestBacktrackPosition() {
+		int min = this.pos;
+		for (int i = 4; i <= usedStackTop; i++) {
+			if (stacks[i].ref == PinnedPos && stacks[i].value < min) {
+				min = stacks[i].value;
+			}
+		}
+		for (int c = catchStackTop; c > 0; c = stacks[c].value) {
+			if (stacks[c + 1].value < min) {
+				min = stacks[c + 1].value;
+			}
+		}
+		return min;
+	}
+
 	public final int xPPos() {
 		StackData s = this.popStack();
 		return s.value;
@@ -161,7 +340,7 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 		s1.ref = failjump;
 		s1.value = this.pos;
 		s2.value = this.saveLog();
-		s2.ref = this.saveSymbolPoint();
+		s2.symbol = this.saveSymbolPoint();
 	}
 
 	public final void xSucc() {
@@ -192,7 +371,7 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 			this.back(s1.value);
 		}
 		this.backLog(s2.value);
-		this.backSymbolPoint((Integer) s2.ref); // FIXME slow
+		this.backSymbolPoint(s2.symbol);
 		assert (s1.ref != null);
 		return (MozInst) s1.ref;
 	}
@@ -205,7 +384,7 @@ public class ParserMachineContext<T extends Tree<T>> extends ParserContext<T> {
 		s1.value = this.pos;
 		StackData s2 = stacks[catchStackTop + 2];
 		s2.value = this.saveLog();
-		s2.ref = this.saveSymbolPoint(); // FIXME slow
+		s2.symbol = this.saveSymbolPoint();
 		return next;
 	}
 
@@ -0,0 +1,963 @@
+package nez.parser.vm;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+import nez.lang.Expression;
+import nez.lang.Nez;
+import nez.lang.NonTerminal;
+import nez.lang.Production;
+import nez.parser.ParserStrategy;
+
+/**
+ * ParserMachineDfa matches a token-level production (+Odfa), one that has no
+ * tree construction and no symbol table, with a dense transition table
+ * int[state * 256 + byte] instead of the Alt/Succ/Fail instructions of its
+ * code.
+ *
+ * The states are built by running the alternatives of the production side by
+ * side, in their PEG order: an alternative that succeeds drops the ones after
+ * it, and a predicate runs beside the expression it guards. A lower
+ * alternative that succeeds while a higher one is still undecided keeps its
+ * end position in a mark. Productions that are recursive, that need more than
+ * MaxMarks marks or that have more than MaxStates states are left to their
+ * code, and so is an input that reaches a byte set with 0 at the end of input
+ * (Fallback).
+ *
+ * A run of token expressions in a sequence of any other production (Run) is
+ * matched by one DFA in the same way, with the code of its elements as the
+ * fallback.
+ */
+
+public final class ParserMachineDfa {
+	public final static int Fail = 0;
+	public final static int Succ = 1;
+	public final static int Fallback = 2;
+
+	/*
+	 * a transition is (state << 8) | marks, where the bit i of marks saves the
+	 * position before the byte in the mark i, or one of the final actions
+	 */
+	final static int Reject = -1;
+	final static int Accept = -2;
+	final static int AcceptNext = -3; // accepts the byte that it reads
+	final static int Escape = -4;
+	final static int AcceptMarked = -5; // -5 - i accepts at the mark i
+
+	final static int MaxStates = 256;
+	final static int MaxMarks = 4; // kept in the locals of match()
+
+	public final String name;
+	final int[] table;
+	final int[] eof;
+
+	ParserMachineDfa(String name, int[] table, int[] eof) {
+		this.name = name;
+		this.table = table;
+		this.eof = eof;
+	}
+
+	public final int size() {
+		return eof.length;
+	}
+
+	@Override
+	public String toString() {
+		return name + "(" + size() + " states)";
+	}
+
+	public final int match(ParserMachineContext<?> ctx) {
+		final int[] table = this.table;
+		int mark0 = 0, mark1 = 0, mark2 = 0, mark3 = 0;
+		int start = ctx.pos;
+		int s = 0;
+		int t;
+		while (true) {
+			t = ctx.eof() ? eof[s >> 8] : table[s | ctx.prefetch()];
+			if (t < 0) {
+				break;
+			}
+			int m = t & 0xff;
+			if (m != 0) {
+				int pos = ctx.pos;
+				if ((m & 1) != 0) {
+					mark0 = pos;
+				}
+				if ((m & 2) != 0) {
+					mark1 = pos;
+				}
+				if ((m & 4) != 0) {
+					mark2 = pos;
+				}
+				if ((m & 8) != 0) {
+					mark3 = pos;
+				}
+			}
+			ctx.move(1);
+			s = t & ~0xff;
+		}
+		switch (t) {
+		case Accept:
+			return Succ;
+		case AcceptNext:
+			ctx.move(1);
+			return Succ;
+		case Escape:
+			ctx.back(start);
+			return Fallback;
+		case Reject:
+			ctx.back(start);
+			return Fail;
+		default:
+			int i = AcceptMarked - t;
+			ctx.back(i == 0 ? mark0 : i == 1 ? mark1 : i == 2 ? mark2 : mark3);
+			return Succ;
+		}
+	}
+
+	/* compiler */
+
+	public final static ParserMachineDfa compile(ParserStrategy strategy, Production p) {
+		try {
+			Builder b = new Builder(strategy);
+			return b.build(p.getLocalName(), b.production(p));
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	public final static ParserMachineDfa compile(ParserStrategy strategy, String name, Expression[] run) {
+		try {
+			Builder b = new Builder(strategy);
+			int[] inners = new int[run.length];
+			for (int i = 0; i < run.length; i++) {
+				inners[i] = b.node(run[i]);
+			}
+			return b.build(name, b.list(Seq, inners));
+		} catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	/* runs of token expressions in a sequence */
+
+	public final static class Run {
+		public final Expression[] elements;
+		public final ParserMachineDfa dfa;
+
+		Run(Expression[] elements, ParserMachineDfa dfa) {
+			this.elements = elements;
+			this.dfa = dfa;
+		}
+	}
+
+	/* the elements of a sequence, where each run matched by a DFA is a Run, or null if none is */
+
+	final static Object[] split(ParserStrategy strategy, Tokens tokens, String name, Expression seq) {
+		ArrayList<Expression> l = new ArrayList<>();
+		flatten(seq, l);
+		ArrayList<Object> segments = new ArrayList<>();
+		boolean found = false;
+		int i = 0;
+		while (i < l.size()) {
+			int j = i;
+			boolean structured = false;
+			while (j < l.size() && tokens.isToken(l.get(j))) {
+				structured |= isStructured(l.get(j));
+				j++;
+			}
+			/* a single nonterminal has the DFA of its production */
+			if (structured && !(j == i + 1 && l.get(i) instanceof NonTerminal)) {
+				Expression[] run = l.subList(i, j).toArray(new Expression[j - i]);
+				ParserMachineDfa dfa = tokens.compile(strategy, name, run);
+				if (dfa != null) {
+					segments.add(new Run(run, dfa));
+					found = true;
+					i = j;
+					continue;
+				}
+			}
+			j = Math.max(j, i + 1);
+			segments.addAll(l.subList(i, j));
+			i = j;
+		}
+		return found ? segments.toArray() : null;
+	}
+
+	private static void flatten(Expression e, ArrayList<Expression> l) {
+		if (e instanceof Nez.Pair || e instanceof Nez.Sequence) {
+			for (Expression sub : e) {
+				flatten(sub, l);
+			}
+		} else {
+			l.add(e);
+		}
+	}
+
+	/* Byte, Set, Str and their repetitions are single instructions already */
+
+	private static boolean isStructured(Expression e) {
+		if (e instanceof Nez.Option || e instanceof Nez.ZeroMore || e instanceof Nez.OneMore || e instanceof Nez.Not || e instanceof Nez.And) {
+			Expression inner = e.get(0);
+			return !(inner instanceof Nez.Byte || inner instanceof Nez.ByteSet || inner instanceof Nez.MultiByte || inner instanceof Nez.Any);
+		}
+		return e instanceof NonTerminal || e instanceof Nez.Choice || e instanceof Nez.Dispatch;
+	}
+
+	/* token expressions have no tree construction (when trees are built), no symbol table and no recursion */
+
+	final static class Tokens {
+		private final boolean tree;
+		private final IdentityHashMap<Expression, Boolean> exprMap = new IdentityHashMap<>();
+		private final HashMap<String, Boolean> productionMap = new HashMap<>();
+		private final HashMap<String, ParserMachineDfa> runMap = new HashMap<>();
+
+		Tokens(ParserStrategy strategy) {
+			this.tree = strategy.TreeConstruction;
+		}
+
+		final boolean isToken(Production p) {
+			String name = p.getUniqueName();
+			Boolean b = productionMap.get(name);
+			if (b == null) {
+				productionMap.put(name, false); // recursive
+				b = isToken(p.getExpression());
+				productionMap.put(name, b);
+			}
+			return b;
+		}
+
+		/* the same run (such as _ ':' _) appears in many sequences */
+
+		final ParserMachineDfa compile(ParserStrategy strategy, String name, Expression[] run) {
+			String key = Arrays.toString(run);
+			if (!runMap.containsKey(key)) {
+				runMap.put(key, ParserMachineDfa.compile(strategy, name, run));
+			}
+			return runMap.get(key);
+		}
+
+		final boolean isToken(Expression e) {
+			Boolean b = exprMap.get(e);
+			if (b == null) {
+				b = check(e);
+				exprMap.put(e, b);
+			}
+			return b;
+		}
+
+		private boolean check(Expression e) {
+			if (e instanceof NonTerminal) {
+				Production p = ((NonTerminal) e).getProduction();
+				return p != null && isToken(p);
+			}
+			if (e instanceof Nez.Byte || e instanceof Nez.ByteSet || e instanceof Nez.Any || e instanceof Nez.MultiByte || e instanceof Nez.Empty || e instanceof Nez.Fail) {
+				return true;
+			}
+			if (e instanceof Nez.IfCondition || e instanceof Nez.OnCondition || e instanceof Nez.Label) {
+				return true;
+			}
+			if (e instanceof Nez.BeginTree || e instanceof Nez.EndTree || e instanceof Nez.FoldTree || e instanceof Nez.Tag || e instanceof Nez.Replace) {
+				return !tree;
+			}
+			if (e instanceof Nez.LinkTree || e instanceof Nez.Detree) {
+				return !tree && isToken(e.get(0));
+			}
+			if (e instanceof Nez.Pair || e instanceof Nez.Sequence || e instanceof Nez.Choice || e instanceof Nez.Dispatch || e instanceof Nez.Option || e instanceof Nez.ZeroMore || e instanceof Nez.OneMore || e instanceof Nez.Not || e instanceof Nez.And) {
+				for (Expression sub : e) {
+					if (!isToken(sub)) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	/* expressions, with nonterminals inlined and choices made binary */
+
+	private final static int Set = 0;
+	private final static int Seq = 1;
+	private final static int Choice = 2;
+	private final static int Star = 3;
+	private final static int Not = 4;
+	private final static int And = 5;
+	private final static int Empty = 6;
+	private final static int Failure = 7;
+	private final static int Dispatch = 8;
+
+	private final static class Node {
+		final int kind;
+		boolean[] set;
+		boolean any;
+		int[] inners;
+		byte[] indexMap;
+		boolean firstFails;
+
+		Node(int kind) {
+			this.kind = kind;
+		}
+	}
+
+	/* the running alternatives; a marker item (< 0) is passed when the alternative of its Alt succeeds */
+
+	private final static int Thread = 0;
+	private final static int Alt = 1;
+	private final static int Pred = 2;
+	private final static int Accepted = 3;
+	private final static int Failed = 4;
+	private final static int Escaped = 5;
+
+	private final static class Term {
+		final int kind;
+		final int[] items;
+		final int marker;
+		final boolean not;
+		final Term left; // the first alternative, or the predicate
+		final Term right;
+
+		Term(int kind, int[] items, int marker, boolean not, Term left, Term right) {
+			this.kind = kind;
+			this.items = items;
+			this.marker = marker;
+			this.not = not;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	private final static Term FailedTerm = new Term(Failed, null, 0, false, null, null);
+	private final static Term EscapedTerm = new Term(Escaped, null, 0, false, null, null);
+	/* an accepted leaf keeps its position in the mark slot, or is fresh (-1) at the current position */
+	private final static Term FreshAcceptedTerm = new Term(Accepted, null, -1, false, null, null);
+	private final static Term EmptyThread = new Term(Thread, new int[0], 0, false, null, null);
+
+	private final static class Builder {
+		private final static int EOF = 256;
+		private final static int MaxDepth = 256;
+		private final static int MaxKey = 4096;
+		private final static int None = Integer.MIN_VALUE;
+
+		private final boolean tree;
+		private final ArrayList<Node> nodes = new ArrayList<>();
+		private final IdentityHashMap<Expression, Integer> converted = new IdentityHashMap<>();
+		private final HashMap<String, Integer> productions = new HashMap<>();
+		private final HashSet<String> visiting = new HashSet<>();
+		private int markers = 0;
+
+		private final ArrayList<Term> states = new ArrayList<>();
+		private final HashMap<String, Integer> stateMap = new HashMap<>();
+
+		Builder(ParserStrategy strategy) {
+			this.tree = strategy.TreeConstruction;
+		}
+
+		ParserMachineDfa build(String name, int root) {
+			state(new Term(Thread, new int[] { root }, 0, false, null, null));
+			ArrayList<int[]> rows = new ArrayList<>();
+			int[] eof = new int[MaxStates * 4];
+			int[] classes = byteClasses();
+			for (int s = 0; s < states.size(); s++) {
+				int[] row = new int[256];
+				for (int c = 0; c < 256; c++) {
+					row[c] = classes[c] == c ? action(states.get(s), c) : row[classes[c]];
+				}
+				eof[s] = action(states.get(s), EOF);
+				rows.add(row);
+			}
+			return minimize(name, rows, eof);
+		}
+
+		/* the bytes that no set or dispatch tells apart act the same; each maps to the first of its class */
+
+		private int[] byteClasses() {
+			int[] classes = new int[256];
+			HashMap<String, Integer> map = new HashMap<>();
+			StringBuilder sb = new StringBuilder();
+			for (int c = 0; c < 256; c++) {
+				sb.setLength(0);
+				for (Node n : nodes) {
+					if (n.kind == Set) {
+						sb.append(n.set[c] ? '1' : '0');
+					} else if (n.kind == Dispatch) {
+						sb.append((char) n.indexMap[c]);
+					}
+				}
+				String key = sb.toString();
+				Integer first = map.get(key);
+				if (first == null) {
+					first = c;
+					map.put(key, first);
+				}
+				classes[c] = first;
+			}
+			return classes;
+		}
+
+		/* merges the states that act the same on every byte (Moore's algorithm) */
+
+		private static ParserMachineDfa minimize(String name, ArrayList<int[]> rows, int[] eof) {
+			int n = rows.size();
+			int[] cls = new int[n];
+			int classes = 1;
+			while (true) {
+				HashMap<IntBuffer, Integer> map = new HashMap<>();
+				int[] next = new int[n];
+				for (int s = 0; s < n; s++) {
+					int[] sig = new int[258];
+					sig[0] = cls[s];
+					for (int c = 0; c < 256; c++) {
+						sig[c + 1] = rename(rows.get(s)[c], cls);
+					}
+					sig[257] = eof[s];
+					IntBuffer key = IntBuffer.wrap(sig);
+					Integer id = map.get(key);
+					if (id == null) {
+						id = map.size();
+						map.put(key, id);
+					}
+					next[s] = id;
+				}
+				cls = next;
+				if (map.size() == classes) {
+					break;
+				}
+				classes = map.size();
+			}
+			if (classes > MaxStates) {
+				throw new Unsupported();
+			}
+			int[] table = new int[classes * 256];
+			int[] eofs = new int[classes];
+			for (int s = 0; s < n; s++) {
+				for (int c = 0; c < 256; c++) {
+					table[cls[s] * 256 + c] = rename(rows.get(s)[c], cls);
+				}
+				eofs[cls[s]] = eof[s];
+			}
+			return new ParserMachineDfa(name, table, eofs);
+		}
+
+		private static int rename(int t, int[] cls) {
+			return t < 0 ? t : (cls[t >> 8] << 8) | (t & 0xff);
+		}
+
+		/* conversion */
+
+		private int production(Production p) {
+			String name = p.getUniqueName();
+			Integer id = productions.get(name);
+			if (id == null) {
+				if (!visiting.add(name)) {
+					throw new Unsupported(); // recursive
+				}
+				id = node(p.getExpression());
+				visiting.remove(name);
+				productions.put(name, id);
+			}
+			return id;
+		}
+
+		private int add(Node n) {
+			nodes.add(n);
+			return nodes.size() - 1;
+		}
+
+		private int set(boolean[] set, boolean any) {
+			Node n = new Node(Set);
+			n.set = Arrays.copyOf(set, 256);
+			n.any = any;
+			return add(n);
+		}
+
+		private int byteChar(int c) {
+			boolean[] set = new boolean[256];
+			set[c] = true;
+			return set(set, false);
+		}
+
+		private int list(int kind, int... inners) {
+			Node n = new Node(kind);
+			n.inners = inners;
+			return add(n);
+		}
+
+		private int node(Expression e) {
+			Integer id = converted.get(e);
+			if (id == null) {
+				id = convert(e);
+				converted.put(e, id);
+			}
+			return id;
+		}
+
+		private int convert(Expression e) {
+			if (e instanceof NonTerminal) {
+				Production p = ((NonTerminal) e).getProduction();
+				if (p == null) {
+					throw new Unsupported();
+				}
+				return production(p);
+			}
+			if (e instanceof Nez.Byte) {
+				return byteChar(((Nez.Byte) e).byteChar);
+			}
+			if (e instanceof Nez.ByteSet) {
+				return set(((Nez.ByteSet) e).byteset, false);
+			}
+			if (e instanceof Nez.Any) {
+				boolean[] set = new boolean[256];
+				Arrays.fill(set, true);
+				return set(set, true);
+			}
+			if (e instanceof Nez.MultiByte) {
+				byte[] utf8 = ((Nez.MultiByte) e).byteseq;
+				int[] inners = new int[utf8.length];
+				for (int i = 0; i < utf8.length; i++) {
+					inners[i] = byteChar(utf8[i] & 0xff);
+				}
+				return list(Seq, inners);
+			}
+			if (e instanceof Nez.Pair || e instanceof Nez.Sequence) {
+				int[] inners = new int[e.size()];
+				for (int i = 0; i < inners.length; i++) {
+					inners[i] = node(e.get(i));
+				}
+				return list(Seq, inners);
+			}
+			if (e instanceof Nez.Choice) {
+				Nez.ChoicePrediction p = ((Nez.Choice) e).predicted;
+				if (p != null) {
+					return dispatch(e, p.indexMap, p.striped, false);
+				}
+				return choice(e, 0);
+			}
+			if (e instanceof Nez.Dispatch) {
+				return dispatch(e, ((Nez.Dispatch) e).indexMap, null, true);
+			}
+			if (e instanceof Nez.Option) {
+				return list(Choice, node(e.get(0)), list(Empty));
+			}
+			if (e instanceof Nez.ZeroMore) {
+				return list(Star, node(e.get(0)));
+			}
+			if (e instanceof Nez.OneMore) {
+				int inner = node(e.get(0));
+				return list(Seq, inner, list(Star, inner));
+			}
+			if (e instanceof Nez.Not) {
+				return list(Not, node(e.get(0)));
+			}
+			if (e instanceof Nez.And) {
+				return list(And, node(e.get(0)));
+			}
+			if (e instanceof Nez.Empty || e instanceof Nez.IfCondition || e instanceof Nez.OnCondition || e instanceof Nez.Label) {
+				return list(Empty);
+			}
+			if (e instanceof Nez.Fail) {
+				return list(Failure);
+			}
+			if (!tree) {
+				if (e instanceof Nez.BeginTree || e instanceof Nez.EndTree || e instanceof Nez.FoldTree || e instanceof Nez.Tag || e instanceof Nez.Replace) {
+					return list(Empty);
+				}
+				if (e instanceof Nez.LinkTree || e instanceof Nez.Detree) {
+					return node(e.get(0));
+				}
+			}
+			throw new Unsupported();
+		}
+
+		/* e1 / (e2 / ... ) */
+
+		private int choice(Expression e, int i) {
+			if (i == e.size() - 1) {
+				return node(e.get(i));
+			}
+			int first = node(e.get(i));
+			return list(Choice, first, choice(e, i + 1));
+		}
+
+		/* as compiled to Moz86.Dispatch, the choices of a prediction are not predicted again */
+
+		private int dispatch(Expression e, byte[] indexMap, boolean[] striped, boolean firstFails) {
+			int[] inners = new int[e.size()];
+			for (int i = 0; i < inners.length; i++) {
+				if (striped != null && striped[i]) {
+					throw new Unsupported();
+				}
+				Expression inner = e.get(i);
+				inners[i] = inner instanceof Nez.Choice ? choice(inner, 0) : node(inner);
+			}
+			Node n = new Node(Dispatch);
+			n.inners = inners;
+			n.indexMap = indexMap;
+			n.firstFails = firstFails;
+			return add(n);
+		}
+
+		/* states */
+
+		private int state(Term t) {
+			StringBuilder sb = new StringBuilder();
+			key(t, sb, new HashMap<Integer, Integer>());
+			String key = sb.toString();
+			Integer id = stateMap.get(key);
+			if (id == null) {
+				id = states.size();
+				if (id == MaxStates * 4) { // before minimization
+					throw new Unsupported();
+				}
+				states.add(t);
+				stateMap.put(key, id);
+			}
+			return id;
+		}
+
+		private void key(Term t, StringBuilder sb, HashMap<Integer, Integer> renamed) {
+			if (sb.length() > MaxKey) {
+				throw new Unsupported();
+			}
+			switch (t.kind) {
+			case Thread:
+				sb.append('(');
+				for (int item : t.items) {
+					if (item < 0) {
+						sb.append('m').append(rename(item, renamed));
+					} else {
+						sb.append(item);
+					}
+					sb.append(' ');
+				}
+				sb.append(')');
+				return;
+			case Alt:
+				sb.append("A").append(rename(-t.marker - 1, renamed)).append('[');
+				key(t.left, sb, renamed);
+				key(t.right, sb, renamed);
+				sb.append(']');
+				return;
+			case Pred:
+				sb.append(t.not ? 'N' : 'P');
+				for (int item : t.items) {
+					sb.append('m').append(rename(item, renamed)).append(' ');
+				}
+				sb.append('[');
+				key(t.left, sb, renamed);
+				key(t.right, sb, renamed);
+				sb.append(']');
+				return;
+			default:
+				sb.append('@').append(t.marker);
+			}
+		}
+
+		private static int rename(int item, HashMap<Integer, Integer> renamed) {
+			Integer n = renamed.get(item);
+			if (n == null) {
+				n = renamed.size();
+				renamed.put(item, n);
+			}
+			return n;
+		}
+
+		/* the action of a state on a byte c (or EOF) */
+
+		private int action(Term s, int c) {
+			Term t = settle(close(s, c), true);
+			int f = finalAction(t);
+			if (f != None) {
+				return f;
+			}
+			if (c == EOF) {
+				f = finalAction(settle(consume(t, c), true));
+				return f == None ? Escape : f;
+			}
+			Term next = consume(t, c);
+			f = finalAction(next);
+			if (f != None) {
+				return f == Accept && next.kind == Thread ? AcceptNext : f;
+			}
+			int used = marks(next);
+			int flag = 0;
+			if ((used & Fresh) != 0) {
+				int slot = Integer.numberOfTrailingZeros(~used);
+				if (slot >= MaxMarks) {
+					throw new Unsupported();
+				}
+				next = unfresh(next, new Term(Accepted, null, slot, false, null, null));
+				flag = 1 << slot;
+			}
+			return (state(next) << 8) | flag;
+		}
+
+		private static int finalAction(Term t) {
+			switch (t.kind) {
+			case Failed:
+				return Reject;
+			case Escaped:
+				return Escape;
+			case Accepted:
+				return t.marker == -1 ? Accept : AcceptMarked - t.marker;
+			case Thread:
+				return t.items.length == 0 ? Accept : None;
+			default:
+				return None;
+			}
+		}
+
+		/* closure: runs the items that consume no byte, knowing the next byte c */
+
+		private Term close(Term t, int c) {
+			switch (t.kind) {
+			case Thread:
+				return closeItems(t.items, 0, c, 0);
+			case Alt:
+				return alt(t.marker, close(t.left, c), close(t.right, c));
+			case Pred:
+				return pred(t.not, t.items, close(t.left, c), close(t.right, c));
+			default:
+				return t;
+			}
+		}
+
+		private Term closeItems(int[] items, int start, int c, int depth) {
+			if (depth > MaxDepth) {
+				throw new Unsupported(); // a repetition of an empty match
+			}
+			int i = start;
+			while (i < items.length && items[i] < 0) {
+				i++;
+			}
+			if (i == items.length) {
+				return EmptyThread;
+			}
+			Node n = nodes.get(items[i]);
+			switch (n.kind) {
+			case Set:
+				return new Term(Thread, i == 0 ? items : Arrays.copyOfRange(items, i, items.length), 0, false, null, null);
+			case Empty:
+				return closeItems(items, i + 1, c, depth + 1);
+			case Failure:
+				return FailedTerm;
+			case Seq:
+				return closeItems(concat(n.inners, items, i + 1), 0, c, depth + 1);
+			case Choice: {
+				int m = -(++markers);
+				Term first = closeItems(concat(new int[] { n.inners[0], m }, items, i + 1), 0, c, depth + 1);
+				Term second = closeItems(concat(new int[] { n.inners[1] }, items, i + 1), 0, c, depth + 1);
+				return alt(m, first, second);
+			}
+			case Star: {
+				int m = -(++markers);
+				Term first = closeItems(concat(new int[] { n.inners[0], m, items[i] }, items, i + 1), 0, c, depth + 1);
+				Term second = closeItems(items, i + 1, c, depth + 1);
+				return alt(m, first, second);
+			}
+			case Not:
+			case And: {
+				Term cond = closeItems(new int[] { n.inners[0] }, 0, c, depth + 1);
+				return pred(n.kind == Not, guards(items, i + 1), cond, closeItems(items, i + 1, c, depth + 1));
+			}
+			default: /* Dispatch reads the next byte; 0 at the end of input */
+				int index = n.indexMap[c == EOF ? 0 : c] & 0xff;
+				if (index == 0 || (index == 1 && n.firstFails)) {
+					return FailedTerm;
+				}
+				return closeItems(concat(new int[] { n.inners[index - 1] }, items, i + 1), 0, c, depth + 1);
+			}
+		}
+
+		private static int[] concat(int[] head, int[] items, int start) {
+			int[] a = new int[head.length + items.length - start];
+			System.arraycopy(head, 0, a, 0, head.length);
+			System.arraycopy(items, start, a, head.length, items.length - start);
+			return a;
+		}
+
+		private Term alt(int m, Term first, Term second) {
+			if (first.kind == Escaped || first.kind == Failed) {
+				return first.kind == Failed ? second : first;
+			}
+			if (!mentions(first, m)) {
+				return first;
+			}
+			if (second.kind == Failed) {
+				return strip(first, m);
+			}
+			if (second.kind == Escaped) {
+				return second;
+			}
+			return new Term(Alt, null, m, false, first, second);
+		}
+
+		/* the alternatives that end after a predicate cannot succeed before it */
+
+		private static int[] guards(int[] items, int start) {
+			int n = 0;
+			for (int i = start; i < items.length; i++) {
+				if (items[i] < 0) {
+					n++;
+				}
+			}
+			int[] guards = new int[n];
+			for (int i = start; i < items.length; i++) {
+				if (items[i] < 0) {
+					guards[--n] = items[i];
+				}
+			}
+			return guards;
+		}
+
+		private static Term pred(boolean not, int[] guards, Term cond, Term body) {
+			if (cond.kind == Escaped) {
+				return cond;
+			}
+			if (cond.kind == Thread && cond.items.length == 0) {
+				return not ? FailedTerm : body;
+			}
+			if (cond.kind == Failed) {
+				return not ? body : FailedTerm;
+			}
+			if (body.kind == Failed || body.kind == Escaped) {
+				return body;
+			}
+			return new Term(Pred, guards, 0, not, cond, body);
+		}
+
+		private static boolean contains(int[] items, int m) {
+			for (int item : items) {
+				if (item == m) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/* the first alternative has succeeded when no path of it can fail back */
+
+		private static boolean mentions(Term t, int m) {
+			switch (t.kind) {
+			case Thread:
+				return contains(t.items, m);
+			case Alt:
+				return mentions(t.left, m) || mentions(t.right, m);
+			case Pred:
+				return contains(t.items, m) || mentions(t.right, m);
+			default:
+				return false;
+			}
+		}
+
+		private static int[] remove(int[] items, int m) {
+			if (!contains(items, m)) {
+				return items;
+			}
+			int[] a = new int[items.length - 1];
+			int n = 0;
+			for (int item : items) {
+				if (item != m) {
+					a[n++] = item;
+				}
+			}
+			return a;
+		}
+
+		private static Term strip(Term t, int m) {
+			switch (t.kind) {
+			case Thread:
+				return contains(t.items, m) ? new Term(Thread, remove(t.items, m), 0, false, null, null) : t;
+			case Alt:
+				return new Term(Alt, null, t.marker, false, strip(t.left, m), strip(t.right, m));
+			case Pred:
+				return new Term(Pred, remove(t.items, m), 0, t.not, t.left, strip(t.right, m));
+			default:
+				return t;
+			}
+		}
+
+		/* an alternative that has succeeded below a running one keeps its position */
+
+		private Term settle(Term t, boolean root) {
+			switch (t.kind) {
+			case Thread:
+				return !root && t.items.length == 0 ? FreshAcceptedTerm : t;
+			case Alt:
+				return alt(t.marker, settle(t.left, false), settle(t.right, false));
+			case Pred:
+				return pred(t.not, t.items, t.left, settle(t.right, false));
+			default:
+				return t;
+			}
+		}
+
+		/* the mark slots used by the accepted leaves, and Fresh if there is a fresh one */
+
+		private final static int Fresh = 1 << 16;
+
+		private static int marks(Term t) {
+			switch (t.kind) {
+			case Accepted:
+				return t.marker == -1 ? Fresh : 1 << t.marker;
+			case Alt:
+				return marks(t.left) | marks(t.right);
+			case Pred:
+				return marks(t.right);
+			default:
+				return 0;
+			}
+		}
+
+		private static Term unfresh(Term t, Term marked) {
+			switch (t.kind) {
+			case Accepted:
+				return t.marker == -1 ? marked : t;
+			case Alt:
+				return new Term(Alt, null, t.marker, false, unfresh(t.left, marked), unfresh(t.right, marked));
+			case Pred:
+				return new Term(Pred, t.items, 0, t.not, t.left, unfresh(t.right, marked));
+			default:
+				return t;
+			}
+		}
+
+		/* consumes c; each thread starts with a byte set after the closure */
+
+		private Term consume(Term t, int c) {
+			switch (t.kind) {
+			case Thread: {
+				if (t.items.length == 0) {
+					return t; // a predicate that has matched
+				}
+				Node n = nodes.get(t.items[0]);
+				if (c == EOF) {
+					return n.set[0] && !n.any ? EscapedTerm : FailedTerm;
+				}
+				if (!n.set[c]) {
+					return FailedTerm;
+				}
+				return new Term(Thread, Arrays.copyOfRange(t.items, 1, t.items.length), 0, false, null, null);
+			}
+			case Alt:
+				return alt(t.marker, consume(t.left, c), consume(t.right, c));
+			case Pred:
+				return pred(t.not, t.items, consume(t.left, c), consume(t.right, c));
+			default:
+				return t;
+			}
+		}
+	}
+}
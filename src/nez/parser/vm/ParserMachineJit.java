@@ -0,0 +1,1069 @@
+package nez.parser.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nez.ast.Symbol;
+import nez.lang.Expression;
+import nez.lang.Expressions;
+import nez.lang.FunctionName;
+import nez.lang.Grammar;
+import nez.lang.Nez;
+import nez.lang.NonTerminal;
+import nez.lang.Production;
+import nez.lang.Typestate;
+import nez.parser.MemoPoint;
+import nez.parser.ParserStrategy;
+import nez.util.StringUtils;
+import nez.util.Verbose;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * ParserMachineJit translates a compiled grammar into a JVM class, which has
+ * one static method per production. The generated code follows the Moz86
+ * semantics, but backtracking is done with local variables instead of the
+ * catch stack of ParserMachineContext.
+ *
+ * @author kiki
+ *
+ */
+
+public class ParserMachineJit implements Opcodes {
+
+	public static interface JitFunction {
+		public boolean parse(ParserMachineContext<?> ctx);
+
+		/* entry is the index of the production in the compiled grammar */
+		public boolean parse(ParserMachineContext<?> ctx, int entry);
+	}
+
+	private final static String JitFunctionClass = "nez/parser/vm/ParserMachineJit$JitFunction";
+	private final static String ContextClass = "nez/parser/vm/ParserMachineContext";
+	private final static String ContextDesc = "(L" + ContextClass + ";)Z";
+	private final static String EntryDesc = "(L" + ContextClass + ";I)Z";
+	private final static String TreeDesc = "Lnez/ast/Tree;";
+	private final static String SymbolDesc = "Lnez/ast/Symbol;";
+	private final static String DfaClass = "nez/parser/vm/ParserMachineDfa";
+	private final static AtomicInteger unique = new AtomicInteger(0);
+
+	public final static JitFunction compile(ParserStrategy strategy, MozCode code) {
+		if (strategy.Moz || strategy.Coverage) {
+			return null;
+		}
+		long t = System.nanoTime();
+		try {
+			JitFunction f = new ParserMachineJit(strategy, code).generate();
+			long t2 = System.nanoTime();
+			Verbose.printElapsedTime("JitCompilingTime", t, t2);
+			return f;
+		} catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+			// "Method code too large" or a verify error falls back to Moz86
+			Verbose.println("jit: disabled (%s)", e);
+			return null;
+		}
+	}
+
+	private final ParserStrategy strategy;
+	private final MozCode code;
+	private final Grammar grammar;
+	private final String className;
+	private final ClassWriter cw;
+	private final HashMap<String, String> funcMap = new HashMap<>();
+	private final HashMap<String, String> constMap = new HashMap<>();
+	private final HashMap<String, Object> constValues = new HashMap<>();
+
+	ParserMachineJit(ParserStrategy strategy, MozCode code) {
+		this.strategy = strategy;
+		this.code = code;
+		this.grammar = code.getCompiledGrammar();
+		this.className = "nez/parser/vm/JitCode" + unique.getAndIncrement();
+		this.cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+	}
+
+	JitFunction generate() throws ReflectiveOperationException {
+		cw.visit(V1_6, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, "java/lang/Object", new String[] { JitFunctionClass });
+		for (Production p : grammar) {
+			funcMap.put(p.getUniqueName(), "p" + funcMap.size() + "_" + toJavaName(p.getLocalName()));
+		}
+		for (Production p : grammar) {
+			new ProductionGenerator(p).generate();
+		}
+		generateConstants();
+		generateEntryPoint();
+		cw.visitEnd();
+		byte[] b = cw.toByteArray();
+		Class<?> c = new JitClassLoader().define(className.replace('/', '.'), b);
+		for (String name : constValues.keySet()) {
+			if (constValues.get(name) instanceof ParserMachineDfa) {
+				c.getField(name).set(null, constValues.get(name));
+			}
+		}
+		Verbose.println("jit: %s %d productions, %d bytes", className, funcMap.size(), b.length);
+		return (JitFunction) c.getDeclaredConstructor().newInstance();
+	}
+
+	private static String toJavaName(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			sb.append(Character.isLetterOrDigit(ch) && ch < 128 ? ch : '_');
+		}
+		return sb.toString();
+	}
+
+	private void generateEntryPoint() {
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		String start = funcMap.get(grammar.getStartProduction().getUniqueName());
+		mv = cw.visitMethod(ACC_PUBLIC, "parse", ContextDesc, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitMethodInsn(INVOKESTATIC, className, start, ContextDesc);
+		mv.visitInsn(IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		Label[] entries = new Label[grammar.size()];
+		Label undefined = new Label();
+		mv = cw.visitMethod(ACC_PUBLIC, "parse", EntryDesc, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ILOAD, 2);
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new Label();
+		}
+		mv.visitTableSwitchInsn(0, entries.length - 1, undefined, entries);
+		for (int i = 0; i < entries.length; i++) {
+			mv.visitLabel(entries[i]);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKESTATIC, className, funcMap.get(grammar.get(i).getUniqueName()), ContextDesc);
+			mv.visitInsn(IRETURN);
+		}
+		mv.visitLabel(undefined);
+		mv.visitInsn(ICONST_0);
+		mv.visitInsn(IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	/*
+	 * Constants are static final fields, initialized in <clinit>; the DFA
+	 * tables are too large for the constant pool and are set after loading.
+	 */
+
+	private String constField(String prefix, String key, Object value) {
+		String name = constMap.get(prefix + key);
+		if (name == null) {
+			name = prefix + constMap.size();
+			constMap.put(prefix + key, name);
+			constValues.put(name, value);
+		}
+		return name;
+	}
+
+	private void generateConstants() {
+		MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		for (String name : constValues.keySet()) {
+			Object value = constValues.get(name);
+			if (value instanceof boolean[]) {
+				cw.visitField(ACC_STATIC | ACC_FINAL, name, "[Z", null, null).visitEnd();
+				mv.visitLdcInsn(encodeSet((boolean[]) value));
+				mv.visitMethodInsn(INVOKESTATIC, "nez/parser/vm/ParserMachineJit", "decodeSet", "(Ljava/lang/String;)[Z");
+				mv.visitFieldInsn(PUTSTATIC, className, name, "[Z");
+			} else if (value instanceof ParserMachineDfa) {
+				cw.visitField(ACC_PUBLIC | ACC_STATIC, name, "L" + DfaClass + ";", null, null).visitEnd();
+			} else if (value instanceof long[]) {
+				long[] w = (long[]) value;
+				cw.visitField(ACC_STATIC | ACC_FINAL, name, "[J", null, null).visitEnd();
+				mv.visitLdcInsn(w.length);
+				mv.visitIntInsn(NEWARRAY, T_LONG);
+				for (int i = 0; i < w.length; i++) {
+					mv.visitInsn(DUP);
+					mv.visitLdcInsn(i);
+					mv.visitLdcInsn(w[i]);
+					mv.visitInsn(LASTORE);
+				}
+				mv.visitFieldInsn(PUTSTATIC, className, name, "[J");
+			} else if (value instanceof byte[]) {
+				cw.visitField(ACC_STATIC | ACC_FINAL, name, "[B", null, null).visitEnd();
+				mv.visitLdcInsn(encodeBytes((byte[]) value));
+				mv.visitMethodInsn(INVOKESTATIC, "nez/parser/vm/ParserMachineJit", "decodeBytes", "(Ljava/lang/String;)[B");
+				mv.visitFieldInsn(PUTSTATIC, className, name, "[B");
+			} else {
+				cw.visitField(ACC_STATIC | ACC_FINAL, name, SymbolDesc, null, null).visitEnd();
+				mv.visitLdcInsn(((Symbol) value).getSymbol());
+				mv.visitMethodInsn(INVOKESTATIC, "nez/ast/Symbol", "unique", "(Ljava/lang/String;)" + SymbolDesc);
+				mv.visitFieldInsn(PUTSTATIC, className, name, SymbolDesc);
+			}
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static String encodeSet(boolean[] b) {
+		char[] c = new char[b.length];
+		for (int i = 0; i < b.length; i++) {
+			c[i] = b[i] ? '1' : '0';
+		}
+		return new String(c);
+	}
+
+	public final static boolean[] decodeSet(String s) {
+		boolean[] b = new boolean[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = s.charAt(i) == '1';
+		}
+		return b;
+	}
+
+	private static String encodeBytes(byte[] b) {
+		char[] c = new char[b.length];
+		for (int i = 0; i < b.length; i++) {
+			c[i] = (char) (b[i] & 0xff);
+		}
+		return new String(c);
+	}
+
+	public final static byte[] decodeBytes(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+
+	static class JitClassLoader extends ClassLoader {
+		JitClassLoader() {
+			super(ParserMachineJit.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+	/* Production */
+
+	class ProductionGenerator extends Expression.Visitor {
+		private final Production production;
+		private final MethodVisitor mv;
+		private int locals = 1; // ctx is local 0
+		private int tokenDepth = 0; // in the fallback of a DFA
+
+		ProductionGenerator(Production p) {
+			this.production = p;
+			this.tokenDepth = code.getDfa(p) == null ? 0 : 1;
+			this.mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, funcMap.get(p.getUniqueName()), ContextDesc, null, null);
+		}
+
+		void generate() {
+			mv.visitCode();
+			MemoPoint memoPoint = strategy.PackratParsing ? code.getMemoPoint(production.getUniqueName()) : null;
+			if (memoPoint != null) {
+				generateMemo(memoPoint);
+			} else {
+				Label fail = new Label();
+				compile(production.getExpression(), fail);
+				returnBool(true);
+				mv.visitLabel(fail);
+				returnBool(false);
+			}
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		private void generateMemo(MemoPoint memoPoint) {
+			boolean tree = memoPoint.typeState != Typestate.Unit;
+			Label notFound = new Label();
+			Label found = new Label();
+			Label failFound = new Label();
+			loadContext();
+			push(memoPoint.id);
+			invoke(tree ? "lookupTreeMemo" : "lookupMemo", "(I)I");
+			mv.visitTableSwitchInsn(0, 2, failFound, new Label[] { notFound, found, failFound });
+			mv.visitLabel(found);
+			returnBool(true);
+			mv.visitLabel(failFound);
+			returnBool(false);
+
+			mv.visitLabel(notFound);
+			int saved = save();
+			Label fail = new Label();
+			compile(production.getExpression(), fail);
+			loadContext();
+			push(memoPoint.id);
+			mv.visitVarInsn(ILOAD, saved);
+			invoke(tree ? "memoTreeSucc" : "memoSucc", "(II)V");
+			returnBool(true);
+			mv.visitLabel(fail);
+			restore(saved);
+			loadContext();
+			push(memoPoint.id);
+			invoke("memoFail", "(I)V");
+			returnBool(false);
+		}
+
+		private void compile(Expression e, Label fail) {
+			e.visit(this, fail);
+		}
+
+		/* code emission */
+
+		private void returnBool(boolean b) {
+			mv.visitInsn(b ? ICONST_1 : ICONST_0);
+			mv.visitInsn(IRETURN);
+		}
+
+		private void loadContext() {
+			mv.visitVarInsn(ALOAD, 0);
+		}
+
+		private void push(int n) {
+			if (-1 <= n && n <= 5) {
+				mv.visitInsn(ICONST_0 + n);
+			} else if (java.lang.Byte.MIN_VALUE <= n && n <= java.lang.Byte.MAX_VALUE) {
+				mv.visitIntInsn(BIPUSH, n);
+			} else if (Short.MIN_VALUE <= n && n <= Short.MAX_VALUE) {
+				mv.visitIntInsn(SIPUSH, n);
+			} else {
+				mv.visitLdcInsn(n);
+			}
+		}
+
+		private void invoke(String name, String desc) {
+			mv.visitMethodInsn(INVOKEVIRTUAL, ContextClass, name, desc);
+		}
+
+		private void getPos() {
+			loadContext();
+			mv.visitFieldInsn(GETFIELD, ContextClass, "pos", "I");
+		}
+
+		private void move(int shift) {
+			loadContext();
+			push(shift);
+			invoke("move", "(I)V");
+		}
+
+		private void loadSet(boolean[] byteset) {
+			mv.visitFieldInsn(GETSTATIC, className, constField("s", encodeSet(byteset), byteset), "[Z");
+		}
+
+		private void loadScan(long[] scan) {
+			mv.visitFieldInsn(GETSTATIC, className, constField("w", Arrays.toString(scan), scan), "[J");
+		}
+
+		private void loadBytes(byte[] utf8) {
+			mv.visitFieldInsn(GETSTATIC, className, constField("b", encodeBytes(utf8), utf8), "[B");
+		}
+
+		private void loadSymbol(Symbol s) {
+			if (s == null) {
+				mv.visitInsn(ACONST_NULL);
+			} else {
+				mv.visitFieldInsn(GETSTATIC, className, constField("y", s.getSymbol(), s), SymbolDesc);
+			}
+		}
+
+		private void loadString(String s) {
+			if (s == null) {
+				mv.visitInsn(ACONST_NULL);
+			} else {
+				mv.visitLdcInsn(s);
+			}
+		}
+
+		/* pos, log, and symbol point are saved in three consecutive locals */
+
+		private int save() {
+			int saved = locals;
+			locals += 3;
+			getPos();
+			mv.visitVarInsn(ISTORE, saved);
+			loadContext();
+			invoke("saveLog", "()I");
+			mv.visitVarInsn(ISTORE, saved + 1);
+			loadContext();
+			invoke("saveSymbolPoint", "()I");
+			mv.visitVarInsn(ISTORE, saved + 2);
+			return saved;
+		}
+
+		private void restore(int saved) {
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved);
+			invoke("back", "(I)V");
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved + 1);
+			invoke("backLog", "(I)V");
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved + 2);
+			invoke("backSymbolPoint", "(I)V");
+		}
+
+		private int savePos() {
+			int saved = locals++;
+			getPos();
+			mv.visitVarInsn(ISTORE, saved);
+			return saved;
+		}
+
+		private Expression getInnerExpression(Expression p) {
+			Expression inner = Expressions.resolveNonTerminal(p.get(0));
+			if (strategy.Ostring && inner instanceof Nez.Pair) {
+				inner = Expressions.tryConvertingMultiCharSequence((Nez.Pair) inner);
+			}
+			return inner;
+		}
+
+		private boolean isBinary(Expression inner) {
+			if (strategy.BinaryGrammar) {
+				if (inner instanceof Nez.Byte) {
+					return ((Nez.Byte) inner).byteChar == 0;
+				}
+				if (inner instanceof Nez.ByteSet) {
+					return ((Nez.ByteSet) inner).byteset[0];
+				}
+			}
+			return false;
+		}
+
+		/* visitor */
+
+		@Override
+		public Object visitNonTerminal(NonTerminal e, Object fail) {
+			Production p = e.getProduction();
+			ParserMachineDfa dfa = code.getDfa(p);
+			Label succ = dfa == null ? null : matchDfa(constField("d", p.getUniqueName(), dfa), (Label) fail);
+			loadContext();
+			mv.visitMethodInsn(INVOKESTATIC, className, funcMap.get(p.getUniqueName()), ContextDesc);
+			mv.visitJumpInsn(IFEQ, (Label) fail);
+			if (succ != null) {
+				mv.visitLabel(succ);
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitEmpty(Nez.Empty e, Object fail) {
+			return null;
+		}
+
+		@Override
+		public Object visitFail(Nez.Fail e, Object fail) {
+			mv.visitJumpInsn(GOTO, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitByte(Nez.Byte e, Object fail) {
+			if (isBinary(e)) {
+				loadContext();
+				invoke("prefetch", "()I");
+				mv.visitJumpInsn(IFNE, (Label) fail);
+				loadContext();
+				invoke("eof", "()Z");
+				mv.visitJumpInsn(IFNE, (Label) fail);
+				move(1);
+				return null;
+			}
+			loadContext();
+			invoke("read", "()I");
+			push(e.byteChar);
+			mv.visitJumpInsn(IF_ICMPNE, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitByteSet(Nez.ByteSet e, Object fail) {
+			if (isBinary(e)) {
+				loadSet(e.byteset);
+				loadContext();
+				invoke("prefetch", "()I");
+				mv.visitInsn(BALOAD);
+				mv.visitJumpInsn(IFEQ, (Label) fail);
+				loadContext();
+				invoke("eof", "()Z");
+				mv.visitJumpInsn(IFNE, (Label) fail);
+				move(1);
+				return null;
+			}
+			loadSet(e.byteset);
+			loadContext();
+			invoke("read", "()I");
+			mv.visitInsn(BALOAD);
+			mv.visitJumpInsn(IFEQ, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitAny(Nez.Any e, Object fail) {
+			loadContext();
+			invoke("eof", "()Z");
+			mv.visitJumpInsn(IFNE, (Label) fail);
+			move(1);
+			return null;
+		}
+
+		@Override
+		public Object visitMultiByte(Nez.MultiByte e, Object fail) {
+			loadContext();
+			loadBytes(e.byteseq);
+			invoke("match", "([B)Z");
+			mv.visitJumpInsn(IFEQ, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitPair(Nez.Pair e, Object fail) {
+			Object[] runs = tokenDepth == 0 ? code.getTokenRuns(production.getLocalName(), e) : null;
+			if (runs != null) {
+				generateTokenRuns(runs, (Label) fail);
+				return null;
+			}
+			for (Expression sub : e) {
+				compile(sub, (Label) fail);
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitSequence(Nez.Sequence e, Object fail) {
+			Object[] runs = tokenDepth == 0 ? code.getTokenRuns(production.getLocalName(), e) : null;
+			if (runs != null) {
+				generateTokenRuns(runs, (Label) fail);
+				return null;
+			}
+			for (Expression sub : e) {
+				compile(sub, (Label) fail);
+			}
+			return null;
+		}
+
+		/* the code that follows matchDfa() runs only when the DFA falls back */
+
+		private Label matchDfa(String field, Label fail) {
+			Label fallback = new Label();
+			Label succ = new Label();
+			mv.visitFieldInsn(GETSTATIC, className, field, "L" + DfaClass + ";");
+			loadContext();
+			mv.visitMethodInsn(INVOKEVIRTUAL, DfaClass, "match", "(L" + ContextClass + ";)I");
+			mv.visitTableSwitchInsn(ParserMachineDfa.Fail, ParserMachineDfa.Succ, fallback, fail, succ);
+			mv.visitLabel(fallback);
+			return succ;
+		}
+
+		private void generateTokenRuns(Object[] runs, Label fail) {
+			for (Object run : runs) {
+				if (run instanceof ParserMachineDfa.Run) {
+					ParserMachineDfa.Run r = (ParserMachineDfa.Run) run;
+					Label succ = matchDfa(constField("d", "@" + constMap.size(), r.dfa), fail);
+					tokenDepth++;
+					for (Expression sub : r.elements) {
+						compile(sub, fail);
+					}
+					tokenDepth--;
+					mv.visitLabel(succ);
+				} else {
+					compile((Expression) run, fail);
+				}
+			}
+		}
+
+		@Override
+		public Object visitChoice(Nez.Choice e, Object fail) {
+			if (e.predicted != null) {
+				Label[] jumpTable = new Label[e.size()];
+				for (int i = 0; i < e.size(); i++) {
+					jumpTable[i] = new Label();
+				}
+				generateDispatch(e.predicted.indexMap, jumpTable, 1, (Label) fail);
+				Label end = new Label();
+				for (int i = 0; i < e.size(); i++) {
+					Expression predicted = e.get(i);
+					mv.visitLabel(jumpTable[i]);
+					if (e.predicted.striped[i]) {
+						move(1);
+					}
+					if (predicted instanceof Nez.Choice) {
+						generateUnoptimizedChoice((Nez.Choice) predicted, (Label) fail);
+					} else {
+						compile(predicted, (Label) fail);
+					}
+					mv.visitJumpInsn(GOTO, end);
+				}
+				mv.visitLabel(end);
+				return null;
+			}
+			generateUnoptimizedChoice(e, (Label) fail);
+			return null;
+		}
+
+		private void generateUnoptimizedChoice(Nez.Choice e, Label fail) {
+			Label end = new Label();
+			int saved = save();
+			for (int i = 0; i < e.size() - 1; i++) {
+				Label next = new Label();
+				compile(e.get(i), next);
+				mv.visitJumpInsn(GOTO, end);
+				mv.visitLabel(next);
+				restore(saved);
+			}
+			compile(e.get(e.size() - 1), fail);
+			mv.visitLabel(end);
+		}
+
+		/* jumpTable[indexMap[ch] - offset], or fail if indexMap[ch] is zero */
+
+		private void generateDispatch(byte[] indexMap, Label[] jumpTable, int offset, Label fail) {
+			Label[] labels = new Label[256];
+			for (int ch = 0; ch < labels.length; ch++) {
+				int index = ch < indexMap.length ? indexMap[ch] : 0;
+				labels[ch] = (index == 0 || jumpTable[index - offset] == null) ? fail : jumpTable[index - offset];
+			}
+			loadContext();
+			invoke("prefetch", "()I");
+			mv.visitTableSwitchInsn(0, 255, fail, labels);
+		}
+
+		@Override
+		public Object visitDispatch(Nez.Dispatch e, Object fail) {
+			Label[] jumpTable = new Label[e.size()];
+			for (int i = 1; i < e.size(); i++) {
+				jumpTable[i] = new Label();
+			}
+			generateDispatch(e.indexMap, jumpTable, 1, (Label) fail);
+			Label end = new Label();
+			for (int i = 1; i < e.size(); i++) {
+				mv.visitLabel(jumpTable[i]);
+				Expression predicted = e.get(i);
+				if (predicted instanceof Nez.Choice) {
+					generateUnoptimizedChoice((Nez.Choice) predicted, (Label) fail);
+				} else {
+					compile(predicted, (Label) fail);
+				}
+				mv.visitJumpInsn(GOTO, end);
+			}
+			mv.visitLabel(end);
+			return null;
+		}
+
+		@Override
+		public Object visitOption(Nez.Option e, Object fail) {
+			Label end = new Label();
+			if (strategy.Olex) {
+				Expression inner = getInnerExpression(e);
+				if (!isBinary(inner)) {
+					if (inner instanceof Nez.Byte) {
+						int byteChar = ((Nez.Byte) inner).byteChar;
+						loadContext();
+						invoke("prefetch", "()I");
+						push(byteChar);
+						mv.visitJumpInsn(IF_ICMPNE, end);
+						if (byteChar != 0) {
+							move(1);
+						}
+						mv.visitLabel(end);
+						return null;
+					}
+					if (inner instanceof Nez.ByteSet) {
+						loadSet(((Nez.ByteSet) inner).byteset);
+						loadContext();
+						invoke("prefetch", "()I");
+						mv.visitInsn(BALOAD);
+						mv.visitJumpInsn(IFEQ, end);
+						move(1);
+						mv.visitLabel(end);
+						return null;
+					}
+					if (inner instanceof Nez.MultiByte) {
+						loadContext();
+						loadBytes(((Nez.MultiByte) inner).byteseq);
+						invoke("match", "([B)Z");
+						mv.visitInsn(POP);
+						return null;
+					}
+				}
+			}
+			Label next = new Label();
+			int saved = save();
+			compile(e.get(0), next);
+			mv.visitJumpInsn(GOTO, end);
+			mv.visitLabel(next);
+			restore(saved);
+			mv.visitLabel(end);
+			return null;
+		}
+
+		@Override
+		public Object visitZeroMore(Nez.ZeroMore e, Object fail) {
+			generateRepetition(e);
+			return null;
+		}
+
+		@Override
+		public Object visitOneMore(Nez.OneMore e, Object fail) {
+			compile(e.get(0), (Label) fail);
+			generateRepetition(e);
+			return null;
+		}
+
+		private void generateRepetition(Expression e) {
+			Label loop = new Label();
+			Label end = new Label();
+			if (strategy.Olex) {
+				Expression inner = getInnerExpression(e);
+				if (!isBinary(inner)) {
+					if (inner instanceof Nez.Byte && strategy.SSE) {
+						loadContext();
+						push(((Nez.Byte) inner).byteChar);
+						invoke("scanByte", "(I)V");
+						return;
+					}
+					long[] scan = inner instanceof Nez.ByteSet && strategy.SSE ? ParserMachineContext.scanWords(((Nez.ByteSet) inner).byteset) : null;
+					if (scan != null) {
+						loadContext();
+						loadSet(((Nez.ByteSet) inner).byteset);
+						loadScan(scan);
+						invoke("scanSet", "([Z[J)V");
+						return;
+					}
+					if (inner instanceof Nez.Byte) {
+						mv.visitLabel(loop);
+						loadContext();
+						invoke("prefetch", "()I");
+						push(((Nez.Byte) inner).byteChar);
+						mv.visitJumpInsn(IF_ICMPNE, end);
+						move(1);
+						mv.visitJumpInsn(GOTO, loop);
+						mv.visitLabel(end);
+						return;
+					}
+					if (inner instanceof Nez.ByteSet) {
+						mv.visitLabel(loop);
+						loadSet(((Nez.ByteSet) inner).byteset);
+						loadContext();
+						invoke("prefetch", "()I");
+						mv.visitInsn(BALOAD);
+						mv.visitJumpInsn(IFEQ, end);
+						move(1);
+						mv.visitJumpInsn(GOTO, loop);
+						mv.visitLabel(end);
+						return;
+					}
+					if (inner instanceof Nez.MultiByte) {
+						mv.visitLabel(loop);
+						loadContext();
+						loadBytes(((Nez.MultiByte) inner).byteseq);
+						invoke("match", "([B)Z");
+						mv.visitJumpInsn(IFNE, loop);
+						return;
+					}
+				}
+			}
+			Label next = new Label();
+			int saved = locals;
+			mv.visitLabel(loop);
+			save();
+			compile(e.get(0), next);
+			getPos();
+			mv.visitVarInsn(ILOAD, saved);
+			mv.visitJumpInsn(IF_ICMPEQ, next); // no progress
+			mv.visitJumpInsn(GOTO, loop);
+			mv.visitLabel(next);
+			restore(saved);
+		}
+
+		@Override
+		public Object visitAnd(Nez.And e, Object fail) {
+			int saved = savePos();
+			compile(e.get(0), (Label) fail);
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved);
+			invoke("back", "(I)V");
+			return null;
+		}
+
+		@Override
+		public Object visitNot(Nez.Not e, Object fail) {
+			if (strategy.Olex) {
+				Expression inner = getInnerExpression(e);
+				if (!strategy.BinaryGrammar) {
+					if (inner instanceof Nez.Byte) {
+						loadContext();
+						invoke("prefetch", "()I");
+						push(((Nez.Byte) inner).byteChar);
+						mv.visitJumpInsn(IF_ICMPEQ, (Label) fail);
+						return null;
+					}
+					if (inner instanceof Nez.ByteSet) {
+						loadSet(((Nez.ByteSet) inner).byteset);
+						loadContext();
+						invoke("prefetch", "()I");
+						mv.visitInsn(BALOAD);
+						mv.visitJumpInsn(IFNE, (Label) fail);
+						return null;
+					}
+					if (inner instanceof Nez.MultiByte) {
+						loadContext();
+						loadBytes(((Nez.MultiByte) inner).byteseq);
+						invoke("match", "([B)Z");
+						mv.visitJumpInsn(IFNE, (Label) fail);
+						return null;
+					}
+					if (inner instanceof Nez.Any) {
+						loadContext();
+						invoke("eof", "()Z");
+						mv.visitJumpInsn(IFEQ, (Label) fail);
+						return null;
+					}
+				}
+			}
+			Label next = new Label();
+			int saved = save();
+			compile(e.get(0), next);
+			mv.visitJumpInsn(GOTO, (Label) fail);
+			mv.visitLabel(next);
+			restore(saved);
+			return null;
+		}
+
+		/* Tree Construction */
+
+		@Override
+		public Object visitBeginTree(Nez.BeginTree e, Object fail) {
+			if (strategy.TreeConstruction) {
+				loadContext();
+				push(e.shift);
+				invoke("beginTree", "(I)V");
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitEndTree(Nez.EndTree e, Object fail) {
+			if (strategy.TreeConstruction) {
+				loadContext();
+				push(e.shift);
+				loadSymbol(e.tag);
+				loadString(e.value);
+				invoke("endTree", "(I" + SymbolDesc + "Ljava/lang/String;)V");
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitFoldTree(Nez.FoldTree e, Object fail) {
+			if (strategy.TreeConstruction) {
+				loadContext();
+				push(e.shift);
+				loadSymbol(e.label);
+				invoke("foldTree", "(I" + SymbolDesc + ")V");
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitTag(Nez.Tag e, Object fail) {
+			if (strategy.TreeConstruction) {
+				loadContext();
+				loadSymbol(e.tag);
+				invoke("tagTree", "(" + SymbolDesc + ")V");
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitReplace(Nez.Replace e, Object fail) {
+			if (strategy.TreeConstruction) {
+				loadContext();
+				loadString(e.value);
+				invoke("valueTree", "(Ljava/lang/String;)V");
+			}
+			return null;
+		}
+
+		@Override
+		public Object visitLinkTree(Nez.LinkTree e, Object fail) {
+			if (!strategy.TreeConstruction) {
+				compile(e.get(0), (Label) fail);
+				return null;
+			}
+			int saved = pushTree();
+			compile(e.get(0), (Label) fail);
+			popTree(saved);
+			loadContext();
+			mv.visitVarInsn(ALOAD, saved + 1);
+			loadSymbol(e.label);
+			invoke("linkTree", "(" + TreeDesc + SymbolDesc + ")V");
+			loadContext();
+			mv.visitVarInsn(ALOAD, saved + 1);
+			mv.visitFieldInsn(PUTFIELD, ContextClass, "left", TreeDesc);
+			return null;
+		}
+
+		@Override
+		public Object visitDetree(Nez.Detree e, Object fail) {
+			if (!strategy.TreeConstruction) {
+				compile(e.get(0), (Label) fail);
+				return null;
+			}
+			int saved = pushTree();
+			compile(e.get(0), (Label) fail);
+			popTree(saved);
+			loadContext();
+			mv.visitVarInsn(ALOAD, saved + 1);
+			mv.visitFieldInsn(PUTFIELD, ContextClass, "left", TreeDesc);
+			return null;
+		}
+
+		private int pushTree() {
+			int saved = locals;
+			locals += 2;
+			loadContext();
+			invoke("saveLog", "()I");
+			mv.visitVarInsn(ISTORE, saved);
+			loadContext();
+			mv.visitFieldInsn(GETFIELD, ContextClass, "left", TreeDesc);
+			mv.visitVarInsn(ASTORE, saved + 1);
+			return saved;
+		}
+
+		private void popTree(int saved) {
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved);
+			invoke("backLog", "(I)V");
+		}
+
+		/* Symbol */
+
+		@Override
+		public Object visitBlockScope(Nez.BlockScope e, Object fail) {
+			int saved = locals++;
+			loadContext();
+			invoke("saveSymbolPoint", "()I");
+			mv.visitVarInsn(ISTORE, saved);
+			compile(e.get(0), (Label) fail);
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved);
+			invoke("backSymbolPoint", "(I)V");
+			return null;
+		}
+
+		@Override
+		public Object visitLocalScope(Nez.LocalScope e, Object fail) {
+			int saved = locals++;
+			loadContext();
+			invoke("saveSymbolPoint", "()I");
+			mv.visitVarInsn(ISTORE, saved);
+			loadContext();
+			loadSymbol(e.tableName);
+			invoke("addSymbolMask", "(" + SymbolDesc + ")V");
+			compile(e.get(0), (Label) fail);
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved);
+			invoke("backSymbolPoint", "(I)V");
+			return null;
+		}
+
+		@Override
+		public Object visitSymbolAction(Nez.SymbolAction e, Object fail) {
+			int saved = savePos();
+			compile(e.get(0), (Label) fail);
+			loadContext();
+			loadSymbol(e.tableName);
+			mv.visitVarInsn(ILOAD, saved);
+			invoke("addSymbol", "(" + SymbolDesc + "I)V");
+			return null;
+		}
+
+		@Override
+		public Object visitSymbolPredicate(Nez.SymbolPredicate e, Object fail) {
+			int saved = savePos();
+			compile(e.get(0), (Label) fail);
+			loadContext();
+			loadSymbol(e.tableName);
+			mv.visitVarInsn(ILOAD, saved);
+			invoke(e.op == FunctionName.is ? "equals" : "contains", "(" + SymbolDesc + "I)Z");
+			mv.visitJumpInsn(IFEQ, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitSymbolMatch(Nez.SymbolMatch e, Object fail) {
+			loadContext();
+			loadSymbol(e.tableName);
+			invoke("matchSymbol", "(" + SymbolDesc + ")Z");
+			mv.visitJumpInsn(IFEQ, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitSymbolExists(Nez.SymbolExists e, Object fail) {
+			loadContext();
+			loadSymbol(e.tableName);
+			if (e.symbol == null) {
+				invoke("exists", "(" + SymbolDesc + ")Z");
+			} else {
+				loadBytes(StringUtils.utf8(e.symbol));
+				invoke("existsSymbol", "(" + SymbolDesc + "[B)Z");
+			}
+			mv.visitJumpInsn(IFEQ, (Label) fail);
+			return null;
+		}
+
+		@Override
+		public Object visitScan(Nez.Scan e, Object fail) {
+			int saved = savePos();
+			compile(e.get(0), (Label) fail);
+			loadContext();
+			mv.visitVarInsn(ILOAD, saved);
+			mv.visitLdcInsn(e.mask);
+			push(e.shift);
+			invoke("scanCount", "(IJI)V");
+			return null;
+		}
+
+		@Override
+		public Object visitRepeat(Nez.Repeat e, Object fail) {
+			Label loop = new Label();
+			Label end = new Label();
+			mv.visitLabel(loop);
+			loadContext();
+			invoke("decCount", "()Z");
+			mv.visitJumpInsn(IFEQ, end);
+			compile(e.get(0), (Label) fail);
+			mv.visitJumpInsn(GOTO, loop);
+			mv.visitLabel(end);
+			return null;
+		}
+
+		@Override
+		public Object visitIf(Nez.IfCondition e, Object fail) {
+			return null;
+		}
+
+		@Override
+		public Object visitOn(Nez.OnCondition e, Object fail) {
+			return null;
+		}
+
+		@Override
+		public Object visitLabel(Nez.Label e, Object fail) {
+			return null; // coverage is not supported in jit
+		}
+	}
+
+}
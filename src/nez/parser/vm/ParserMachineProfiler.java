@@ -1,12 +1,353 @@
 package nez.parser.vm;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+
 import nez.ast.Source;
+import nez.ast.SourceLocation;
 import nez.ast.Tree;
+import nez.lang.Expression;
+import nez.util.ConsoleUtils;
+import nez.util.FileBuilder;
+
+/**
+ * ParserMachineProfiler is a ParserMachineContext that runs the instructions
+ * one by one (without JIT code) and attributes the time, the
+ * calls and the bytes consumed to each production, following Call and Ret.
+ * A production that fails is left when the failure unwinds the stack below
+ * its call, and the bytes that the input is rewound (by a failure or a
+ * lookahead) are counted as backtracked in the production that goes on. Productions that are inlined (+Oinline)
+ * are counted in their caller. The counts are kept over all the inputs
+ * parsed with reset(), and are reported sorted by self time, or written in
+ * the collapsed stack format of flame graphs (one line per call path, with
+ * its self time in nanoseconds).
+ */
 
 public class ParserMachineProfiler<T extends Tree<T>> extends ParserMachineContext<T> {
+	private final String start;
 
 	public ParserMachineProfiler(Source source, T proto) {
+		this(source, proto, "Start");
+	}
+
+	public ParserMachineProfiler(Source source, T proto, String start) {
 		super(source, proto);
+		this.start = start;
+	}
+
+	/* productions */
+
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private String[] names = new String[64];
+	private long[] calls = new long[64];
+	private long[] fails = new long[64];
+	private long[] selfTime = new long[64];
+	private long[] totalTime = new long[64];
+	private long[] consumed = new long[64];
+	private long[] backtracked = new long[64];
+	private long[] backtracks = new long[64];
+	private long[] rescanned = new long[64];
+	private int[] active = new int[64];
+
+	private int productionId(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = ids.size();
+			if (id == names.length) {
+				int n = id * 2;
+				names = Arrays.copyOf(names, n);
+				calls = Arrays.copyOf(calls, n);
+				fails = Arrays.copyOf(fails, n);
+				selfTime = Arrays.copyOf(selfTime, n);
+				totalTime = Arrays.copyOf(totalTime, n);
+				consumed = Arrays.copyOf(consumed, n);
+				backtracked = Arrays.copyOf(backtracked, n);
+				backtracks = Arrays.copyOf(backtracks, n);
+				rescanned = Arrays.copyOf(rescanned, n);
+				active = Arrays.copyOf(active, n);
+			}
+			names[id] = name;
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/* call paths, as a tree of (parent, production) nodes */
+
+	private final HashMap<Long, Integer> pathMap = new HashMap<>();
+	private int[] pathParent = new int[256];
+	private int[] pathProduction = new int[256];
+	private long[] pathTime = new long[256];
+	private int paths = 0;
+
+	private int path(int parent, int pid) {
+		Long key = ((long) parent << 32) | pid;
+		Integer id = pathMap.get(key);
+		if (id == null) {
+			id = paths++;
+			if (id == pathParent.length) {
+				pathParent = Arrays.copyOf(pathParent, id * 2);
+				pathProduction = Arrays.copyOf(pathProduction, id * 2);
+				pathTime = Arrays.copyOf(pathTime, id * 2);
+			}
+			pathParent[id] = parent;
+			pathProduction[id] = pid;
+			pathMap.put(key, id);
+		}
+		return id;
+	}
+
+	/* frames of the running productions */
+
+	private int frames = 0;
+	private int[] framePath = new int[64];
+	private int[] frameDepth = new int[64];
+	private int[] framePos = new int[64];
+	private long[] frameTime = new long[64];
+	private long[] frameChildTime = new long[64];
+
+	private void enter(String name, int depth) {
+		int pid = productionId(name);
+		if (frames == framePath.length) {
+			int n = frames * 2;
+			framePath = Arrays.copyOf(framePath, n);
+			frameDepth = Arrays.copyOf(frameDepth, n);
+			framePos = Arrays.copyOf(framePos, n);
+			frameTime = Arrays.copyOf(frameTime, n);
+			frameChildTime = Arrays.copyOf(frameChildTime, n);
+		}
+		framePath[frames] = path(frames == 0 ? -1 : framePath[frames - 1], pid);
+		frameDepth[frames] = depth;
+		framePos[frames] = this.pos;
+		frameChildTime[frames] = 0;
+		calls[pid]++;
+		active[pid]++;
+		frames++;
+		frameTime[frames - 1] = System.nanoTime();
+	}
+
+	private void leave(boolean succ, long now) {
+		frames--;
+		int pid = pathProduction[framePath[frames]];
+		long time = now - frameTime[frames];
+		long self = time - frameChildTime[frames];
+		selfTime[pid] += self;
+		pathTime[framePath[frames]] += self;
+		active[pid]--;
+		if (active[pid] == 0) {
+			totalTime[pid] += time;
+		}
+		if (frames > 0) {
+			frameChildTime[frames - 1] += time;
+		}
+		if (succ) {
+			consumed[pid] += this.pos - framePos[frames];
+		} else {
+			fails[pid]++;
+		}
+	}
+
+	/* Alt sites, by instruction id, and the Alt frames on the catch stack */
+
+	private Moz86.Alt[] sites = new Moz86.Alt[256];
+	private int[] siteProduction = new int[256];
+	private long[] siteEntries = new long[256];
+	private long[] siteBacktracks = new long[256];
+	private long[] siteRescanned = new long[256];
+
+	private int alts = 0;
+	private int[] altSite = new int[64];
+	private int[] altDepth = new int[64];
+
+	private void pushAlt(Moz86.Alt alt) {
+		int id = alt.id;
+		if (id >= sites.length) {
+			int n = Math.max(id + 1, sites.length * 2);
+			sites = Arrays.copyOf(sites, n);
+			siteProduction = Arrays.copyOf(siteProduction, n);
+			siteEntries = Arrays.copyOf(siteEntries, n);
+			siteBacktracks = Arrays.copyOf(siteBacktracks, n);
+			siteRescanned = Arrays.copyOf(siteRescanned, n);
+		}
+		if (sites[id] == null) {
+			sites[id] = alt;
+			siteProduction[id] = pathProduction[framePath[frames - 1]];
+		}
+		siteEntries[id]++;
+		if (alts == altSite.length) {
+			altSite = Arrays.copyOf(altSite, alts * 2);
+			altDepth = Arrays.copyOf(altDepth, alts * 2);
+		}
+		altSite[alts] = id;
+		altDepth[alts] = this.getUsedStackDepth() - 2; // the catch frame
+		alts++;
 	}
 
+	/* the outermost Alt left is the one that catches a failure */
+
+	private void popAlts(int depth, boolean failed, int lastPos) {
+		int id = -1;
+		while (alts > 0 && altDepth[alts - 1] > depth) {
+			alts--;
+			id = altSite[alts];
+		}
+		if (failed && id >= 0) {
+			int n = lastPos > this.pos ? lastPos - this.pos : 0;
+			siteBacktracks[id]++;
+			siteRescanned[id] += n;
+			backtracks[siteProduction[id]]++;
+			rescanned[siteProduction[id]] += n;
+		}
+	}
+
+	/* runs the code from inst, as ParserCode.exec() does */
+
+	public final boolean exec(MozInst inst) {
+		MozInst cur = inst;
+		MozInst next;
+		frames = 0;
+		alts = 0;
+		enter(start, 0);
+		while (true) {
+			int lastPos = this.pos;
+			next = cur.exec(this);
+			if (cur instanceof Moz86.Call) {
+				enter(((Moz86.Call) cur).name, this.getUsedStackDepth());
+			} else if (cur instanceof Moz86.Alt) {
+				pushAlt((Moz86.Alt) cur);
+			} else {
+				int depth = this.getUsedStackDepth();
+				if (alts > 0 && altDepth[alts - 1] > depth) {
+					popAlts(depth, !(cur instanceof Moz86.Succ || cur instanceof Moz86.Memo || cur instanceof Moz86.TMemo), lastPos);
+				}
+				if (frames > 1 && frameDepth[frames - 1] > depth) {
+					long now = System.nanoTime();
+					if (cur instanceof Moz86.Ret) {
+						leave(true, now);
+					}
+					while (frames > 1 && frameDepth[frames - 1] > depth) {
+						leave(false, now);
+					}
+				}
+			}
+			if (this.pos < lastPos) {
+				backtracked[pathProduction[framePath[frames - 1]]] += lastPos - this.pos;
+			}
+			if (next == null) {
+				break;
+			}
+			cur = next;
+		}
+		boolean result = Moz86.Exit.status(cur);
+		long now = System.nanoTime();
+		while (frames > 0) {
+			leave(result, now);
+		}
+		return result;
+	}
+
+	/* report */
+
+	private static Integer[] sortedBy(long[] values, int size) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(values[b], values[a]));
+		return order;
+	}
+
+	public final void report(int limit) {
+		long sum = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			sum += selfTime[i];
+		}
+		ConsoleUtils.println("%-32s %10s %10s %10s %6s %10s %12s %12s", "Production", "Calls", "Fails", "Self[ms]", "Self%", "Total[ms]", "Consumed", "Backtracked");
+		int c = 0;
+		for (int pid : sortedBy(selfTime, ids.size())) {
+			if (c++ == limit) {
+				break;
+			}
+			ConsoleUtils.println("%-32s %10d %10d %10.3f %6.2f %10.3f %12d %12d", names[pid], calls[pid], fails[pid], selfTime[pid] / 1000000.0, sum == 0 ? 0.0 : selfTime[pid] * 100.0 / sum, totalTime[pid] / 1000000.0, consumed[pid], backtracked[pid]);
+		}
+	}
+
+	/* the productions and the Alt sites that rescan the most bytes after a failure */
+
+	public final void reportBacktracks(int limit) {
+		ConsoleUtils.println("%-32s %10s %12s %12s %8s", "Production", "Backtracks", "Rescanned", "Consumed", "Ratio");
+		int c = 0;
+		for (int pid : sortedBy(rescanned, ids.size())) {
+			if (c++ == limit || rescanned[pid] == 0) {
+				break;
+			}
+			ConsoleUtils.println("%-32s %10d %12d %12d %8.3f", names[pid], backtracks[pid], rescanned[pid], consumed[pid], consumed[pid] == 0 ? 0.0 : (double) rescanned[pid] / consumed[pid]);
+		}
+		ConsoleUtils.println("");
+		ConsoleUtils.println("%-24s %-32s %10s %10s %12s  %s", "Location", "Production", "Entries", "Backtracks", "Rescanned", "Alternative");
+		c = 0;
+		for (int id : sortedBy(siteRescanned, sites.length)) {
+			if (c++ == limit || siteRescanned[id] == 0) {
+				break;
+			}
+			Expression e = sites[id].getExpression();
+			String text = e == null ? "L" + id : e.toString();
+			if (text.length() > 40) {
+				text = text.substring(0, 37) + "...";
+			}
+			ConsoleUtils.println("%-24s %-32s %10d %10d %12d  %s", location(sites[id]), names[siteProduction[id]], siteEntries[id], siteBacktracks[id], siteRescanned[id], text);
+		}
+	}
+
+	private static String location(Moz86.Alt alt) {
+		SourceLocation s = location(alt.getExpression());
+		if (s == null) {
+			return "L" + alt.id;
+		}
+		return FileBuilder.extractFileName(s.getSource().getResourceName()) + ":" + s.getLineNum() + ":" + s.getColumn();
+	}
+
+	/* expressions made by the optimizer have the location of their first part */
+
+	private static SourceLocation location(Expression e) {
+		if (e == null) {
+			return null;
+		}
+		SourceLocation s = e.getSourceLocation();
+		if (s != null && s.getSource() != null) {
+			return s;
+		}
+		for (Expression sub : e) {
+			s = location(sub);
+			if (s != null) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	public final void writeCollapsedStacks(String path) throws IOException {
+		try (PrintWriter out = new PrintWriter(path, "UTF-8")) {
+			StringBuilder sb = new StringBuilder();
+			for (int id = 0; id < paths; id++) {
+				if (pathTime[id] > 0) {
+					sb.setLength(0);
+					appendPath(sb, id);
+					sb.append(' ');
+					sb.append(pathTime[id]);
+					out.println(sb.toString());
+				}
+			}
+		}
+	}
+
+	private void appendPath(StringBuilder sb, int id) {
+		if (pathParent[id] >= 0) {
+			appendPath(sb, pathParent[id]);
+			sb.append(';');
+		}
+		sb.append(names[pathProduction[id]]);
+	}
 }
@@ -150,7 +150,7 @@ public abstract class StringUtils {
 		sb.append(HexChar[n]);
 	}
 
-	public final static void formatStringLiteral(StringBuilder sb, char openChar, String text, char closeChar) {
+	public final static void formatStringLiteral(StringBuilder sb, char openChar, CharSequence text, char closeChar) {
 		char slashChar = '\\';
 		sb.append(openChar);
 		int i = 0;
@@ -188,7 +188,7 @@ public abstract class StringUtils {
 		}
 	}
 
-	public final static String quoteString(char openChar, String text, char closeChar) {
+	public final static String quoteString(char openChar, CharSequence text, char closeChar) {
 		StringBuilder sb = new StringBuilder();
 		StringUtils.formatStringLiteral(sb, openChar, text, closeChar);
 		return sb.toString();
@@ -228,6 +228,166 @@ public abstract class StringUtils {
 		return defval;
 	}
 
+	/* numbers read straight from a CharSequence such as SourceText */
+
+	public final static long parseLong(CharSequence text) {
+		int n = text.length();
+		int i = 0;
+		boolean neg = false;
+		if (n > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+			neg = text.charAt(0) == '-';
+			i = 1;
+		}
+		if (i == n) {
+			throw new NumberFormatException("For input string: \"" + text + "\"");
+		}
+		long limit = neg ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long multmin = limit / 10;
+		long result = 0;
+		for (; i < n; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				if (c < 128) {
+					throw new NumberFormatException("For input string: \"" + text + "\"");
+				}
+				return Long.parseLong(text.toString());
+			}
+			int d = c - '0';
+			if (result < multmin || result * 10 < limit + d) {
+				throw new NumberFormatException("For input string: \"" + text + "\"");
+			}
+			result = result * 10 - d;
+		}
+		return neg ? result : -result;
+	}
+
+	private final static double[] Pow10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * The same as Double.parseDouble(text.toString()). Decimals of up to 15
+	 * significant digits and exponents up to 22 are exact doubles, and are
+	 * computed without a String.
+	 */
+
+	public final static double parseDouble(CharSequence text) {
+		int n = text.length();
+		int i = 0;
+		boolean neg = false;
+		if (n > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+			neg = text.charAt(0) == '-';
+			i = 1;
+		}
+		long m = 0;
+		int digits = 0;
+		int sig = 0;
+		int scale = 0;
+		boolean frac = false;
+		for (; i < n; i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits++;
+				if (m != 0 || c != '0') {
+					if (++sig > 15) {
+						return Double.parseDouble(text.toString());
+					}
+					m = m * 10 + (c - '0');
+				}
+				if (frac) {
+					scale--;
+				}
+			} else if (c == '.' && !frac) {
+				frac = true;
+			} else {
+				break;
+			}
+		}
+		if (i < n && digits > 0 && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			boolean eneg = false;
+			if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+				eneg = text.charAt(i) == '-';
+				i++;
+			}
+			int e = 0;
+			int edigits = 0;
+			for (; i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++, edigits++) {
+				if (e < 1000) {
+					e = e * 10 + (text.charAt(i) - '0');
+				}
+			}
+			if (edigits == 0) {
+				return Double.parseDouble(text.toString());
+			}
+			scale += eneg ? -e : e;
+		}
+		if (i < n || digits == 0) {
+			return Double.parseDouble(text.toString());
+		}
+		if (m == 0) {
+			return neg ? -0.0 : 0.0;
+		}
+		if (scale < -22 || scale > 22) {
+			return Double.parseDouble(text.toString());
+		}
+		double v = scale < 0 ? m / Pow10[-scale] : m * Pow10[scale];
+		return neg ? -v : v;
+	}
+
+	/* true if parseDouble(text) does not throw */
+
+	public final static boolean isNumber(CharSequence text) {
+		if (text.length() == 0) {
+			return false;
+		}
+		char c = text.charAt(0);
+		if (c > ' ' && c != '+' && c != '-' && c != '.' && c != 'N' && c != 'I' && (c < '0' || c > '9')) {
+			return false;
+		}
+		if (isDecimal(text)) {
+			return true;
+		}
+		try {
+			Double.parseDouble(text.toString());
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static boolean isDecimal(CharSequence text) {
+		int n = text.length();
+		int i = 0;
+		if (text.charAt(0) == '-' || text.charAt(0) == '+') {
+			i = 1;
+		}
+		int digits = 0;
+		for (; i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+			digits++;
+		}
+		if (i < n && text.charAt(i) == '.') {
+			for (i++; i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (i < n && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+				i++;
+			}
+			int e = i;
+			while (i < n && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+				i++;
+			}
+			if (i == e) {
+				return false;
+			}
+		}
+		return i == n;
+	}
+
 	// Used in Factory.newCharClass
 	public final static int parseAscii(String t) {
 		if (t.startsWith("\\x")) {
@@ -1,6 +1,7 @@
 package nez.util;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
 
 import nez.Version;
 import nez.lang.Expression;
@@ -62,14 +63,40 @@ public class Verbose {
 	}
 
 	public final static void printElapsedTime(String msg, long t1, long t2) {
+		if (PhaseTiming) {
+			addElapsedTime(msg, t2 - t1);
+		}
 		if (enabled) {
-			double d = (t2 - t1) / 1000000;
+			double d = (t2 - t1) / 1000000.0;
 			if (d > 0.1) {
 				println("%s : %f[ms]", msg, d);
 			}
 		}
 	}
 
+	/* -Xtime: the elapsed times are summed by phase and printed at exit */
+
+	public static boolean PhaseTiming = false;
+	private final static LinkedHashMap<String, long[]> phaseTimes = new LinkedHashMap<>();
+
+	private synchronized static void addElapsedTime(String phase, long nanos) {
+		long[] t = phaseTimes.get(phase);
+		if (t == null) {
+			t = new long[2];
+			phaseTimes.put(phase, t);
+		}
+		t[0] += nanos;
+		t[1]++;
+	}
+
+	public synchronized static void printPhaseTimes() {
+		ConsoleUtils.println("%-32s %10s %6s", "Phase", "Time[ms]", "Count");
+		for (String phase : phaseTimes.keySet()) {
+			long[] t = phaseTimes.get(phase);
+			ConsoleUtils.println("%-32s %10.3f %6d", phase, t[0] / 1000000.0, t[1]);
+		}
+	}
+
 	public static void noticeOptimize(String key, Expression p) {
 		// if (enabled) {
 		// ConsoleUtils.println("optimizing " + key + "\n\t" + p);
@@ -0,0 +1,40 @@
+package nez.main;
+
+import java.io.IOException;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.vm.ParserMachineProfiler;
+import nez.util.ConsoleUtils;
+
+/**
+ * Cbacktrack parses the inputs with +Profiling and reports the wasted work
+ * of backtracking: the productions and the choice sites (alternatives,
+ * options, repetitions and predicates, with their location in the grammar)
+ * whose failures make the parser rescan the most bytes. They are where
+ * reordering the alternatives or adding a memo point pays off. Use -Oinline
+ * to keep the productions apart.
+ */
+
+public class Cbacktrack extends Command {
+	private final static int Limit = 30;
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		strategy.Profiling = true;
+		Parser parser = newParser();
+		while (hasInputSource()) {
+			Source input = nextInputSource();
+			if (parser.parse(input, new CommonTree()) == null) {
+				parser.showErrors();
+			}
+		}
+		ParserMachineProfiler<?> prof = parser.getMachineProfiler();
+		if (prof == null) {
+			ConsoleUtils.exit(1, "no profile (-Moz)");
+		}
+		prof.reportBacktracks(Limit);
+	}
+}
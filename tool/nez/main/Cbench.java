@@ -1,20 +1,31 @@
 package nez.main;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
+import nez.ast.CommonTree;
 import nez.ast.Source;
 import nez.ast.Tree;
 import nez.parser.Parser;
 import nez.util.ConsoleUtils;
 import nez.util.FileBuilder;
+import nez.util.UList;
 
 public class Cbench extends Command {
+	private long[] latency = new long[256];
+	private int latencySize = 0;
+
 	@Override
 	public void exec() throws IOException {
 		checkInputSource();
 		Parser parser = newParser();
 		parser.setDisabledUnconsumed(true);
 		parser.compile();
+		if (isParallel()) {
+			parallelBench(parser);
+			return;
+		}
 		long len = 0;
 		double total = 0.0;
 		while (hasInputSource()) {
@@ -43,11 +54,81 @@ public class Cbench extends Command {
 				}
 				len += input.length();
 				dsum += d;
+				record(t2 - t1);
 			}
 			ConsoleUtils.println("(ave) %.2f [ms]", dsum / 5);
+			closeInputSource(input);
 			total += dsum;
 		}
 		double s = (total / 1000);
 		ConsoleUtils.println("Throughput %.2f [B/s] %.2f [KiB/s] %.2f [MiB/s]", (len / s), (len / 1024 / s), (len / 1024 / 1024 / s));
+		ConsoleUtils.println("Latency %s", formatLatency(latency, latencySize));
+	}
+
+	private void record(long elapsed) {
+		if (latencySize == latency.length) {
+			latency = Arrays.copyOf(latency, latency.length * 2);
+		}
+		latency[latencySize++] = elapsed;
+	}
+
+	/* -j N: all inputs are parsed by N threads for 5 rounds after warming up */
+
+	private void parallelBench(Parser parser) throws IOException {
+		UList<Source> inputs = new UList<Source>(new Source[64]);
+		long size = 0;
+		while (hasInputSource()) {
+			Source input = nextInputSource();
+			inputs.add(input);
+			size += input.length();
+		}
+		final int[] failed = new int[1];
+		Parser.ParseListener<CommonTree> listener = new Parser.ParseListener<CommonTree>() {
+			@Override
+			public void parsed(int index, Source input, CommonTree node, long elapsed) {
+				if (node == null) {
+					failed[0]++;
+				}
+				record(elapsed);
+			}
+		};
+		ExecutorService executor = newExecutor();
+		try {
+			ConsoleUtils.print("%d files, %d threads: ", inputs.size(), threads);
+			double prev = Double.MAX_VALUE;
+			double total = 0.0;
+			boolean JIT = true;
+			for (int c = 0; c < 5; c++) {
+				failed[0] = 0;
+				long t1 = System.nanoTime();
+				parser.parseAll(inputs, new CommonTree(), executor, threads * 4, listener);
+				long t2 = System.nanoTime();
+				double d = (t2 - t1) / 1000000.0;
+				ConsoleUtils.print("%.2f ", d);
+				if (JIT) {
+					if ((prev - d) > 0.0) {
+						prev = d;
+						c--;
+						continue;
+					}
+					JIT = false;
+					latencySize = 0;
+					c = -1;
+					continue;
+				}
+				total += d;
+			}
+			ConsoleUtils.println("(ave) %.2f [ms], %d failed", total / 5, failed[0]);
+			parser.clearErrors();
+			double s = (total / 1000);
+			long len = size * 5;
+			ConsoleUtils.println("Throughput %.2f [B/s] %.2f [KiB/s] %.2f [MiB/s]", (len / s), (len / 1024 / s), (len / 1024 / 1024 / s));
+			ConsoleUtils.println("Latency %s", formatLatency(latency, latencySize));
+		} finally {
+			executor.shutdown();
+			for (Source input : inputs) {
+				closeInputSource(input);
+			}
+		}
 	}
 }
@@ -0,0 +1,100 @@
+package nez.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.io.FileSource;
+import nez.parser.io.MappedFileSource;
+import nez.parser.io.StringSource;
+import nez.util.ConsoleUtils;
+import nez.util.FileBuilder;
+
+/**
+ * Ciobench compares StringSource, FileSource and MappedFileSource on the same
+ * inputs: the time to open, to scan every byte, and to match the input with
+ * the grammar (without tree construction, so that multi-GB inputs fit).
+ * Use -f mapped (or string, file) to measure one kind per JVM; otherwise the
+ * byteAt call sites become megamorphic and later kinds are penalized.
+ */
+
+public class Ciobench extends Command {
+	private final static int Rounds = 3;
+	private final static String[] Kinds = { "string", "file", "mapped" };
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		strategy.TreeConstruction = false;
+		Parser parser = newParser();
+		parser.setDisabledUnconsumed(true);
+		parser.compile();
+		String[] kinds = outputFormat != null ? outputFormat.split(",") : Kinds;
+		for (String path : this.inputFiles) {
+			ConsoleUtils.println("%s (%.1f MiB)", FileBuilder.extractFileName(path), new java.io.File(path).length() / 1024.0 / 1024.0);
+			for (String kind : kinds) {
+				bench(parser, kind, path);
+			}
+		}
+	}
+
+	private Source open(String kind, String path) throws IOException {
+		switch (kind) {
+		case "string":
+			if (new java.io.File(path).length() >= Integer.MAX_VALUE - 8) {
+				return null; // too large for byte[]
+			}
+			return new StringSource(path, 1, Files.readAllBytes(Paths.get(path)), false);
+		case "file":
+			return new FileSource(path);
+		default:
+			return new MappedFileSource(path);
+		}
+	}
+
+	private void bench(Parser parser, String kind, String path) throws IOException {
+		double open = Double.MAX_VALUE, scan = Double.MAX_VALUE, parse = Double.MAX_VALUE;
+		long len = 0;
+		boolean failed = false;
+		for (int c = 0; c < Rounds; c++) {
+			long t1 = System.nanoTime();
+			Source s = null;
+			try {
+				s = open(kind, path);
+			} catch (IOException e) {
+				ConsoleUtils.println("  %-7s %s", kind, e);
+				return;
+			}
+			long t2 = System.nanoTime();
+			if (s == null) {
+				ConsoleUtils.println("  %-7s skipped", kind);
+				return;
+			}
+			len = s.length();
+			long sum = 0;
+			for (long pos = 0; pos < len; pos++) {
+				sum += s.byteAt(pos);
+			}
+			long t3 = System.nanoTime();
+			if (len > Integer.MAX_VALUE) {
+				failed = true; // ParserMachineContext positions are int
+			} else {
+				failed = parser.parse(s) == null;
+			}
+			long t4 = System.nanoTime();
+			parser.clearErrors();
+			open = Math.min(open, (t2 - t1) / 1000000.0);
+			scan = Math.min(scan, (t3 - t2) / 1000000.0 + (sum == -1 ? 1 : 0));
+			parse = Math.min(parse, (t4 - t3) / 1000000.0);
+		}
+		double mib = len / 1024.0 / 1024.0;
+		ConsoleUtils.print("  %-7s open %.2f [ms] scan %.2f [ms] %.1f [MiB/s] ", kind, open, scan, mib / (scan / 1000));
+		if (failed) {
+			ConsoleUtils.println("parse failed");
+		} else {
+			ConsoleUtils.println("parse %.2f [ms] %.1f [MiB/s]", parse, mib / (parse / 1000));
+		}
+	}
+}
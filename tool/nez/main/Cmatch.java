@@ -1,7 +1,10 @@
 package nez.main;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
+import nez.ast.CommonTree;
 import nez.ast.Source;
 import nez.parser.Parser;
 import nez.util.ConsoleUtils;
@@ -10,39 +13,70 @@ import nez.util.UList;
 import nez.util.Verbose;
 
 public class Cmatch extends Command {
+	private UList<String> failedInputs = new UList<String>(new String[4]);
+	private int totalCount = 0, failureCount = 0, unconsumedCount = 0;
+	private long consumed = 0;
+	private long[] latency = new long[256];
+
 	@Override
 	public void exec() throws IOException {
 		strategy.TreeConstruction = false;
 		Parser parser = newParser();
 
-		UList<String> failedInputs = new UList<String>(new String[4]);
-
-		int totalCount = 0, failureCount = 0, unconsumedCount = 0;
-		long consumed = 0;
 		long time = 0;
-
-		while (hasInputSource()) {
-			Source file = nextInputSource();
-			totalCount++;
-
-			long t = System.nanoTime();
-			boolean result = parser.match(file);
-			long t2 = System.nanoTime();
-			if (parser.hasErrors()) {
-				parser.showErrors();
-				failedInputs.add(file.getResourceName());
-				failureCount++;
+		if (isParallel()) {
+			time = parallelMatch(parser);
+		} else {
+			while (hasInputSource()) {
+				Source file = nextInputSource();
+				long t = System.nanoTime();
+				parser.match(file);
+				long t2 = System.nanoTime();
+				record(parser, file, parser.hasErrors(), t2 - t);
+				closeInputSource(file);
+				time += (t2 - t);
+				parser.logProfiler();
 			}
-			consumed += file.length();
-			time += (t2 - t);
-			parser.logProfiler();
 		}
 		if (totalCount > 1) {
 			Verbose.println(totalCount + " files, " + StringUtils.formatMPS(consumed, time) + " MiB/s, " + failureCount + " failed, " + unconsumedCount + " uncosumed, "
-					+ StringUtils.formatParcentage(totalCount - (unconsumedCount + failureCount), totalCount) + "% passed.");
+					+ StringUtils.formatParcentage(totalCount - (unconsumedCount + failureCount), totalCount) + "% passed, " + formatLatency(latency, totalCount));
 		}
 		if (failedInputs.size() > 0) {
 			ConsoleUtils.exit(1, "failed: " + failedInputs);
 		}
 	}
-}
\ No newline at end of file
+
+	private void record(Parser parser, Source file, boolean failed, long elapsed) {
+		if (totalCount == latency.length) {
+			latency = Arrays.copyOf(latency, latency.length * 2);
+		}
+		latency[totalCount] = elapsed;
+		totalCount++;
+		if (failed) {
+			parser.showErrors(file);
+			failedInputs.add(file.getResourceName());
+			failureCount++;
+		}
+		consumed += file.length();
+	}
+
+	/* -j N: returns the wall-clock time, so MiB/s is the aggregate throughput */
+
+	private long parallelMatch(final Parser parser) {
+		ExecutorService executor = newExecutor();
+		long t = System.nanoTime();
+		try {
+			parser.parseAll(inputSources(), new CommonTree(), executor, threads * 4, new Parser.ParseListener<CommonTree>() {
+				@Override
+				public void parsed(int index, Source file, CommonTree result, long elapsed) {
+					record(parser, file, result == null, elapsed);
+					closeInputSource(file);
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+		return System.nanoTime() - t;
+	}
+}
@@ -0,0 +1,97 @@
+package nez.main;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.ParserCode;
+import nez.parser.vm.ParserMachineContext;
+import nez.util.ConsoleUtils;
+import nez.util.UList;
+
+/**
+ * Cmemo parses the same inputs with each memo table layout (direct-mapped,
+ * and 2/4/8-way set-associative with LRU or CLOCK replacement) and reports
+ * the memo hit rate, evictions, throughput and bytes allocated per round of
+ * each one. Use SlidingWindow=N to compare the layouts under a smaller table,
+ * and -TreeConstruction +MemoOffHeap to measure the off-heap table.
+ */
+
+public class Cmemo extends Command {
+	private final static int Rounds = 5;
+	private final static int[] Ways = { 1, 2, 4, 8 };
+	private final static String[] Policies = { "LRU", "CLOCK" };
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		UList<Source> inputs = new UList<Source>(new Source[8]);
+		long len = 0;
+		while (hasInputSource()) {
+			Source input = nextInputSource();
+			inputs.add(input);
+			len += input.length();
+		}
+		ConsoleUtils.println("%d inputs, %.2f MiB, window %d", inputs.size(), len / 1024.0 / 1024.0, strategy.SlidingWindow);
+		bench(inputs, len, 1, "LRU", false); // warmup
+		for (int ways : Ways) {
+			for (String policy : Policies) {
+				bench(inputs, len, ways, policy, true);
+				if (ways == 1) {
+					break;
+				}
+			}
+		}
+	}
+
+	private void bench(UList<Source> inputs, long len, int ways, String policy, boolean report) throws IOException {
+		strategy.MemoWays = ways;
+		strategy.MemoPolicy = policy;
+		Parser parser = newParser();
+		ParserCode<?> code = parser.compile();
+		double best = Double.MAX_VALUE;
+		long lookup = 0, hit = 0, stored = 0, evicted = 0, alloc = Long.MAX_VALUE;
+		int failed = 0, treeful = 0;
+		for (int c = 0; c < Rounds; c++) {
+			lookup = hit = stored = evicted = 0;
+			failed = treeful = 0;
+			long a1 = allocatedBytes();
+			long t1 = System.nanoTime();
+			for (Source input : inputs) {
+				ParserMachineContext<CommonTree> ctx = parser.newParserMachineContext(input, new CommonTree());
+				if (code.exec(ctx) == null) {
+					failed++;
+				}
+				lookup += ctx.getMemoLookupCount();
+				hit += ctx.getMemoHitCount();
+				stored += ctx.getMemoStoredCount();
+				evicted += ctx.getMemoEvictedCount();
+				if (strategy.MemoOffHeap && ctx.hasMemoTree()) {
+					treeful++; // the off-heap table must not keep trees on the heap
+				}
+				parser.releaseParserMachineContext(ctx);
+			}
+			long t2 = System.nanoTime();
+			alloc = Math.min(alloc, allocatedBytes() - a1);
+			best = Math.min(best, (t2 - t1) / 1000000.0);
+		}
+		if (!report) {
+			return;
+		}
+		String type = ways == 1 ? "direct" : ways + "-way " + policy;
+		ConsoleUtils.println("  %-11s hit %6.2f%% (%d/%d) stored %d evicted %d  %.2f [ms] %.2f [MiB/s] alloc %.2f [MiB]%s%s", type, lookup == 0 ? 0.0 : 100.0 * hit / lookup, hit, lookup, stored, evicted, best, len / 1024.0 / 1024.0 / (best / 1000), alloc / 1024.0 / 1024.0,
+				failed > 0 ? " (" + failed + " failed)" : "", treeful > 0 ? " (" + treeful + " memo trees on heap)" : "");
+	}
+
+	/* bytes allocated by this thread, or 0 if the JVM does not tell */
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
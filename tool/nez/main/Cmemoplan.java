@@ -0,0 +1,81 @@
+package nez.main;
+
+import java.io.IOException;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.MemoPoint;
+import nez.parser.MemoStat;
+import nez.parser.Parser;
+import nez.parser.ParserCode;
+import nez.parser.vm.ParserMachineContext;
+import nez.util.ConsoleUtils;
+import nez.util.UList;
+
+/**
+ * Cmemoplan parses the inputs with the static memo points and with
+ * +MemoAdaptive, and reports the decision taken for each memo point: the
+ * lookups, hits, bytes saved by hits, how many times it was deactivated and
+ * how many lookups were bypassed. The memo points that are still active and
+ * have hit are printed as MemoPlan=..., which can be given back to any
+ * command to use them as the static memo points.
+ */
+
+public class Cmemoplan extends Command {
+	private final static int Rounds = 3;
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		UList<Source> inputs = new UList<Source>(new Source[8]);
+		while (hasInputSource()) {
+			inputs.add(nextInputSource());
+		}
+		strategy.MemoAdaptive = false;
+		double time = bench(newParser(), inputs);
+		strategy.MemoAdaptive = true;
+		Parser parser = newParser();
+		double adaptive = bench(parser, inputs);
+		ConsoleUtils.println("static %.2f [ms], adaptive %.2f [ms]", time, adaptive);
+		/* the last round of the pooled context has seen all the rounds */
+		ParserMachineContext<CommonTree> ctx = parser.newParserMachineContext(inputs.ArrayValues[0], new CommonTree());
+		MemoStat stat = ctx.getMemoStat();
+		parser.releaseParserMachineContext(ctx);
+		report(parser.getParserCode(), stat);
+	}
+
+	private double bench(Parser parser, UList<Source> inputs) {
+		ParserCode<?> code = parser.compile();
+		double best = Double.MAX_VALUE;
+		for (int c = 0; c < Rounds; c++) {
+			long t1 = System.nanoTime();
+			for (Source input : inputs) {
+				ParserMachineContext<CommonTree> ctx = parser.newParserMachineContext(input, new CommonTree());
+				if (code.exec(ctx) == null) {
+					ConsoleUtils.println("failed: " + input.getResourceName());
+				}
+				parser.releaseParserMachineContext(ctx);
+			}
+			long t2 = System.nanoTime();
+			best = Math.min(best, (t2 - t1) / 1000000.0);
+		}
+		return best;
+	}
+
+	private void report(ParserCode<?> code, MemoStat stat) {
+		ConsoleUtils.println("%-32s %10s %8s %12s %6s %10s  %s", "MemoPoint", "Lookups", "Hit/Miss", "Saved", "Off", "Bypassed", "Decision");
+		StringBuilder plan = new StringBuilder();
+		for (MemoPoint p : code.getMemoPoints()) {
+			int id = p.id;
+			boolean keep = stat.isActive(id) && (stat.savedLength(id) > 0 || stat.failHitRatio(id) > 0);
+			ConsoleUtils.println("%-32s %10d %8.3f %12d %6d %10d  %s", p.label, stat.count(id), stat.hitRatio(id), stat.savedLength(id), stat.deactivatedCount(id), stat.bypassedCount(id), keep ? "keep" : "drop");
+			if (keep) {
+				if (plan.length() > 0) {
+					plan.append(',');
+				}
+				plan.append(p.label);
+			}
+		}
+		ConsoleUtils.println("MemoPlan=" + plan);
+	}
+}
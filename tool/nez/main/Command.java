@@ -1,6 +1,11 @@
 package nez.main;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import nez.ParserGenerator;
 import nez.Version;
@@ -10,6 +15,7 @@ import nez.lang.Production;
 import nez.lang.ast.NezGrammarCombinator;
 import nez.parser.Parser;
 import nez.parser.ParserStrategy;
+import nez.parser.io.ChannelSource;
 import nez.parser.io.CommonSource;
 import nez.tool.ast.TreeJSONWriter;
 import nez.tool.ast.TreeWriter;
@@ -35,6 +41,9 @@ public abstract class Command {
 				Verbose.println("strategy: %s", com.strategy);
 			}
 			com.exec();
+			if (Verbose.PhaseTiming) {
+				Verbose.printPhaseTimes();
+			}
 		} catch (IOException e) {
 			ConsoleUtils.println(e);
 			Verbose.traceException(e);
@@ -73,6 +82,7 @@ public abstract class Command {
 	protected UList<String> inputFiles = new UList<String>(new String[4]);
 	protected String outputFormat = null;
 	protected String outputDirectory = null;
+	protected int threads = 0;
 
 	private void parseCommandOption(String[] args) {
 		for (int index = 1; index < args.length; index++) {
@@ -111,6 +121,11 @@ public abstract class Command {
 					index++;
 					continue;
 				}
+				if (as.equals("-j") || as.equals("--threads")) {
+					threads = Integer.parseInt(args[index + 1]);
+					index++;
+					continue;
+				}
 				if (as.equals("-d") || as.equals("--dir")) {
 					outputDirectory = args[index + 1];
 					index++;
@@ -121,6 +136,14 @@ public abstract class Command {
 				Verbose.enabled = true;
 				continue;
 			}
+			if (as.equals("-Xtime")) {
+				Verbose.PhaseTiming = true;
+				continue;
+			}
+			if (as.equals("-")) { // stdin
+				this.inputFiles.add(as);
+				continue;
+			}
 			if (!strategy.setOption(as)) {
 				if (as.equals("-") && as.length() > 1) {
 					showUsage("undefined option: " + as);
@@ -146,6 +169,8 @@ public abstract class Command {
 		// ConsoleUtils.println("  -a <file>      Specify a Nez auxiliary grammar files");
 		ConsoleUtils.println("  -s | --start <NAME>        Specify a starting production");
 		ConsoleUtils.println("  -d | --dir <dirname>       Specify an output dir");
+		ConsoleUtils.println("  -j | --threads <num>       Specify the number of parsing threads");
+		ConsoleUtils.println("  -Xtime                     Report the time of grammar loading, optimization and compilation");
 		ConsoleUtils.println("Example:");
 		ConsoleUtils.println("  nez parse -g js.nez jquery.js --format json");
 		ConsoleUtils.println("  nez match -g js.nez *.js");
@@ -161,6 +186,15 @@ public abstract class Command {
 		ConsoleUtils.println("  peg        translate a grammar into PEG specified with --format");
 		ConsoleUtils.println("  compile    compile a grammar into Nez bytecode .moz");
 		ConsoleUtils.println("  bench      perform benchmark tests");
+		ConsoleUtils.println("  overhead   measure per-parse overhead for many tiny inputs");
+		ConsoleUtils.println("  stress     parse inputs from many threads concurrently");
+		ConsoleUtils.println("  iobench    compare string, file and mapped sources");
+		ConsoleUtils.println("  stream     parse inputs as a sequence of -s records");
+		ConsoleUtils.println("  memo       compare memo table layouts (ways, LRU/CLOCK)");
+		ConsoleUtils.println("  memoplan   adapt memo points at runtime and print a MemoPlan");
+		ConsoleUtils.println("  treebench  measure tree construction in nodes/s");
+		ConsoleUtils.println("  profile    report time per production, with flame graph stacks");
+		ConsoleUtils.println("  backtrack  report the choices that rescan the most bytes");
 		ConsoleUtils.println("  example    display examples in a grammar");
 		ConsoleUtils.println("  test       perform grammar tests");
 		ConsoleUtils.exit(0, msg);
@@ -168,11 +202,13 @@ public abstract class Command {
 
 	public final Grammar getSpecifiedGrammar() throws IOException {
 		if (grammarFile != null) {
+			long t1 = System.nanoTime();
 			ParserGenerator pg = new ParserGenerator();
 			Grammar grammar = pg.loadGrammar(grammarFile);
 			for (String f : this.grammarFiles) {
 				pg.updateGrammar(grammar, f);
 			}
+			Verbose.printElapsedTime("Grammar loading", t1, System.nanoTime());
 			if (this.startProduction != null) {
 				if (!grammar.hasProduction(this.startProduction)) {
 					String s = startProduction.substring(0, 1);
@@ -215,6 +251,14 @@ public abstract class Command {
 		return fileIndex < inputFiles.size() || inputText != null;
 	}
 
+	/* drops the mappings of an input that has been parsed and written */
+
+	public final static void closeInputSource(Source input) {
+		if (input instanceof CommonSource) {
+			((CommonSource) input).close();
+		}
+	}
+
 	public final Source nextInputSource() throws IOException {
 		if (hasInputSource()) {
 			if (inputText != null) {
@@ -224,11 +268,61 @@ public abstract class Command {
 			}
 			String path = this.inputFiles.ArrayValues[fileIndex];
 			fileIndex++;
+			if (path.equals("-")) {
+				return new ChannelSource("(stdin)", System.in);
+			}
 			return CommonSource.newFileSource(path);
 		}
 		return CommonSource.newStringSource(""); // empty input
 	}
 
+	/**
+	 * Returns the remaining inputs as a lazy Iterable; each source is opened
+	 * only when the iterator reaches it.
+	 */
+
+	public final Iterable<Source> inputSources() {
+		return new Iterable<Source>() {
+			@Override
+			public Iterator<Source> iterator() {
+				return new Iterator<Source>() {
+					@Override
+					public boolean hasNext() {
+						return hasInputSource();
+					}
+
+					@Override
+					public Source next() {
+						try {
+							return nextInputSource();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				};
+			}
+		};
+	}
+
+	public final boolean isParallel() {
+		return threads > 1;
+	}
+
+	public final ExecutorService newExecutor() {
+		return Executors.newFixedThreadPool(Math.max(threads, 1));
+	}
+
+	public final static String formatLatency(long[] nanos, int size) {
+		if (size == 0) {
+			return "p50 - p99 -";
+		}
+		long[] sorted = Arrays.copyOf(nanos, size);
+		Arrays.sort(sorted);
+		double p50 = sorted[(size - 1) / 2] / 1000000.0;
+		double p99 = sorted[(int) Math.ceil(size * 0.99) - 1] / 1000000.0;
+		return String.format("p50 %.3f [ms] p99 %.3f [ms]", p50, p99);
+	}
+
 	public final String getOutputFileName(Source input, String ext) {
 		if (outputDirectory != null) {
 			return FileBuilder.toFileName(input.getResourceName(), outputDirectory, ext);
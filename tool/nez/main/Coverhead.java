@@ -0,0 +1,142 @@
+package nez.main;
+
+import java.io.IOException;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.io.CommonSource;
+import nez.parser.vm.Moz86;
+import nez.parser.vm.MozInst;
+import nez.parser.vm.ParserMachineContext;
+import nez.util.ConsoleUtils;
+import nez.util.UList;
+
+/**
+ * Coverhead measures the per-parse overhead for many tiny inputs. Each line
+ * of the input files is parsed as an independent input, as in parsing log
+ * lines one by one via Parser.parse(String). The compiled code is then run
+ * on the same lines with the VM exit by return and with the exit by
+ * TerminationException of the baseline.
+ */
+
+public class Coverhead extends Command {
+	private final static int Rounds = 10;
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		Parser parser = newParser();
+		parser.compile();
+		UList<Source> lines = new UList<Source>(new Source[1024]);
+		long len = 0;
+		while (hasInputSource()) {
+			Source input = nextInputSource();
+			long start = 0;
+			for (long pos = 0; pos <= input.length(); pos++) {
+				if (pos == input.length() || input.byteAt(pos) == '\n') {
+					if (pos > start) {
+						lines.add(CommonSource.newStringSource(input.getResourceName(), input.linenum(start), input.subString(start, pos)));
+						len += pos - start;
+					}
+					start = pos + 1;
+				}
+			}
+		}
+		if (lines.size() == 0) {
+			ConsoleUtils.exit(1, "no input lines");
+		}
+		ConsoleUtils.println("%d lines, %.1f bytes/line", lines.size(), (double) len / lines.size());
+		double best = Double.MAX_VALUE;
+		int failed = 0;
+		for (int c = 0; c < Rounds; c++) {
+			failed = 0;
+			long t1 = System.nanoTime();
+			for (Source line : lines) {
+				if (parser.parse(line) == null) {
+					failed++;
+				}
+			}
+			long t2 = System.nanoTime();
+			parser.clearErrors();
+			double d = (double) (t2 - t1) / lines.size();
+			ConsoleUtils.print("%.1f ", d);
+			best = Math.min(best, d);
+		}
+		ConsoleUtils.println("(best) %.1f [ns/parse], %d failed", best, failed);
+		ConsoleUtils.println("Throughput %.1f [parses/s] %.2f [MiB/s]", 1.0e9 / best, len / 1024.0 / 1024.0 / (best * lines.size() / 1.0e9));
+		if (!(parser.getParserCode().getStartInstruction() instanceof MozInst)) {
+			return;
+		}
+		/* the same code and lines, run by the two exit protocols */
+		double ret = Double.MAX_VALUE;
+		double exc = Double.MAX_VALUE;
+		for (int c = 0; c < Rounds; c++) {
+			ret = Math.min(ret, measureExit(parser, lines, false));
+			exc = Math.min(exc, measureExit(parser, lines, true));
+		}
+		ConsoleUtils.println("VM exit by return %.1f [ns/parse], by exception (baseline) %.1f [ns/parse], x%.2f, %d matched", ret, exc, exc / ret, matched);
+	}
+
+	/* the exit of the baseline, where Exit threw TerminationException */
+
+	@SuppressWarnings("serial")
+	private static class TerminationException extends Exception {
+		final boolean status;
+
+		TerminationException(boolean status) {
+			super();
+			this.status = status;
+		}
+	}
+
+	private static MozInst execThrowing(MozInst inst, ParserMachineContext<?> ctx) throws TerminationException {
+		MozInst next = inst.exec(ctx);
+		if (next == null) {
+			throw new TerminationException(Moz86.Exit.status(inst));
+		}
+		return next;
+	}
+
+	private static boolean execByException(MozInst inst, ParserMachineContext<?> ctx) {
+		MozInst cur = inst;
+		try {
+			while (true) {
+				cur = execThrowing(cur, ctx);
+			}
+		} catch (TerminationException e) {
+			return e.status;
+		}
+	}
+
+	private static boolean execByReturn(MozInst inst, ParserMachineContext<?> ctx) {
+		MozInst cur = inst;
+		MozInst next;
+		while ((next = cur.exec(ctx)) != null) {
+			cur = next;
+		}
+		return Moz86.Exit.status(cur);
+	}
+
+	private int matched = 0;
+
+	/* runs the start instruction of the parser code on each line, and returns ns/parse */
+
+	private double measureExit(Parser parser, UList<Source> lines, boolean exception) {
+		MozInst start = (MozInst) parser.getParserCode().getStartInstruction();
+		matched = 0;
+		long t1 = System.nanoTime();
+		for (Source line : lines) {
+			ParserMachineContext<CommonTree> ctx = parser.newParserMachineContext(line, new CommonTree());
+			try {
+				if (exception ? execByException(start, ctx) : execByReturn(start, ctx)) {
+					matched++;
+				}
+			} finally {
+				parser.releaseParserMachineContext(ctx);
+			}
+		}
+		long t2 = System.nanoTime();
+		return (double) (t2 - t1) / lines.size();
+	}
+}
@@ -1,7 +1,10 @@
 package nez.main;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
 
+import nez.ast.CommonTree;
 import nez.ast.Source;
 import nez.ast.Tree;
 import nez.parser.Parser;
@@ -13,11 +16,16 @@ public class Cparse extends Command {
 		checkInputSource();
 		Parser parser = newParser();
 		TreeWriter tw = this.getTreeWriter("ast xml json", "line");
+		if (isParallel()) {
+			parallelParse(parser, tw);
+			return;
+		}
 		while (hasInputSource()) {
 			Source input = nextInputSource();
 			Tree<?> node = parser.parse(input);
 			if (node == null) {
 				parser.showErrors();
+				closeInputSource(input);
 				continue;
 			}
 			// if (node != null) {
@@ -27,8 +35,47 @@ public class Cparse extends Command {
 				tw.init(getOutputFileName(input, tw.getFileExtension()));
 			}
 			tw.writeTree(node);
+			closeInputSource(input);
 			// }
 		}
+		tw.close();
+	}
+
+	/* -j N: trees are written in input order */
+
+	private void parallelParse(final Parser parser, final TreeWriter tw) {
+		final HashMap<Integer, Object[]> pending = new HashMap<Integer, Object[]>();
+		ExecutorService executor = newExecutor();
+		try {
+			parser.parseAll(inputSources(), new CommonTree(), executor, threads * 4, new Parser.ParseListener<CommonTree>() {
+				int next = 0;
+
+				@Override
+				public void parsed(int index, Source input, CommonTree node, long elapsed) {
+					pending.put(index, new Object[] { input, node });
+					Object[] p;
+					while ((p = pending.remove(next)) != null) {
+						next++;
+						write(parser, tw, (Source) p[0], (Tree<?>) p[1]);
+						closeInputSource((Source) p[0]);
+					}
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+		tw.close();
+	}
+
+	private void write(Parser parser, TreeWriter tw, Source input, Tree<?> node) {
+		if (node == null) {
+			parser.showErrors(input);
+			return;
+		}
+		if (this.outputDirectory != null) {
+			tw.init(getOutputFileName(input, tw.getFileExtension()));
+		}
+		tw.writeTree(node);
 	}
 
 	// private void record(ParserProfier prof, Tree<?> node) {
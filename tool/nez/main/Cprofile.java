@@ -0,0 +1,46 @@
+package nez.main;
+
+import java.io.IOException;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.parser.vm.ParserMachineProfiler;
+import nez.util.ConsoleUtils;
+import nez.util.FileBuilder;
+
+/**
+ * Cprofile parses the inputs with +Profiling and reports the productions
+ * that take the most time (self time, calls, failures, bytes consumed and
+ * bytes backtracked). The call paths are written to <grammar>.folded (in
+ * the -d directory, if any) for flamegraph.pl. Use -Oinline to see the
+ * productions that would be inlined.
+ */
+
+public class Cprofile extends Command {
+	private final static int Limit = 40;
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		strategy.Profiling = true;
+		Parser parser = newParser();
+		while (hasInputSource()) {
+			Source input = nextInputSource();
+			if (parser.parse(input, new CommonTree()) == null) {
+				parser.showErrors();
+			}
+		}
+		ParserMachineProfiler<?> prof = parser.getMachineProfiler();
+		if (prof == null) {
+			ConsoleUtils.exit(1, "no profile (-Moz)");
+		}
+		prof.report(Limit);
+		String file = FileBuilder.changeFileExtension(FileBuilder.extractFileName(grammarFile == null ? "grammar" : grammarFile), "folded");
+		if (outputDirectory != null) {
+			file = outputDirectory + "/" + file;
+		}
+		prof.writeCollapsedStacks(file);
+		ConsoleUtils.println("generating " + file);
+	}
+}
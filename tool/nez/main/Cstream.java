@@ -0,0 +1,50 @@
+package nez.main;
+
+import java.io.IOException;
+
+import nez.ast.CommonTree;
+import nez.ast.Source;
+import nez.parser.Parser;
+import nez.tool.ast.TreeWriter;
+import nez.util.ConsoleUtils;
+import nez.util.FileBuilder;
+
+/**
+ * Cstream parses each input as a sequence of records of the start production
+ * (-s), e.g. nez stream -g csv.nez -s Line data.csv, and writes every record
+ * as soon as it is parsed if --format is given. Memory use stays bounded by
+ * the largest record, not by the input.
+ */
+
+public class Cstream extends Command {
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		final Parser parser = newParser();
+		final TreeWriter tw = outputFormat != null ? this.getTreeWriter("ast xml json", "line") : null;
+		Runtime rt = Runtime.getRuntime();
+		while (hasInputSource()) {
+			Source input = nextInputSource();
+			final long[] peak = new long[1];
+			long t1 = System.nanoTime();
+			long records = parser.parseRecords(input, new CommonTree(), new Parser.ParseListener<CommonTree>() {
+				@Override
+				public void parsed(int index, Source input, CommonTree node, long elapsed) {
+					if (tw != null) {
+						tw.writeTree(node);
+					}
+					if ((index & 1023) == 0) {
+						peak[0] = Math.max(peak[0], rt.totalMemory() - rt.freeMemory());
+					}
+				}
+			});
+			if (tw != null) {
+				tw.close();
+			}
+			long t2 = System.nanoTime();
+			parser.showErrors();
+			double ms = (t2 - t1) / 1000000.0;
+			ConsoleUtils.println("%s: %d records, %.2f [ms], %.2f [MiB/s], peak heap %.1f [MiB]", FileBuilder.extractFileName(input.getResourceName()), records, ms, input.length() / 1024.0 / 1024.0 / (ms / 1000), peak[0] / 1024.0 / 1024.0);
+		}
+	}
+}
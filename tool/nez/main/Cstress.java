@@ -0,0 +1,117 @@
+package nez.main;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nez.ast.Source;
+import nez.ast.Symbol;
+import nez.ast.Tree;
+import nez.parser.Parser;
+import nez.parser.io.CommonSource;
+import nez.util.ConsoleUtils;
+
+/**
+ * Cstress loads the same grammar and parses the same inputs from many threads
+ * at once, alternating between a parser shared by all threads and a private
+ * one, and checks that every thread builds the same trees as a single
+ * threaded run and that concurrently interned symbols stay unique.
+ */
+
+public class Cstress extends Command {
+	private final static int Rounds = 10;
+	private final static int SharedSymbols = 4096;
+
+	@Override
+	public void exec() throws IOException {
+		checkInputSource();
+		final int nthreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+		final String[] paths = this.inputFiles.compactArray();
+		final String[] expected = new String[paths.length];
+		Parser parser = newParser();
+		final Parser shared = newParser();
+		for (int i = 0; i < paths.length; i++) {
+			expected[i] = parseToString(parser, CommonSource.newFileSource(paths[i]));
+		}
+		ConsoleUtils.println("%d threads, %d inputs, %d rounds", nthreads, paths.length, Rounds);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger mismatched = new AtomicInteger(0);
+		final AtomicInteger failed = new AtomicInteger(0);
+		final Symbol[][] interned = new Symbol[nthreads][SharedSymbols];
+		Thread[] workers = new Thread[nthreads];
+		for (int t = 0; t < nthreads; t++) {
+			final int tid = t;
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < SharedSymbols; i++) {
+							int n = (i + tid * 31) % SharedSymbols;
+							Symbol s = Symbol.unique("#stress" + n);
+							if (Symbol.tag(s.id()) != s) {
+								mismatched.incrementAndGet();
+							}
+							interned[tid][n] = s;
+						}
+						for (int c = 0; c < Rounds; c++) {
+							Parser parser = (c % 2 == 0) ? shared : newParser();
+							for (int i = 0; i < paths.length; i++) {
+								String result = parseToString(parser, CommonSource.newFileSource(paths[i]));
+								if (result == null || !result.equals(expected[i])) {
+									mismatched.incrementAndGet();
+								}
+							}
+						}
+					} catch (Throwable e) {
+						ConsoleUtils.println("thread %d: %s", tid, e);
+						failed.incrementAndGet();
+					}
+				}
+			});
+			workers[t].start();
+		}
+		long t1 = System.nanoTime();
+		start.countDown();
+		for (Thread w : workers) {
+			try {
+				w.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		long t2 = System.nanoTime();
+		int symbolErrors = checkSymbols(interned);
+		ConsoleUtils.println("elapsed %.2f [ms], %d symbols interned", (t2 - t1) / 1000000.0, Symbol.size());
+		ConsoleUtils.println("mismatched %d, failed threads %d, symbol errors %d", mismatched.get(), failed.get(), symbolErrors);
+		if (mismatched.get() > 0 || failed.get() > 0 || symbolErrors > 0) {
+			ConsoleUtils.exit(1, "stress test failed");
+		}
+	}
+
+	private static String parseToString(Parser parser, Source input) {
+		Tree<?> node = parser.parse(input);
+		parser.clearErrors();
+		return node == null ? null : node.toString();
+	}
+
+	private static int checkSymbols(Symbol[][] interned) {
+		int errors = 0;
+		boolean[] used = new boolean[Symbol.size()];
+		for (int n = 0; n < SharedSymbols; n++) {
+			Symbol s = interned[0][n];
+			for (int t = 1; t < interned.length; t++) {
+				if (interned[t][n] != s) {
+					errors++;
+				}
+			}
+			if (s.id() >= used.length || used[s.id()]) {
+				errors++;
+			} else {
+				used[s.id()] = true;
+			}
+		}
+		return errors;
+	}
+}
@@ -1,8 +1,9 @@
 package nez.main;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import nez.ast.Source;
 import nez.ast.Tree;
@@ -48,8 +49,15 @@ public class Ctest extends Command {
 			strategy.Oinline = false;
 			strategy.Prediction = 1;
 		}
-		HashMap<String, Parser> parserMap = new HashMap<>();
 		long t1 = System.nanoTime();
+		LinkedHashSet<String> names = new LinkedHashSet<>();
+		for (Example ex : exampleList) {
+			if (!(this instanceof Cexample && !ex.isPublic)) {
+				names.add(ex.getName());
+			}
+		}
+		/* the tested productions share one compiled code */
+		Map<String, Parser> parserMap = grammar.newParsers(names, strategy);
 		for (Example ex : exampleList) {
 			if (this instanceof Cexample && !ex.isPublic) {
 				continue; // skip nonpublic
@@ -0,0 +1,152 @@
+package nez.main;
+
+import java.io.IOException;
+
+import nez.ast.CommonTree;
+import nez.ast.CompactTree;
+import nez.ast.Source;
+import nez.ast.Symbol;
+import nez.ast.Tree;
+import nez.parser.Parser;
+import nez.parser.ParserContext;
+import nez.util.ConsoleUtils;
+import nez.util.FileBuilder;
+
+/**
+ * Ctreebench measures tree construction in nodes per second. Wide, deep and
+ * balanced trees are built directly with the tree log of ParserContext
+ * (beginTree, linkTree and endTree, as the VM does), and then each input,
+ * if any, is parsed with the grammar into CommonTree and CompactTree. Each
+ * round starts after a GC. The heap retained by each parse tree is reported
+ * last, as measured by the used heap after a GC with and without copies of
+ * the tree; a small input is parsed many times, so that the trees stand out
+ * from the noise of the heap.
+ */
+
+public class Ctreebench extends Command {
+	private final static int Rounds = 10;
+	private final static Symbol Label = Symbol.unique("child");
+	private final static Symbol Tag = Symbol.unique("Node");
+	/* the live trees of footprint() cover this many input bytes, up to MaxTrees */
+	private final static long FootprintBytes = 4 << 20;
+	private final static int MaxTrees = 20000;
+
+	@Override
+	public void exec() throws IOException {
+		bench("wide", 0, 200000);
+		bench("deep", 2000, 1);
+		bench("balanced", 8, 4);
+		if (hasInputSource()) {
+			Parser parser = newParser();
+			parser.setDisabledUnconsumed(true);
+			parser.compile();
+			while (hasInputSource()) {
+				Source input = nextInputSource();
+				bench(parser, input, false);
+				bench(parser, input, true);
+				footprint(parser, input);
+			}
+		}
+	}
+
+	/* a tree of the given depth where each node has width children */
+
+	private void bench(String shape, int depth, int width) {
+		double best = Double.MAX_VALUE;
+		int nodes = 0;
+		for (int c = 0; c < Rounds; c++) {
+			System.gc();
+			/* a new context, so that the growth of the log is measured */
+			ParserContext<CommonTree> ctx = new ParserContext<CommonTree>("", new CommonTree());
+			long t1 = System.nanoTime();
+			build(ctx, depth, width);
+			long t2 = System.nanoTime();
+			nodes = ctx.left.countSubNodes();
+			best = Math.min(best, (t2 - t1) / 1000000.0);
+		}
+		report(shape, nodes, best);
+	}
+
+	private static void build(ParserContext<CommonTree> ctx, int depth, int width) {
+		ctx.beginTree(0);
+		if (depth > 0 || width > 1) {
+			for (int i = 0; i < width; i++) {
+				int log = ctx.saveLog();
+				CommonTree parent = ctx.left;
+				build(ctx, depth > 0 ? depth - 1 : 0, depth > 0 ? width : 1);
+				ctx.backLog(log);
+				ctx.linkTree(parent, Label);
+				ctx.left = parent;
+			}
+		}
+		ctx.tagTree(Tag);
+		ctx.endTree(0, null, null);
+	}
+
+	private void bench(Parser parser, Source input, boolean compact) {
+		double best = Double.MAX_VALUE;
+		int nodes = 0;
+		for (int c = 0; c < Rounds; c++) {
+			System.gc();
+			long t1 = System.nanoTime();
+			Tree<?> node = parse(parser, input, compact);
+			long t2 = System.nanoTime();
+			if (node == null) {
+				parser.showErrors();
+				return;
+			}
+			nodes = node.countSubNodes();
+			best = Math.min(best, (t2 - t1) / 1000000.0);
+		}
+		report(FileBuilder.extractFileName(input.getResourceName()) + (compact ? "/compact" : ""), nodes, best);
+	}
+
+	private void footprint(Parser parser, Source input) {
+		long common = retained(parser, input, false);
+		long compact = retained(parser, input, true);
+		ConsoleUtils.println("%-24s input %d bytes, CommonTree %s, CompactTree %s", FileBuilder.extractFileName(input.getResourceName()), input.length(), formatSize(common, input), formatSize(compact, input));
+	}
+
+	private static String formatSize(long size, Source input) {
+		if (size <= 0) {
+			return "n/a"; // lost in the noise of the heap
+		}
+		return String.format("%d bytes (%.1fx)", size, (double) size / input.length());
+	}
+
+	private static Tree<?> parse(Parser parser, Source input, boolean compact) {
+		if (compact) {
+			CompactTree node = parser.parse(input, new CompactTree());
+			return node == null ? null : node.trim();
+		}
+		return parser.parse(input, new CommonTree());
+	}
+
+	/* the heap retained per tree, or -1 */
+
+	private static long retained(Parser parser, Source input, boolean compact) {
+		int count = (int) Math.max(1, Math.min(MaxTrees, FootprintBytes / Math.max(1, input.length())));
+		Tree<?>[] trees = new Tree<?>[count];
+		long used = usedHeap();
+		for (int i = 0; i < count; i++) {
+			trees[i] = parse(parser, input, compact);
+		}
+		long size = usedHeap() - used;
+		if (trees[count - 1] == null) {
+			return -1;
+		}
+		return size / count;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static void report(String name, int nodes, double ms) {
+		ConsoleUtils.println("%-24s %9d nodes %9.2f [ms] %12.0f [nodes/s]", name, nodes, ms, nodes / (ms / 1000));
+	}
+}
@@ -3,7 +3,7 @@ package nez.tool.ast;
 import nez.ast.Tree;
 import nez.util.StringUtils;
 
-public class TreeJSONWriter extends TreeWriter {
+public class TreeJSONWriter extends TreeStreamWriter {
 
 	public TreeJSONWriter() {
 		super(".json");
@@ -11,69 +11,74 @@ public class TreeJSONWriter extends TreeWriter {
 
 	@Override
 	public void writeTree(Tree<?> node) {
+		beginLine(node);
 		writeJSON(node);
-		file.writeNewLine();
+		writeNewLine();
+		endLine(node);
 	}
 
 	private void writeJSON(Tree<?> node) {
 		if (node.size() == 0) {
-			String text = node.toText();
 			if (dataOption) {
-				try {
-					Double v = Double.parseDouble(text);
-					file.write(v.toString());
-					return;
-				} catch (NumberFormatException e) {
+				if (mayBeNumber(node)) {
+					CharSequence text = node.toCharSequence();
+					if (StringUtils.isNumber(text)) {
+						write(StringUtils.parseDouble(text));
+						return;
+					}
 				}
-				try {
-					Long v = Long.parseLong(text);
-					file.write(v.toString());
-					return;
-				} catch (NumberFormatException e) {
-				}
-				file.write(StringUtils.quoteString('"', text, '"'));
+				writeText(node, true);
 			} else {
-				file.write("{");
-				file.write("\"type\":");
-				file.write(StringUtils.quoteString('"', node.getTag().toString(), '"'));
-				file.write(",\"pos\":");
-				file.write("" + node.getSourcePosition());
-				file.write(",\"line\":");
-				file.write("" + node.getLineNum());
-				file.write(",\"column\":");
-				file.write("" + node.getColumn());
-				file.write(",\"text\":");
-				file.write(StringUtils.quoteString('"', text, '"'));
-				file.write("}");
+				write("{\"type\":");
+				writeQuoted(node.getTag());
+				write(",\"pos\":");
+				write(node.getSourcePosition());
+				write(",\"line\":");
+				write(getLineNum(node));
+				write(",\"column\":");
+				write(getColumn(node));
+				write(",\"text\":");
+				writeText(node, true);
+				write('}');
 			}
 			return;
 		}
 		if (node.isAllLabeled()) {
-			file.write("{");
+			write('{');
 			if (!dataOption) {
-				file.write("\"type\":");
-				file.write(StringUtils.quoteString('"', node.getTag().toString(), '"'));
-				file.write(",");
+				write("\"type\":");
+				writeQuoted(node.getTag());
+				write(',');
 			}
 			for (int i = 0; i < node.size(); i++) {
 				if (i > 0) {
-					file.write(",");
+					write(',');
 				}
-				file.write(StringUtils.quoteString('"', node.getLabel(i).toString(), '"'));
-				file.write(":");
+				writeQuoted(node.getLabel(i));
+				write(':');
 				writeJSON(node.get(i));
 			}
-			file.write("}");
+			write('}');
 			return;
 		}
-		file.write("[");
+		write('[');
 		for (int i = 0; i < node.size(); i++) {
 			if (i > 0) {
-				file.write(",");
+				write(',');
 			}
 			writeJSON(node.get(i));
 		}
-		file.write("]");
+		write(']');
+	}
+
+	/* most strings are told from numbers by their first byte */
+
+	private static boolean mayBeNumber(Tree<?> node) {
+		if (node.getValue() != null || node.getSource() == null || node.getLength() == 0) {
+			return true;
+		}
+		int c = node.getSource().byteAt(node.getSourcePosition());
+		return c <= ' ' || c == '+' || c == '-' || c == '.' || c == 'N' || c == 'I' || (c >= '0' && c <= '9');
 	}
 
 }
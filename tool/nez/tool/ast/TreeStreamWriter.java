@@ -0,0 +1,396 @@
+package nez.tool.ast;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import nez.ast.Source;
+import nez.ast.Symbol;
+import nez.ast.Tree;
+import nez.parser.Parser;
+import nez.util.ConsoleUtils;
+import nez.util.FileBuilder;
+import nez.util.StringUtils;
+import nez.util.Verbose;
+
+/**
+ * TreeStreamWriter writes UTF-8 bytes into a buffer that is drained into a
+ * WritableByteChannel (stdout unless init() names a file). Leaf text is
+ * escaped from the source bytes, and the line of a node is counted from the
+ * previous node, so writing a tree allocates no strings per node. As a
+ * ParseListener, it writes each tree as soon as it is parsed, e.g. with
+ * Parser.parseRecords().
+ */
+
+public abstract class TreeStreamWriter extends TreeWriter implements Parser.ParseListener<Tree<?>> {
+	public final static int BufferSize = 64 * 1024;
+	private final static byte[] Tab = StringUtils.utf8(FileBuilder.TAB);
+
+	private WritableByteChannel channel;
+	private boolean stdout;
+	private String fileName = null;
+	private final byte[] buffer = new byte[BufferSize];
+	private int filled = 0;
+	private int indent = 0;
+
+	public TreeStreamWriter(String ext) {
+		super(ext);
+		this.channel = new FileOutputStream(FileDescriptor.out).getChannel();
+		this.stdout = true;
+	}
+
+	public final void init(WritableByteChannel channel) {
+		this.close();
+		this.channel = channel;
+		this.stdout = false;
+		this.fileName = null;
+	}
+
+	@Override
+	public void init(String path) {
+		try {
+			this.init(new FileOutputStream(path).getChannel());
+			this.fileName = path;
+		} catch (FileNotFoundException e) {
+			ConsoleUtils.notice(e.getMessage());
+		}
+	}
+
+	@Override
+	public void parsed(int index, Source input, Tree<?> result, long elapsedNanoTime) {
+		if (result != null) {
+			this.writeTree(result);
+		}
+	}
+
+	/* output */
+
+	public final void flush() {
+		try {
+			if (stdout) {
+				System.out.flush();
+			}
+			ByteBuffer b = ByteBuffer.wrap(buffer, 0, filled);
+			while (b.hasRemaining()) {
+				channel.write(b);
+			}
+			filled = 0;
+		} catch (IOException e) {
+			ConsoleUtils.exit(1, "IO error: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void close() {
+		this.flush();
+		if (!stdout) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				Verbose.traceException(e);
+			}
+			if (this.fileName != null) {
+				Verbose.println("generating: " + this.fileName);
+			}
+		}
+	}
+
+	protected final void write(int b) {
+		if (filled == buffer.length) {
+			flush();
+		}
+		buffer[filled++] = (byte) b;
+	}
+
+	protected final void write(byte[] b) {
+		write(b, 0, b.length);
+	}
+
+	protected final void write(byte[] b, int offset, int length) {
+		if (filled + length > buffer.length) {
+			flush();
+			if (length > buffer.length) {
+				writeLarge(ByteBuffer.wrap(b, offset, length));
+				return;
+			}
+		}
+		System.arraycopy(b, offset, buffer, filled, length);
+		filled += length;
+	}
+
+	private void writeLarge(ByteBuffer b) {
+		try {
+			while (b.hasRemaining()) {
+				channel.write(b);
+			}
+		} catch (IOException e) {
+			ConsoleUtils.exit(1, "IO error: " + e.getMessage());
+		}
+	}
+
+	/* ASCII only, for numbers and markup */
+
+	protected final void write(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	protected final void write(long n) {
+		if (n < 0) {
+			if (n == Long.MIN_VALUE) {
+				write(Long.toString(n));
+				return;
+			}
+			write('-');
+			n = -n;
+		}
+		if (filled + 20 > buffer.length) {
+			flush();
+		}
+		int start = filled;
+		do {
+			buffer[filled++] = (byte) ('0' + (n % 10));
+			n /= 10;
+		} while (n > 0);
+		for (int i = start, j = filled - 1; i < j; i++, j--) {
+			byte t = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = t;
+		}
+	}
+
+	/* the same as Double.toString(v) */
+
+	protected final void write(double v) {
+		if (v == (long) v && Math.abs(v) < 1e7 && (v != 0 || 1 / v > 0)) {
+			write((long) v);
+			write('.');
+			write('0');
+			return;
+		}
+		write(Double.toString(v));
+	}
+
+	protected final void writeNewLine() {
+		write('\n');
+	}
+
+	protected final void writeIndent() {
+		write('\n');
+		for (int i = 0; i < indent; i++) {
+			write(Tab);
+		}
+	}
+
+	protected final void incIndent() {
+		indent++;
+	}
+
+	protected final void decIndent() {
+		indent--;
+	}
+
+	/* text, escaped as StringUtils.formatStringLiteral does */
+
+	private byte[][] symbols = new byte[256][];
+	private byte[][] quotedSymbols = new byte[256][];
+
+	protected final byte[] utf8(Symbol s) {
+		int id = s.id();
+		if (id >= symbols.length) {
+			symbols = Arrays.copyOf(symbols, Math.max(id + 1, symbols.length * 2));
+		}
+		if (symbols[id] == null) {
+			symbols[id] = StringUtils.utf8(s.getSymbol());
+		}
+		return symbols[id];
+	}
+
+	protected final void write(Symbol s) {
+		write(utf8(s));
+	}
+
+	protected final void writeQuoted(Symbol s) {
+		int id = s.id();
+		if (id >= quotedSymbols.length) {
+			quotedSymbols = Arrays.copyOf(quotedSymbols, Math.max(id + 1, quotedSymbols.length * 2));
+		}
+		if (quotedSymbols[id] == null) {
+			quotedSymbols[id] = StringUtils.utf8(StringUtils.quoteString('"', s.getSymbol(), '"'));
+		}
+		write(quotedSymbols[id]);
+	}
+
+	protected final void writeQuoted(CharSequence text) {
+		write('"');
+		writeEscaped(ByteBuffer.wrap(StringUtils.utf8(text.toString())), true);
+		write('"');
+	}
+
+	/* the text of a leaf, as Tree.toText() would give it */
+
+	protected final void writeText(Tree<?> node, boolean quote) {
+		ByteBuffer b = rawText(node);
+		if (b == null) {
+			if (quote) {
+				writeQuoted(node.toCharSequence());
+			} else {
+				write(StringUtils.utf8(node.toCharSequence().toString()));
+			}
+			return;
+		}
+		if (quote) {
+			write('"');
+		}
+		writeEscaped(b, quote);
+		if (quote) {
+			write('"');
+		}
+	}
+
+	protected final static boolean isEmptyText(Tree<?> node) {
+		Object value = node.getValue();
+		if (value != null && !(value instanceof Tree<?>)) {
+			return value.toString().isEmpty();
+		}
+		return node.getSource() == null || node.getLength() == 0;
+	}
+
+	/* source bytes of a leaf, or null if its text is not the source text */
+
+	private static ByteBuffer rawText(Tree<?> node) {
+		Object value = node.getValue();
+		if ((value != null && !(value instanceof Tree<?>)) || node.getSource() == null) {
+			return null;
+		}
+		ByteBuffer b = node.getRawBuffer();
+		return isUTF8(b) ? b : null;
+	}
+
+	private void writeEscaped(ByteBuffer b, boolean escape) {
+		int end = b.limit();
+		for (int i = b.position(); i < end; i++) {
+			byte c = b.get(i);
+			if (escape) {
+				switch (c) {
+				case '\n':
+					write('\\');
+					write('n');
+					continue;
+				case '\t':
+					write('\\');
+					write('t');
+					continue;
+				case '"':
+				case '\\':
+					write('\\');
+					break;
+				}
+			}
+			if (filled == buffer.length) {
+				flush();
+			}
+			buffer[filled++] = c;
+		}
+	}
+
+	/* well-formed UTF-8, which decodes and encodes back to the same bytes */
+
+	private static boolean isUTF8(ByteBuffer b) {
+		int end = b.limit();
+		for (int i = b.position(); i < end; i++) {
+			int c = b.get(i) & 0xff;
+			if (c < 0x80) {
+				continue;
+			}
+			int n;
+			int min;
+			if (c >= 0xc2 && c <= 0xdf) {
+				n = 1;
+				min = 0x80;
+			} else if (c >= 0xe0 && c <= 0xef) {
+				n = 2;
+				min = 0x800;
+			} else if (c >= 0xf0 && c <= 0xf4) {
+				n = 3;
+				min = 0x10000;
+			} else {
+				return false;
+			}
+			if (i + n >= end) {
+				return false;
+			}
+			int cp = c & (0x3f >> n);
+			for (int k = 1; k <= n; k++) {
+				int d = b.get(i + k) & 0xff;
+				if ((d & 0xc0) != 0x80) {
+					return false;
+				}
+				cp = (cp << 6) | (d & 0x3f);
+			}
+			if (cp < min || cp > 0x10ffff || (cp >= 0xd800 && cp <= 0xdfff)) {
+				return false;
+			}
+			i += n;
+		}
+		return true;
+	}
+
+	/* line numbers, counted on from the last node written */
+
+	private final static int Lookback = 4096; // bytes a streaming source keeps behind its records
+	private Source lineSource = null;
+	private long linePos = 0;
+	private long line = 0;
+	private long lineStart = 0;
+
+	private void seekLine(Source s, long pos) {
+		if (s != lineSource || pos < linePos) {
+			lineSource = s;
+			line = s.linenum(pos);
+			lineStart = pos - s.column(pos);
+			linePos = pos;
+			return;
+		}
+		for (long p = linePos; p < pos; p++) {
+			if (s.byteAt(p) == '\n') {
+				line++;
+				lineStart = p + 1;
+			}
+		}
+		linePos = pos;
+	}
+
+	protected final long getLineNum(Tree<?> node) {
+		seekLine(node.getSource(), node.getSourcePosition());
+		return line;
+	}
+
+	protected final long getColumn(Tree<?> node) {
+		seekLine(node.getSource(), node.getSourcePosition());
+		return node.getSourcePosition() - lineStart;
+	}
+
+	/*
+	 * A tree may be written after the input before it is released; the count
+	 * is moved to the end of each tree, and starts over if the next tree is
+	 * farther away than a streaming source keeps.
+	 */
+
+	protected final void beginLine(Tree<?> node) {
+		if (node.getSource() == lineSource && node.getSourcePosition() - linePos > Lookback) {
+			lineSource = null;
+		}
+	}
+
+	protected final void endLine(Tree<?> node) {
+		if (node.getSource() != null && node.getSource() == lineSource) {
+			seekLine(node.getSource(), node.getSourcePosition() + node.getLength());
+		}
+	}
+}
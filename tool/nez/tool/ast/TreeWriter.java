@@ -14,11 +14,15 @@ public abstract class TreeWriter {
 		this.fileExtension = ext;
 	}
 
-	public final void init(String path) {
+	public void init(String path) {
 		file.close();
 		file = new FileBuilder(path);
 	}
 
+	public void close() {
+		file.close();
+	}
+
 	public final String getFileExtension() {
 		return fileExtension;
 	}
@@ -67,7 +71,7 @@ public abstract class TreeWriter {
 				file.writeIndent("$" + label + "=#" + node.getTag() + "[");
 			}
 			if (node.size() == 0) {
-				file.write(StringUtils.quoteString('\'', node.toText(), '\''));
+				file.write(StringUtils.quoteString('\'', node.toCharSequence(), '\''));
 				file.write("]");
 			} else {
 				file.incIndent();
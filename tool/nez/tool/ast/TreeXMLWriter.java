@@ -2,62 +2,74 @@ package nez.tool.ast;
 
 import nez.ast.Symbol;
 import nez.ast.Tree;
-import nez.util.StringUtils;
 
-public class TreeXMLWriter extends TreeWriter {
+public class TreeXMLWriter extends TreeStreamWriter {
 	public TreeXMLWriter() {
 		super(".xml");
 	}
 
 	@Override
 	public final void writeTree(Tree<?> node) {
-		String tag = node.getTag().toString();
-		writeXML(null, tag, node);
-		file.writeNewLine();
+		beginLine(node);
+		writeXML(null, node.getTag(), node);
+		writeNewLine();
+		endLine(node);
 	}
 
-	public final void writeXML(Symbol label, String tag, Tree<?> node) {
-		file.writeIndent("<" + tag);
+	public final void writeXML(Symbol label, Symbol tag, Tree<?> node) {
+		writeIndent();
+		write('<');
+		write(tag);
 		if (label != null) {
-			file.write(" label=\"" + label + "\"");
+			write(" label=\"");
+			write(label);
+			write('"');
 		}
 		if (node.size() == 0) {
-			String s = node.toText();
-			if (s.equals("")) {
-				file.write("/>");
+			if (isEmptyText(node)) {
+				write("/>");
 			} else {
 				if (!this.dataOption) {
-					file.write(" pos=\"" + node.getSourcePosition() + "\"");
-					file.write(" line=\"" + node.getLineNum() + "\"");
-					file.write(" column=\"" + node.getColumn() + "\"");
+					write(" pos=\"");
+					write(node.getSourcePosition());
+					write("\" line=\"");
+					write(getLineNum(node));
+					write("\" column=\"");
+					write(getColumn(node));
+					write('"');
 				}
-				file.write(">");
-				file.write(node.toText());
-				file.write("</" + tag + ">");
+				write('>');
+				writeText(node, false);
+				write("</");
+				write(tag);
+				write('>');
 			}
 			return;
 		}
 		for (int i = 0; i < node.size(); i++) {
 			Tree<?> sub = node.get(i);
-			String stag = sub.getTag().toString();
-			if (stag.startsWith("@")) {
-				file.write(" ");
-				file.write(stag.substring(1));
-				file.write("=");
-				file.write(StringUtils.quoteString('"', sub.toText(), '"'));
+			byte[] stag = utf8(sub.getTag());
+			if (stag.length > 0 && stag[0] == '@') {
+				write(' ');
+				write(stag, 1, stag.length - 1);
+				write('=');
+				writeText(sub, true);
 			}
 		}
-		file.write(">");
-		file.incIndent();
+		write('>');
+		incIndent();
 		for (int i = 0; i < node.size(); i++) {
 			Tree<?> sub = node.get(i);
-			String stag = sub.getTag().toString();
-			if (!stag.startsWith("@")) {
-				this.writeXML(node.getLabel(i), stag, sub);
+			byte[] stag = utf8(sub.getTag());
+			if (stag.length == 0 || stag[0] != '@') {
+				this.writeXML(node.getLabel(i), sub.getTag(), sub);
 			}
 		}
-		file.decIndent();
-		file.writeIndent("</" + tag + ">");
+		decIndent();
+		writeIndent();
+		write("</");
+		write(tag);
+		write('>');
 	}
 
 }
@@ -0,0 +1,12 @@
+# stdin is read through the 64 KiB sliding buffer of ChannelSource
+
+rows() {
+	awk "BEGIN { for (i = 0; i < $1; i++) print i \",abc,\" i * 7 \".5,\\\"q\\\"\" }"
+}
+
+# about 50 MiB; match slides the buffer, so the input does not fit in the heap
+rows 2000000 | java -Xmx32m -jar nez.jar match -g csv.nez - || exit 1
+
+# about 3 MiB; parse keeps the input, because the tree reads it later
+rows 120000 | java -jar nez.jar parse -g csv.nez -TreeConstruction - > /dev/null || exit 1
+rows 120000 | java -jar nez.jar parse -g csv.nez - > /dev/null || exit 1